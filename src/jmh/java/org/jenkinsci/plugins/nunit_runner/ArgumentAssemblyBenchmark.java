@@ -0,0 +1,56 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the nunit3-console command line and the Windows batch file contents
+ * for many test assemblies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArgumentAssemblyBenchmark {
+
+    @Param({"100", "5000"})
+    public int targets;
+
+    private List<String> targetFiles;
+    private List<String> options;
+
+    @Setup
+    public void setUp() {
+        targetFiles = new ArrayList<>(targets);
+        for (int i = 0; i < targets; i++) {
+            targetFiles.add("src/Area" + (i % 20) + "/Project" + i + "/bin/Release/Company.Product.Project" + i + ".Tests.dll");
+        }
+        options = Arrays.asList("/Settings:\"Local.RunSettings\"", "/Platform:x64", "/Framework:framework45", "/teamcity");
+    }
+
+    @Benchmark
+    public List<String> arguments() {
+        return NUnitBuilder.getArguments("C:\\Program Files (x86)\\NUnit.org\\nunit-console\\nunit3-console.exe", targetFiles, options);
+    }
+
+    @Benchmark
+    public String batchFile() {
+        return NUnitBuilder.concatString(arguments());
+    }
+}
@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hudson.model.TaskListener;
+import hudson.util.NullStream;
+import hudson.util.StreamTaskListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Console lines per second through {@link NUnitListenerDecorator}. One operation is one
+ * line, so <code>-prof gc</code> reports <code>gc.alloc.rate.norm</code> as bytes per line.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NUnitListenerDecoratorBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Number of distinct lines cycled through; a power of two. */
+    private static final int LINE_COUNT = 1024;
+
+    @Param({"false", "true"})
+    public boolean teamcity;
+
+    private byte[][] lines;
+    private int next;
+    private NUnitListenerDecorator decorator;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        List<byte[]> generated = new ArrayList<>(LINE_COUNT);
+        for (int i = 0; i < LINE_COUNT; i++) {
+            String test = "Company.Product.Tests.Fixture" + random.nextInt(500) + ".Test" + random.nextInt(100);
+            String line;
+            if (teamcity && i % 4 == 0) {
+                line = "##teamcity[testStarted name='" + test + "' captureStandardOutput='false' flowId='0-" + i + "']";
+            } else if (teamcity && i % 4 == 1) {
+                line = "##teamcity[testFinished name='" + test + "' duration='" + random.nextInt(2000) + "' flowId='0-" + i + "']";
+            } else if (i % 3 == 0) {
+                line = "  \u00dcberpr\u00fcfung von " + test + " \u2013 Ergebnis: \u2713 " + random.nextInt(100000);
+            } else {
+                line = "=> " + test + " wrote output line " + random.nextInt(100000) + " at C:\\build\\workspace\\src\\Tests\\Fixture.cs:line " + random.nextInt(400);
+            }
+            generated.add((line + "\r\n").getBytes(UTF_8));
+        }
+        lines = generated.toArray(new byte[LINE_COUNT][]);
+
+        TaskListener listener = new StreamTaskListener(new NullStream(), UTF_8);
+        NUnitTestEvent.Listener events = teamcity ? new NUnitProgressAction() : null;
+        decorator = new NUnitListenerDecorator(listener, UTF_8, "[shard-1] ", events);
+    }
+
+    @Benchmark
+    public void line() throws IOException {
+        decorator.write(lines[next++ & (LINE_COUNT - 1)]);
+    }
+}
@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to resolve the <code>testFiles</code> patterns over a synthetic workspace laid
+ * out like a .NET solution: projects with bin/obj folders and a few test assemblies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TestFilesResolutionBenchmark {
+
+    /** Number of projects in the workspace; each adds about 40 files. */
+    @Param({"100", "2500"})
+    public int projects;
+
+    @Param({"1", "15"})
+    public int patterns;
+
+    private File root;
+    private FilePath workspace;
+    private NUnitBuilder builder;
+    private EnvVars env;
+
+    @Setup
+    public void setUp() throws Exception {
+        root = Util.createTempDir();
+        for (int p = 0; p < projects; p++) {
+            File project = new File(root, "src/Area" + (p % 20) + "/Project" + p);
+            for (String dir : new String[] {"", "bin/Release", "obj/Release", "Properties"}) {
+                File folder = new File(project, dir);
+                if (!folder.mkdirs() && !folder.isDirectory()) {
+                    throw new IOException("Failed to create " + folder);
+                }
+                for (int f = 0; f < 10; f++) {
+                    touch(new File(folder, "File" + f + (dir.isEmpty() ? ".cs" : ".dll")));
+                }
+            }
+            if (p % 10 == 0) {
+                touch(new File(project, "bin/Release/Project" + p + ".Tests.dll"));
+            }
+        }
+
+        StringBuilder testFiles = new StringBuilder();
+        for (int i = 0; i < patterns; i++) {
+            testFiles.append("src/Area").append(i % 20).append("/**/bin/Release/*.Tests.dll\n");
+        }
+        builder = new NUnitBuilder();
+        builder.setTestFiles(testFiles.toString());
+        workspace = new FilePath(root);
+        env = new EnvVars();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workspace.deleteRecursive();
+    }
+
+    @Benchmark
+    public List<String> resolve() throws Exception {
+        return builder.getTestFilesArguments(workspace, env);
+    }
+
+    private static void touch(File file) throws IOException {
+        if (!file.createNewFile()) {
+            throw new IOException("Failed to create " + file);
+        }
+    }
+}
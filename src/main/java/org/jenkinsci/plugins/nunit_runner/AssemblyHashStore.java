@@ -0,0 +1,127 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import hudson.model.Job;
+import hudson.util.AtomicFileWriter;
+
+/**
+ * Per-job record of the assembly hashes of the last green build that ran each assembly.
+ * Stored as one line per assembly, <code>build hash path</code>, in the job directory.
+ */
+public class AssemblyHashStore {
+
+    private static final String FILE_NAME = "nunit-assembly-hashes.txt";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Builds of one job may finish concurrently. */
+    private static final Object LOCK = new Object();
+
+    private final Map<String, Record> records;
+
+    private AssemblyHashStore(Map<String, Record> records) {
+        this.records = records;
+    }
+
+    /**
+     * @param path Assembly path relative to the workspace
+     * @return the hash recorded for the assembly, or null
+     */
+    public Record get(String path) {
+        return records.get(path);
+    }
+
+    /**
+     * @param job Job
+     * @return the stored hashes, empty if none were stored yet
+     * @throws IOException
+     */
+    public static AssemblyHashStore load(Job<?, ?> job) throws IOException {
+        synchronized (LOCK) {
+            return new AssemblyHashStore(read(getFile(job)));
+        }
+    }
+
+    /**
+     * Records the hashes of the assemblies a green build ran. Other entries are kept.
+     *
+     * @param job Job
+     * @param hashes Hash by assembly path
+     * @param build Number of the green build
+     * @throws IOException
+     */
+    public static void update(Job<?, ?> job, Map<String, String> hashes, int build) throws IOException {
+        synchronized (LOCK) {
+            File file = getFile(job);
+            Map<String, Record> records = new TreeMap<>(read(file));
+            for (Map.Entry<String, String> hash : hashes.entrySet()) {
+                records.put(hash.getKey(), new Record(hash.getValue(), build));
+            }
+
+            AtomicFileWriter writer = new AtomicFileWriter(file, "UTF-8");
+            try {
+                for (Map.Entry<String, Record> record : records.entrySet()) {
+                    writer.write(record.getValue().build + " " + record.getValue().hash + " " + record.getKey() + "\n");
+                }
+                writer.commit();
+            } finally {
+                writer.abort();
+            }
+        }
+    }
+
+    private static Map<String, Record> read(File file) throws IOException {
+        Map<String, Record> records = new HashMap<>();
+        if (!file.isFile()) {
+            return records;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ", 3);
+                if (fields.length == 3) {
+                    try {
+                        records.put(fields[2], new Record(fields[1], Integer.parseInt(fields[0])));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        return records;
+    }
+
+    private static File getFile(Job<?, ?> job) {
+        return new File(job.getRootDir(), FILE_NAME);
+    }
+
+    /**
+     * Hash of an assembly and the build that ran it.
+     */
+    public static final class Record {
+
+        private final String hash;
+        private final int build;
+
+        public Record(String hash, int build) {
+            this.hash = hash;
+            this.build = build;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public int getBuild() {
+            return build;
+        }
+    }
+}
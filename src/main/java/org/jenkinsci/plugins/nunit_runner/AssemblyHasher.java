@@ -0,0 +1,140 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Computes a content hash for each test assembly on the agent. The hash covers the
+ * assembly and every dependency next to it (<code>.dll</code>, <code>.exe</code>,
+ * <code>.config</code> and <code>.json</code> files in the same directory), so a change
+ * to any referenced binary or configuration changes the hash.
+ * <p>
+ * The hash also covers the nunit3-console path and the options the step runs the
+ * assembly with, so changing the test selection, platform or command line runs it again.
+ * In a shared output folder every assembly depends on every binary in it, so building
+ * any project there changes the hash of all of them.
+ */
+public class AssemblyHasher extends MasterToSlaveFileCallable<Map<String, String>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] DEPENDENCY_EXTENSIONS = {".dll", ".exe", ".config", ".json"};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<String> assemblies;
+    private final String pathToNUnit;
+    private final List<String> options;
+
+    /**
+     * @param assemblies Test assemblies relative to the workspace
+     * @param pathToNUnit nunit3-console.exe path
+     * @param options Options that select the tests and decide how they run, without those that vary between runs
+     */
+    public AssemblyHasher(List<String> assemblies, String pathToNUnit, List<String> options) {
+        this.assemblies = assemblies;
+        this.pathToNUnit = pathToNUnit;
+        this.options = options;
+    }
+
+    /**
+     * @return SHA-256 in hex by assembly, only for assemblies that exist
+     */
+    public Map<String, String> invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        // Assemblies built into one output folder share their dependencies; hash each file once.
+        Map<File, Map<String, String>> directories = new HashMap<>();
+        Map<String, String> hashes = new HashMap<>();
+
+        for (String assembly : assemblies) {
+            File file = new File(workspace, assembly);
+            File dir = file.getParentFile();
+            if (!file.isFile() || dir == null) {
+                continue;
+            }
+            Map<String, String> digests = directories.get(dir);
+            if (digests == null) {
+                digests = hashDependencies(dir);
+                directories.put(dir, digests);
+            }
+
+            MessageDigest digest = newDigest();
+            digest.update(assembly.getBytes(UTF_8));
+            digest.update(("\n" + pathToNUnit).getBytes(UTF_8));
+            for (String option : options) {
+                digest.update(("\n" + option).getBytes(UTF_8));
+            }
+            digest.update("\n".getBytes(UTF_8));
+            for (Map.Entry<String, String> dependency : digests.entrySet()) {
+                digest.update(("\n" + dependency.getKey() + ":" + dependency.getValue()).getBytes(UTF_8));
+            }
+            hashes.put(assembly, Util.toHexString(digest.digest()));
+        }
+        return hashes;
+    }
+
+    /**
+     * @return digest by file name, sorted by name
+     */
+    private static Map<String, String> hashDependencies(File dir) throws IOException, InterruptedException {
+        Map<String, String> digests = new TreeMap<>();
+        String[] names = dir.list();
+        if (names == null) {
+            throw new IOException("Failed to list " + dir);
+        }
+        Arrays.sort(names);
+        byte[] buffer = new byte[64 * 1024];
+        for (String name : names) {
+            if (!isDependency(name)) {
+                continue;
+            }
+            File file = new File(dir, name);
+            if (!file.isFile()) {
+                continue;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            MessageDigest digest = newDigest();
+            try (InputStream in = new FileInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            digests.put(name, Util.toHexString(digest.digest()));
+        }
+        return digests;
+    }
+
+    private static boolean isDependency(String name) {
+        String lower = name.toLowerCase();
+        for (String extension : DEPENDENCY_EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+
+/**
+ * Remembers how the test files of a build were split across agents, so that every
+ * parallel branch of a Pipeline picks its part from the same split, even if the
+ * duration history changes while the branches start.
+ */
+public class NUnitAgentShardsAction extends InvisibleAction {
+
+    private final List<Plan> plans = new ArrayList<>();
+
+    /**
+     * @param run Current build
+     * @param targets Test files relative to the workspace, sorted
+     * @param shardCount Number of agents the test files are split across
+     * @return the test files of each agent, planned once per build
+     */
+    public static List<List<String>> getPlan(Run<?, ?> run, List<String> targets, int shardCount) {
+        synchronized (run) {
+            NUnitAgentShardsAction action = run.getAction(NUnitAgentShardsAction.class);
+            if (action == null) {
+                action = new NUnitAgentShardsAction();
+                run.addAction(action);
+            }
+            Set<String> targetSet = new HashSet<>(targets);
+            for (Plan plan : action.plans) {
+                if (plan.shardCount == shardCount && plan.getTargets().equals(targetSet)) {
+                    return plan.shards;
+                }
+            }
+            List<List<String>> shards = ShardPlanner.balance(targets, NUnitAssemblyDurationsAction.getHistory(run, targets), shardCount);
+            action.plans.add(new Plan(shardCount, shards));
+            return shards;
+        }
+    }
+
+    /**
+     * One split of a set of test files.
+     */
+    private static class Plan {
+
+        private final int shardCount;
+        private final List<List<String>> shards;
+
+        Plan(int shardCount, List<List<String>> shards) {
+            this.shardCount = shardCount;
+            this.shards = shards;
+        }
+
+        Set<String> getTargets() {
+            Set<String> targets = new HashSet<>();
+            for (List<String> shard : shards) {
+                targets.addAll(shard);
+            }
+            return targets;
+        }
+    }
+}
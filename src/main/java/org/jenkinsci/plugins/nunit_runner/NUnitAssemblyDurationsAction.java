@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+
+/**
+ * Records how long each test assembly took in a build, so later builds can balance shards.
+ */
+public class NUnitAssemblyDurationsAction extends InvisibleAction {
+
+    /** Number of previous builds looked at when estimating an assembly's duration. */
+    private static final int HISTORY_DEPTH = 5;
+
+    /** Number of previous builds loaded at most, so jobs that rarely record durations do not load their whole history. */
+    private static final int MAX_BUILDS = 20;
+
+    private final Map<String, Long> durations;
+
+    /**
+     * @param durations Duration in milliseconds by assembly path relative to the workspace
+     */
+    public NUnitAssemblyDurationsAction(Map<String, Long> durations) {
+        this.durations = new HashMap<>(durations);
+    }
+
+    public Map<String, Long> getDurations() {
+        return Collections.unmodifiableMap(durations);
+    }
+
+    /**
+     * Attaches the durations to the build, adding them to those of earlier runs in the same build.
+     *
+     * @param run Build
+     * @param durations Duration in milliseconds by assembly path relative to the workspace
+     */
+    public static void addTo(Run<?, ?> run, Map<String, Long> durations) {
+        synchronized (run) {
+            NUnitAssemblyDurationsAction existing = run.getAction(NUnitAssemblyDurationsAction.class);
+            if (existing == null) {
+                run.addAction(new NUnitAssemblyDurationsAction(durations));
+                return;
+            }
+            for (Map.Entry<String, Long> duration : durations.entrySet()) {
+                Long total = existing.durations.get(duration.getKey());
+                existing.durations.put(duration.getKey(), total != null ? total + duration.getValue() : duration.getValue());
+            }
+        }
+    }
+
+    /**
+     * Averages the durations recorded by the builds before <code>run</code>.
+     *
+     * @param run Current build
+     * @param assemblies Assemblies to look up
+     * @return estimated duration in milliseconds, only for assemblies that have history
+     */
+    public static Map<String, Long> getHistory(Run<?, ?> run, Collection<String> assemblies) {
+        Map<String, Long> totals = new HashMap<>();
+        Map<String, Integer> samples = new HashMap<>();
+
+        int depth = 0;
+        int visited = 0;
+        for (Run<?, ?> previous = run.getPreviousBuild(); previous != null && depth < HISTORY_DEPTH && visited < MAX_BUILDS;
+                previous = previous.getPreviousBuild(), visited++) {
+            NUnitAssemblyDurationsAction action = previous.getAction(NUnitAssemblyDurationsAction.class);
+            if (action == null) {
+                continue;
+            }
+            depth++;
+            for (String assembly : assemblies) {
+                Long duration = action.durations.get(assembly);
+                if (duration != null) {
+                    Long total = totals.get(assembly);
+                    Integer count = samples.get(assembly);
+                    totals.put(assembly, total != null ? total + duration : duration);
+                    samples.put(assembly, count != null ? count + 1 : 1);
+                }
+            }
+        }
+
+        Map<String, Long> history = new HashMap<>();
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            history.put(total.getKey(), total.getValue() / samples.get(total.getKey()));
+        }
+        return history;
+    }
+}
@@ -3,10 +3,15 @@ package org.jenkinsci.plugins.nunit_runner;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Locale;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.AbortException;
@@ -14,6 +19,7 @@ import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Proc;
 import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
@@ -29,6 +35,7 @@ import hudson.util.ArgumentListBuilder;
 import hudson.util.ComboBoxModel;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
 import jenkins.tasks.SimpleBuildStep;
 
 import org.apache.commons.lang.StringUtils;
@@ -41,6 +48,18 @@ import org.kohsuke.stapler.DataBoundSetter;
  */
 public class NUnitBuilder extends Builder implements SimpleBuildStep {
 
+    /** Longest /where filter built from failed test names, kept well below the cmd.exe line limit. */
+    private static final int MAX_FAILED_FILTER_LENGTH = 4000;
+
+    /** Milliseconds between checks for an ended process while others wait to start. */
+    private static final long PROCESS_POLL_INTERVAL = 500;
+
+    /** Longest wait for <code>--explore</code> of one test file before it is killed and the file runs whole. */
+    private static final long EXPLORE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    /** Start of the files listing the tests of a group of a split test file, relative to the workspace. */
+    private static final String TEST_LIST_PREFIX = "TestList-";
+
     private String nunitName;
     private String testFiles;
     private String settings;
@@ -51,6 +70,24 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
     private String cmdLineArgs;
     private boolean enablecodecoverage = DescriptorImpl.defaultEnableCodeCoverage;
     private boolean failBuild = DescriptorImpl.defaultFailBuild;
+    private String shards;
+    private boolean liveProgress = DescriptorImpl.defaultLiveProgress;
+    private boolean useWorkspaceIndex = DescriptorImpl.defaultUseWorkspaceIndex;
+    private boolean skipUnchanged = DescriptorImpl.defaultSkipUnchanged;
+    private boolean failedTestsFirst = DescriptorImpl.defaultFailedTestsFirst;
+    private boolean failedTestsOnly = DescriptorImpl.defaultFailedTestsOnly;
+    private int retryCount = DescriptorImpl.defaultRetryCount;
+    private int agentShard = DescriptorImpl.defaultAgentShard;
+    private int agentShards = DescriptorImpl.defaultAgentShards;
+    private int slowTestPercentile = DescriptorImpl.defaultSlowTestPercentile;
+    private String coverageReports;
+    private boolean archiveResults = DescriptorImpl.defaultArchiveResults;
+    private boolean autoConcurrency = DescriptorImpl.defaultAutoConcurrency;
+    private int maxProcesses = DescriptorImpl.defaultMaxProcesses;
+    private int failFast = DescriptorImpl.defaultFailFast;
+    private String splitTestFiles;
+    private String mergeResults;
+    private String mergeDuplicates = DescriptorImpl.defaultMergeDuplicates;
 
     @DataBoundConstructor
     public NUnitBuilder() {
@@ -101,6 +138,78 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
         return failBuild;
     }
 
+    public String getShards() {
+        return shards;
+    }
+
+    public boolean isLiveProgress() {
+        return liveProgress;
+    }
+
+    public boolean isUseWorkspaceIndex() {
+        return useWorkspaceIndex;
+    }
+
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    public boolean isFailedTestsFirst() {
+        return failedTestsFirst;
+    }
+
+    public boolean isFailedTestsOnly() {
+        return failedTestsOnly;
+    }
+
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public int getAgentShard() {
+        return agentShard;
+    }
+
+    public int getSlowTestPercentile() {
+        return slowTestPercentile;
+    }
+
+    public String getCoverageReports() {
+        return coverageReports;
+    }
+
+    public boolean isArchiveResults() {
+        return archiveResults;
+    }
+
+    public boolean isAutoConcurrency() {
+        return autoConcurrency;
+    }
+
+    public int getMaxProcesses() {
+        return maxProcesses;
+    }
+
+    public int getFailFast() {
+        return failFast;
+    }
+
+    public String getSplitTestFiles() {
+        return splitTestFiles;
+    }
+
+    public String getMergeResults() {
+        return mergeResults;
+    }
+
+    public String getMergeDuplicates() {
+        return mergeDuplicates != null ? mergeDuplicates : DescriptorImpl.defaultMergeDuplicates;
+    }
+
+    public int getAgentShards() {
+        return agentShards;
+    }
+
     @DataBoundSetter
     public void setNUnitName(String nunitName) {
         this.nunitName = Util.fixEmptyAndTrim(nunitName);
@@ -151,10 +260,138 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
         this.failBuild = failBuild;
     }
 
+    /**
+     * @param shards Number of concurrent nunit3-console processes, or "auto" for the agent's core count
+     */
+    @DataBoundSetter
+    public void setShards(String shards) {
+        this.shards = Util.fixEmptyAndTrim(shards);
+    }
+
+    @DataBoundSetter
+    public void setLiveProgress(boolean liveProgress) {
+        this.liveProgress = liveProgress;
+    }
+
+    @DataBoundSetter
+    public void setUseWorkspaceIndex(boolean useWorkspaceIndex) {
+        this.useWorkspaceIndex = useWorkspaceIndex;
+    }
+
+    @DataBoundSetter
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    @DataBoundSetter
+    public void setFailedTestsFirst(boolean failedTestsFirst) {
+        this.failedTestsFirst = failedTestsFirst;
+    }
+
+    @DataBoundSetter
+    public void setFailedTestsOnly(boolean failedTestsOnly) {
+        this.failedTestsOnly = failedTestsOnly;
+    }
+
+    /**
+     * @param retryCount How many times failed tests are re-run, 0 to never retry
+     */
+    @DataBoundSetter
+    public void setRetryCount(int retryCount) {
+        this.retryCount = Math.max(0, retryCount);
+    }
+
+    /**
+     * @param agentShard Which of the agent shards this step runs, starting at 1
+     */
+    @DataBoundSetter
+    public void setAgentShard(int agentShard) {
+        this.agentShard = agentShard;
+    }
+
+    /**
+     * @param agentShards Number of agents the test files are split across, 0 to run them all here
+     */
+    @DataBoundSetter
+    public void setAgentShards(int agentShards) {
+        this.agentShards = Math.max(0, agentShards);
+    }
+
+    /**
+     * @param slowTestPercentile Percentile of a test's duration history above which it is reported as slow, 0 to not report
+     */
+    @DataBoundSetter
+    public void setSlowTestPercentile(int slowTestPercentile) {
+        this.slowTestPercentile = Math.max(0, Math.min(100, slowTestPercentile));
+    }
+
+    /**
+     * @param coverageReports Ant pattern of the Cobertura or OpenCover reports summarized on the build
+     */
+    @DataBoundSetter
+    public void setCoverageReports(String coverageReports) {
+        this.coverageReports = Util.fixEmptyAndTrim(coverageReports);
+    }
+
+    /**
+     * @param archiveResults Whether the result files are kept compressed on the build, indexed by fixture
+     */
+    @DataBoundSetter
+    public void setArchiveResults(boolean archiveResults) {
+        this.archiveResults = archiveResults;
+    }
+
+    /**
+     * @param autoConcurrency Whether --agents and --workers are worked out from the node's cores and memory
+     */
+    @DataBoundSetter
+    public void setAutoConcurrency(boolean autoConcurrency) {
+        this.autoConcurrency = autoConcurrency;
+    }
+
+    /**
+     * @param maxProcesses Most nunit3-console processes of the step running at the same time, 0 for the agent's core count
+     */
+    @DataBoundSetter
+    public void setMaxProcesses(int maxProcesses) {
+        this.maxProcesses = Math.max(0, maxProcesses);
+    }
+
+    /**
+     * @param failFast Failed tests after which all processes of the step are stopped, 0 to run all tests
+     */
+    @DataBoundSetter
+    public void setFailFast(int failFast) {
+        this.failFast = Math.max(0, failFast);
+    }
+
+    /**
+     * @param splitTestFiles Ant pattern of the test files whose tests are split between the shards
+     */
+    @DataBoundSetter
+    public void setSplitTestFiles(String splitTestFiles) {
+        this.splitTestFiles = Util.fixEmptyAndTrim(splitTestFiles);
+    }
+
+    /**
+     * @param mergeResults File the result files of the step are merged into, relative to the workspace
+     */
+    @DataBoundSetter
+    public void setMergeResults(String mergeResults) {
+        this.mergeResults = Util.fixEmptyAndTrim(mergeResults);
+    }
+
+    /**
+     * @param mergeDuplicates What the merged file keeps of a test with several results: <code>last</code>, <code>first</code> or <code>all</code>
+     */
+    @DataBoundSetter
+    public void setMergeDuplicates(String mergeDuplicates) {
+        this.mergeDuplicates = Util.fixEmptyAndTrim(mergeDuplicates);
+    }
+
     @NonNull
     public NUnitInstallation getNUnit(TaskListener listener) {
         if (nunitName == null) return NUnitInstallation.getDefaultInstallation();
-        NUnitInstallation.getDefaultInstallation();
         NUnitInstallation tool = Jenkins.getInstance().getDescriptorByType(NUnitInstallation.DescriptorImpl.class).getInstallation(nunitName);
         if (tool == null) {
             listener.getLogger().println("Selected NUnit installation does not exist. Using Default");
@@ -176,6 +413,21 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
 
         public static final boolean defaultFailBuild = true;
         public static final boolean defaultEnableCodeCoverage = false;
+        public static final String autoShards = "auto";
+        public static final boolean defaultLiveProgress = false;
+        public static final boolean defaultUseWorkspaceIndex = false;
+        public static final boolean defaultSkipUnchanged = false;
+        public static final boolean defaultFailedTestsFirst = false;
+        public static final boolean defaultFailedTestsOnly = false;
+        public static final int defaultRetryCount = 0;
+        public static final int defaultAgentShard = 1;
+        public static final int defaultAgentShards = 0;
+        public static final int defaultSlowTestPercentile = 0;
+        public static final boolean defaultArchiveResults = false;
+        public static final boolean defaultAutoConcurrency = false;
+        public static final int defaultMaxProcesses = 0;
+        public static final int defaultFailFast = 0;
+        public static final String defaultMergeDuplicates = "last";
 
         public DescriptorImpl() {
             super(NUnitBuilder.class);
@@ -225,6 +477,15 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
             return fillComboBox(NUnitFramework.class);
         }
 
+        @SuppressWarnings("unused") // Used by Stapler
+        public ListBoxModel doFillMergeDuplicatesItems() {
+            ListBoxModel r = new ListBoxModel();
+            for (NUnitResultMerger.Duplicates duplicates : NUnitResultMerger.Duplicates.values()) {
+                r.add(duplicates.name().toLowerCase(Locale.ENGLISH));
+            }
+            return r;
+        }
+
         private <E extends Enum<E>> ComboBoxModel fillComboBox(Class<E> clazz) {
             ComboBoxModel r = new ComboBoxModel();
             for (Enum<E> enumVal : clazz.getEnumConstants()) {
@@ -239,17 +500,47 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
      */
     @Override
     public void perform(@NonNull Run<?, ?> run, @NonNull FilePath workspace, @NonNull Launcher launcher, @NonNull TaskListener listener) throws InterruptedException, IOException {
-        ArrayList<String> args = new ArrayList<String>();
-
         EnvVars env = run.getEnvironment(listener);
 
+        NUnitRunPlan plan = plan(run, workspace, launcher, listener, env);
+        if (plan == null) {
+            return;
+        }
+
+        // NUnit run.
+        NUnitOutcome outcome = new NUnitOutcome();
+        for (List<NUnitInvocation> phase = plan.nextPhase(outcome, listener); phase != null; phase = plan.nextPhase(outcome, listener)) {
+            plan.addPhase(outcome, execNUnit(phase, plan, run, workspace, launcher, listener, env));
+        }
+
+        // Thrown on, so a Pipeline branch fails and parallel failFast stops its siblings.
+        plan.finish(run, workspace, listener, outcome);
+    }
+
+    /**
+     * Resolves the test files and works out the nunit3-console runs of this step.
+     *
+     * @param run
+     * @param workspace
+     * @param launcher Explores the test files whose tests are split
+     * @param listener
+     * @param env
+     * @return the runs, or null if there is nothing to run
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    /* package */ NUnitRunPlan plan(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars env) throws InterruptedException, IOException {
+        NUnitTimings timings = new NUnitTimings();
+        long start = System.nanoTime();
+
         // nunit3-console.exe path.
         String pathToNUnit = getNUnitPath(workspaceToNode(workspace), listener, env);
-        args.add(pathToNUnit);
+        start = timings.record(NUnitTimings.Phase.TOOL, start);
 
         // Target dll path
+        List<String> targets = new ArrayList<String>();
         if (!StringUtils.isBlank(testFiles)) {
-            List<String> targets = getTestFilesArguments(workspace, env);
+            targets = getTestFiles(workspace, env);
             if (targets.size() == 0) {
                 listener.getLogger().println("no files matching the pattern " + this.testFiles);
                 if (this.failBuild) {
@@ -257,9 +548,226 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
                     throw new AbortException("no files matching the pattern " + this.testFiles);
                 }
             }
-            args.addAll(targets);
+        }
+        start = timings.record(NUnitTimings.Phase.TEST_FILES, start);
+
+        // Run only this agent's part when parallel Pipeline branches split the test files between them.
+        if (agentShards > 0 && !targets.isEmpty()) {
+            targets = getAgentShardTargets(run, targets, listener);
+            if (targets.isEmpty()) {
+                listener.getLogger().println("No test files fall into agent shard " + agentShard + " of " + agentShards + ", nothing to execute");
+                return null;
+            }
         }
 
+        // Skip test files whose inputs did not change since the last green build.
+        Map<String, String> hashes = null;
+        if (skipUnchanged && !targets.isEmpty()) {
+            hashes = workspace.act(new AssemblyHasher(targets, pathToNUnit, getHashOptions(env)));
+            targets = skipUnchangedTargets(run, targets, hashes, listener);
+            if (targets.isEmpty()) {
+                listener.getLogger().println("All test files are unchanged since their last successful run, nothing to execute");
+                return null;
+            }
+        }
+
+        // Tests that failed in the previous build run first, or on their own.
+        String failedFilter = null;
+        if (failedTestsFirst || failedTestsOnly) {
+            List<String> failedTests = getPreviouslyFailedTests(run);
+            if (failedTests == null) {
+                listener.getLogger().println("No NUnit results in the previous build, running all tests");
+            } else if (failedTests.isEmpty()) {
+                if (failedTestsOnly) {
+                    listener.getLogger().println("No tests failed in the previous build, nothing to execute");
+                    return null;
+                }
+            } else {
+                failedFilter = getFailedTestsFilter(failedTests);
+                if (failedFilter == null) {
+                    listener.getLogger().println("The " + failedTests.size() + " tests that failed in the previous build cannot be selected by name, running all tests");
+                }
+            }
+        }
+
+        NUnitResultMerger.Duplicates duplicates;
+        try {
+            duplicates = NUnitResultMerger.Duplicates.fromString(getMergeDuplicates());
+        } catch (IllegalArgumentException e) {
+            throw new AbortException("Invalid mergeDuplicates " + getMergeDuplicates() + ", expected last, first or all");
+        }
+
+        int shardCount = getShardCount(workspace, listener, env);
+
+        // Test files too large for one process are split by test, only needed when the suite runs.
+        List<String> wholeTargets = targets;
+        List<NUnitRunPlan.TestGroup> testGroups = Collections.emptyList();
+        if (splitTestFiles != null && shardCount > 1 && (failedFilter == null || !failedTestsOnly)) {
+            start = timings.record(NUnitTimings.Phase.PLANNING, start);
+            testGroups = splitTests(run, workspace, launcher, listener, env, pathToNUnit, targets, hashes, shardCount);
+            wholeTargets = new ArrayList<String>(targets);
+            for (NUnitRunPlan.TestGroup group : testGroups) {
+                wholeTargets.remove(group.getTestFile());
+            }
+            start = timings.record(NUnitTimings.Phase.EXPLORE, start);
+        }
+
+        List<List<String>> shards;
+        if (wholeTargets.isEmpty() && !testGroups.isEmpty()) {
+            shards = Collections.emptyList();
+        } else if (shardCount > 1 && wholeTargets.size() > 1) {
+            Map<String, Long> history = NUnitAssemblyDurationsAction.getHistory(run, wholeTargets);
+            shards = ShardPlanner.balance(wholeTargets, history, shardCount);
+            listener.getLogger().println("Splitting " + wholeTargets.size() + " test files into " + shards.size() + " shards"
+                    + " (" + history.size() + " with duration history)");
+        } else {
+            shards = Collections.singletonList(wholeTargets);
+        }
+
+        // Every test group runs one test file in a process of its own.
+        List<List<String>> parts = new ArrayList<List<String>>(shards);
+        for (NUnitRunPlan.TestGroup group : testGroups) {
+            parts.add(Collections.singletonList(group.getTestFile()));
+        }
+
+        List<NUnitRunPlan.Combination> combinations = getCombinations(env);
+        int processes = combinations.size() * parts.size();
+        int maxProcesses = getMaxProcesses(workspace, listener, processes);
+
+        // Every process but a lone one writes a result file of its own, so a manual one only fits a lone process.
+        String manualResultFile = getOptionValue(cmdLineArgs != null ? replaceMacro(cmdLineArgs, env) : "", "result");
+        if (manualResultFile != null && (processes > 1 || retryCount > 0 || failedFilter != null)) {
+            throw new AbortException("--result in the command line arguments cannot be used with shards, split test files, several platforms or frameworks, "
+                    + "retries or previously failed tests, which write a result file per process");
+        }
+
+        List<String> concurrencyArgs = getConcurrencyArguments(workspace, listener, env, parts, maxProcesses > 0 ? Math.min(maxProcesses, processes) : processes);
+        NUnitRunPlan plan = new NUnitRunPlan(pathToNUnit, targets, shards, testGroups, combinations, maxProcesses, getSelectionArguments(env), getRunArguments(env, concurrencyArgs), manualResultFile,
+                failedFilter, failedTestsOnly, retryCount, slowTestPercentile,
+                coverageReports != null ? replaceMacro(coverageReports, env) : null, archiveResults,
+                mergeResults != null ? replaceMacro(mergeResults, env) : null, duplicates, failBuild, failFast, hashes);
+        timings.record(NUnitTimings.Phase.PLANNING, start);
+        plan.getTimings().add(timings);
+        return plan;
+    }
+
+    /**
+     * Picks the test files of this step's part of a split across agents. Allocating the agents,
+     * stashing the test files and gathering the branches is left to the Pipeline, see the README.
+     *
+     * @param run
+     * @param targets Test files relative to the workspace, sorted
+     * @param listener
+     * @return the test files of this step's agent shard
+     * @throws AbortException if the shard index is out of range
+     */
+    private List<String> getAgentShardTargets(Run<?, ?> run, List<String> targets, TaskListener listener) throws AbortException {
+        if (agentShard < 1 || agentShard > agentShards) {
+            throw new AbortException("Invalid agent shard " + agentShard + " of " + agentShards);
+        }
+        List<List<String>> plan = NUnitAgentShardsAction.getPlan(run, targets, agentShards);
+        List<String> shard = agentShard <= plan.size() ? plan.get(agentShard - 1) : new ArrayList<String>();
+        listener.getLogger().println("Agent shard " + agentShard + " of " + agentShards + ": " + shard.size() + " of " + targets.size() + " test files");
+        return shard;
+    }
+
+    /**
+     * Carries forward the results of test files whose hash matches the one recorded by
+     * the last green build that ran them.
+     *
+     * @param run
+     * @param targets Test files relative to the workspace
+     * @param hashes Current hash by test file
+     * @param listener
+     * @return test files that still need to run
+     * @throws IOException
+     */
+    private List<String> skipUnchangedTargets(Run<?, ?> run, List<String> targets, Map<String, String> hashes, TaskListener listener) throws IOException {
+        AssemblyHashStore store = AssemblyHashStore.load(run.getParent());
+        NUnitResultSummary reused = new NUnitResultSummary();
+        List<String> remaining = new ArrayList<String>();
+
+        for (String target : targets) {
+            AssemblyHashStore.Record record = store.get(target);
+            NUnitResultSummary.AssemblyResult previous = null;
+            if (record != null && record.getHash().equals(hashes.get(target))) {
+                Run<?, ?> build = run.getParent().getBuildByNumber(record.getBuild());
+                NUnitResultAction action = build != null ? build.getAction(NUnitResultAction.class) : null;
+                previous = action != null ? action.getSummary().getAssembly(target) : null;
+            }
+            if (previous != null) {
+                reused.addReused(previous, previous.isReused() ? previous.getReusedFrom() : record.getBuild());
+            } else {
+                remaining.add(target);
+            }
+        }
+
+        if (!reused.getAssemblies().isEmpty()) {
+            listener.getLogger().println("Reusing results of " + reused.getAssemblies().size() + " unchanged test files, running " + remaining.size());
+            NUnitResultAction.addTo(run, reused);
+        }
+        return remaining;
+    }
+
+    /**
+     * @param run
+     * @return full names of the tests that failed in the previous completed build, or null if it has no NUnit results
+     */
+    private List<String> getPreviouslyFailedTests(Run<?, ?> run) {
+        Run<?, ?> previous = run.getPreviousCompletedBuild();
+        NUnitResultAction action = previous != null ? previous.getAction(NUnitResultAction.class) : null;
+        if (action == null) {
+            return null;
+        }
+        return action.getSummary().getFailedTestNames();
+    }
+
+    /**
+     * Builds a NUnit test selection expression matching the given tests by full name.
+     *
+     * @param names Test full names
+     * @return the expression, or null if a name cannot be quoted on the command line or the expression would be too long
+     */
+    /* package */ static String getFailedTestsFilter(List<String> names) {
+        StringBuilder filter = new StringBuilder();
+        for (String name : names) {
+            if (name.indexOf('"') >= 0 || name.indexOf('%') >= 0) {
+                return null;
+            }
+            if (filter.length() > 0) {
+                filter.append(" || ");
+            }
+            filter.append("test == '").append(name.replace("\\", "\\\\").replace("'", "\\'")).append('\'');
+            if (filter.length() > MAX_FAILED_FILTER_LENGTH) {
+                return null;
+            }
+        }
+        return filter.toString();
+    }
+
+    /**
+     * @param pathToNUnit nunit3-console.exe path
+     * @param targets Test files relative to the workspace
+     * @param options Arguments shared by every invocation
+     * @return full command line
+     */
+    /* package */ static List<String> getArguments(String pathToNUnit, List<String> targets, List<String> options) {
+        ArrayList<String> args = new ArrayList<String>();
+        args.add(pathToNUnit);
+        for (String target : targets) {
+            args.add(appendQuote(target));
+        }
+        args.addAll(options);
+        return args;
+    }
+
+    /**
+     * @param env EnvVars
+     * @return arguments that select the tests to run
+     */
+    private List<String> getSelectionArguments(EnvVars env) {
+        ArrayList<String> args = new ArrayList<String>();
+
         // Run tests with additional settings such as data collectors.
         if (!StringUtils.isBlank(settings)) {
             args.add(convertArgumentWithQuote("Settings", replaceMacro(settings, env)));
@@ -275,30 +783,302 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
             args.add(convertArgumentWithQuote("TestCaseFilter", replaceMacro(testCaseFilter, env)));
         }
 
+        return args;
+    }
+
+    /**
+     * @param env EnvVars
+     * @return options that decide which tests run and how, covered by the hash of each test file
+     */
+    private List<String> getHashOptions(EnvVars env) {
+        List<String> options = getSelectionArguments(env);
+        for (NUnitRunPlan.Combination combination : getCombinations(env)) {
+            options.addAll(combination.getOptions());
+        }
+        // --agents and --workers change with the node's load, not with the tests.
+        options.addAll(getRunArguments(env, Collections.<String>emptyList()));
+        return options;
+    }
+
+    /**
+     * @param env EnvVars
+     * @param concurrencyArgs --agents and --workers worked out for the node
+     * @return arguments other than the test files and the test selection
+     */
+    private List<String> getRunArguments(EnvVars env, List<String> concurrencyArgs) {
+        ArrayList<String> args = new ArrayList<String>();
+
         // Enables data diagnostic adapter CodeCoverage in the test run.
         if (enablecodecoverage) {
             args.add("/Enablecodecoverage");
         }
 
-        // Target platform architecture to be used for test execution.
-        String platformArg = getPlatformArgument(env);
-        if (!StringUtils.isBlank(platformArg)) {
-            args.add(convertArgument("Platform", platformArg));
+        // Report test progress as TeamCity service messages, which fail-fast also watches.
+        if (liveProgress || failFast > 0) {
+            args.add("/teamcity");
         }
 
-        // Target .NET Framework version to be used for test execution.
-        String frameworkArg = getFrameworkArgument(env);
-        if (!StringUtils.isBlank(frameworkArg)) {
-            args.add(convertArgument("Framework", frameworkArg));
-        }
+        // Test agent processes and worker threads for the node.
+        args.addAll(concurrencyArgs);
 
         // Manual Command Line String
         if (!StringUtils.isBlank(cmdLineArgs)) {
             args.add(replaceMacro(cmdLineArgs, env));
         }
 
-        // NUnit run.
-        execNUnit(args, run, workspace, launcher, listener, env);
+        return args;
+    }
+
+    /**
+     * @param workspace Workspace
+     * @param listener TaskListener
+     * @param env EnvVars
+     * @return number of shards to run, 1 when sharding is off
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private int getShardCount(FilePath workspace, TaskListener listener, EnvVars env) throws InterruptedException, IOException {
+        if (StringUtils.isBlank(shards)) {
+            return 1;
+        }
+        String expanded = replaceMacro(shards, env).trim();
+        int count;
+        if (DescriptorImpl.autoShards.equalsIgnoreCase(expanded)) {
+            count = workspace.act(new AvailableProcessors());
+            listener.getLogger().println("Using agent core count for shards: " + count);
+        } else {
+            try {
+                count = Integer.parseInt(expanded);
+            } catch (NumberFormatException e) {
+                throw new AbortException("Invalid number of shards: " + expanded);
+            }
+        }
+        // Never more shards of whole test files than test files, see ShardPlanner.
+        return Math.max(1, count);
+    }
+
+    /**
+     * Explores the test files matching {@link #splitTestFiles} and splits the tests of each
+     * into groups, balanced by their duration history. Each group is listed in a file in the
+     * workspace, so even thousands of tests stay off the command line. Test files explored
+     * before on the node are read from its {@link NUnitExploreCache}.
+     *
+     * @param run
+     * @param workspace
+     * @param launcher
+     * @param listener
+     * @param env
+     * @param pathToNUnit nunit3-console.exe path
+     * @param targets Test files relative to the workspace
+     * @param hashes Hash by test file if already computed, or null
+     * @param groupCount Groups to split each test file into
+     * @return the groups; test files that cannot be explored or hold a single test run whole
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private List<NUnitRunPlan.TestGroup> splitTests(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars env,
+                                                    String pathToNUnit, List<String> targets, Map<String, String> hashes, int groupCount) throws InterruptedException, IOException {
+        List<NUnitRunPlan.TestGroup> groups = new ArrayList<NUnitRunPlan.TestGroup>();
+        List<String> split = new ArrayList<String>();
+        for (FilePath file : workspace.list(replaceMacro(splitTestFiles, env))) {
+            String relative = relativize(workspace, file);
+            if (targets.contains(relative)) {
+                split.add(relative);
+            }
+        }
+        if (split.isEmpty()) {
+            listener.getLogger().println("No test files match " + splitTestFiles + ", running all of them whole");
+            return groups;
+        }
+
+        NUnitDurationHistory history;
+        try {
+            history = NUnitDurationHistory.load(run.getParent());
+        } catch (IOException e) {
+            Util.displayIOException(e, listener);
+            e.printStackTrace(listener.error("Failed to load NUnit test durations, splitting tests evenly"));
+            history = new NUnitDurationHistory();
+        }
+
+        FilePath cache = NUnitExploreCache.getDirectory(workspaceToNode(workspace));
+        if (cache != null && hashes == null) {
+            hashes = workspace.act(new AssemblyHasher(split, pathToNUnit, getHashOptions(env)));
+        }
+
+        for (int i = 0; i < split.size(); i++) {
+            String testFile = split.get(i);
+            String key = cache != null && hashes.containsKey(testFile)
+                    ? NUnitExploreCache.key(pathToNUnit, hashes.get(testFile), getSelectionArguments(env)) : null;
+            List<String> tests = key != null ? NUnitExploreCache.get(cache, key, listener) : null;
+            if (tests != null) {
+                listener.getLogger().println("Found the " + tests.size() + " tests of " + testFile + " in the explore cache of the node");
+            } else {
+                tests = exploreTests(workspace, launcher, listener, env, pathToNUnit, testFile);
+                if (tests != null && key != null) {
+                    NUnitExploreCache.put(cache, key, tests, listener);
+                }
+            }
+            if (tests == null || tests.size() < 2) {
+                continue;
+            }
+            Map<String, Long> durations = new HashMap<String, Long>();
+            for (Map.Entry<String, int[]> test : history.getHistory(tests, history.getBuildCount()).entrySet()) {
+                durations.put(test.getKey(), (long) NUnitDurationHistory.percentile(test.getValue(), 50));
+            }
+            List<List<String>> parts = ShardPlanner.balance(tests, durations, groupCount);
+            listener.getLogger().println("Splitting the " + tests.size() + " tests of " + testFile + " into " + parts.size() + " groups"
+                    + " (" + durations.size() + " with duration history)");
+            for (int g = 0; g < parts.size(); g++) {
+                String testList = TEST_LIST_PREFIX + (i + 1) + "-" + (g + 1) + ".txt";
+                workspace.child(testList).write(StringUtils.join(parts.get(g), "\n") + "\n", "UTF-8");
+                groups.add(new NUnitRunPlan.TestGroup(testFile, testList, parts.get(g).size()));
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Lists the test cases of a test file with <code>--explore</code>, honouring the selection options.
+     * The process is killed after {@link #EXPLORE_TIMEOUT}, or at once when the planning thread
+     * is interrupted, such as by stopping the durable step.
+     *
+     * @return full names of the tests, or null if nunit3-console failed or timed out
+     */
+    private List<String> exploreTests(FilePath workspace, Launcher launcher, TaskListener listener, EnvVars env, String pathToNUnit, String testFile) throws InterruptedException, IOException {
+        FilePath cases = workspace.createTempFile("nunit-explore", ".txt");
+        FilePath batch = null;
+        try {
+            List<String> options = getSelectionArguments(env);
+            options.add(convertArgumentWithQuote("explore", cases.getRemote() + ";format=cases"));
+            List<String> args = getArguments(pathToNUnit, Collections.singletonList(testFile), options);
+
+            ArgumentListBuilder cmdExecArgs = new ArgumentListBuilder();
+            if (!launcher.isUnix()) {
+                batch = workspace.createTextTempFile("nunit", ".bat", concatString(args), false);
+                cmdExecArgs.add("cmd.exe", "/C", batch.getRemote(), "&&", "exit", "%ERRORLEVEL%");
+            } else {
+                for (String arg : args) {
+                    cmdExecArgs.add(arg);
+                }
+            }
+            listener.getLogger().println("Exploring " + testFile + ": " + cmdExecArgs.toStringWithQuote());
+            Proc proc = launcher.launch().cmds(cmdExecArgs).envs(env).stdout(listener).pwd(workspace).start();
+            long deadline = System.currentTimeMillis() + EXPLORE_TIMEOUT;
+            try {
+                while (proc.isAlive() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(PROCESS_POLL_INTERVAL);
+                }
+            } catch (InterruptedException e) {
+                proc.kill();
+                throw e;
+            }
+            if (proc.isAlive()) {
+                proc.kill();
+                listener.getLogger().println("Exploring " + testFile + " took longer than " + TimeUnit.MILLISECONDS.toMinutes(EXPLORE_TIMEOUT)
+                        + " minutes, running it whole");
+                return null;
+            }
+            int exitCode = proc.join();
+            if (exitCode != 0) {
+                listener.getLogger().println("Exploring " + testFile + " failed with exit code " + exitCode + ", running it whole");
+                return null;
+            }
+
+            List<String> tests = new ArrayList<String>();
+            for (String line : cases.readToString().split("\r?\n")) {
+                if (!StringUtils.isBlank(line)) {
+                    tests.add(line.trim());
+                }
+            }
+            return tests;
+        } finally {
+            cases.delete();
+            if (batch != null) {
+                batch.delete();
+            }
+        }
+    }
+
+    /**
+     * Works out --agents and --workers from the cores and memory of the node, shared with the NUnit
+     * processes already running on it and the other shards of this step.
+     *
+     * @param workspace Workspace
+     * @param listener TaskListener
+     * @param env EnvVars
+     * @param shards Test files of each process of the suite phase
+     * @param processes Processes of this step running at the same time
+     * @return the arguments, leaving out those given on the manual command line
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private List<String> getConcurrencyArguments(FilePath workspace, TaskListener listener, EnvVars env, List<List<String>> shards, int processes) throws InterruptedException, IOException {
+        List<String> args = new ArrayList<String>();
+        if (!autoConcurrency) {
+            return args;
+        }
+        int testFiles = 0;
+        for (List<String> shard : shards) {
+            testFiles = Math.max(testFiles, shard.size());
+        }
+        NUnitConcurrency.Hardware hardware = workspace.act(new NUnitConcurrency.Probe());
+        int running = NUnitMetrics.getActiveProcesses(NUnitMetrics.getNodeName(workspace));
+        NUnitNodeProperty override = NUnitNodeProperty.of(workspaceToNode(workspace));
+        NUnitConcurrency concurrency = NUnitConcurrency.compute(hardware, running + processes, testFiles, override);
+        listener.getLogger().println(String.format("Node has %s and %d NUnit processes running, using %d agents with %d workers%s",
+                hardware, running, concurrency.getAgents(), concurrency.getWorkers(), override != null ? " (node overrides applied)" : ""));
+
+        String manual = cmdLineArgs != null ? replaceMacro(cmdLineArgs, env) : "";
+        if (!hasOption(manual, "agents")) {
+            args.add(convertArgument("agents", String.valueOf(concurrency.getAgents())));
+        }
+        if (!hasOption(manual, "workers")) {
+            args.add(convertArgument("workers", String.valueOf(concurrency.getWorkers())));
+        }
+        return args;
+    }
+
+    /**
+     * @param cmdLineArgs Manual command line
+     * @param option nunit3-console option name
+     * @return whether the command line sets the option, in any of the forms nunit3-console accepts
+     */
+    /* package */ static boolean hasOption(String cmdLineArgs, String option) {
+        return Pattern.compile("(^|\\s)(--|-|/)" + Pattern.quote(option) + "[:=]").matcher(cmdLineArgs).find();
+    }
+
+    /**
+     * @param cmdLineArgs Manual command line
+     * @param option nunit3-console option taking a file, e.g. <code>result</code>
+     * @return the file the command line passes to the option, without its <code>;format=</code> and the like, or null
+     */
+    /* package */ static String getOptionValue(String cmdLineArgs, String option) {
+        Matcher matcher = Pattern.compile("(^|\\s)(--|-|/)" + Pattern.quote(option) + "(?:[:=]|\\s+)(?:\"([^\"]*)\"|(\\S+))").matcher(cmdLineArgs);
+        if (!matcher.find()) {
+            return null;
+        }
+        String value = matcher.group(3) != null ? matcher.group(3) : matcher.group(4);
+        int spec = value.indexOf(';');
+        return Util.fixEmptyAndTrim(spec >= 0 ? value.substring(0, spec) : value);
+    }
+
+    /**
+     * @param workspace Workspace
+     * @param listener TaskListener
+     * @param processes Processes of the suite phase, one per combination and shard
+     * @return most processes of a phase running at the same time, the agent's core count unless configured, 0 for no limit
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private int getMaxProcesses(FilePath workspace, TaskListener listener, int processes) throws InterruptedException, IOException {
+        if (processes <= 1) {
+            return 0;
+        }
+        int max = maxProcesses > 0 ? maxProcesses : workspace.act(new AvailableProcessors());
+        if (max < processes) {
+            listener.getLogger().println("Running at most " + max + " of the " + processes + " NUnit processes at a time");
+        }
+        return max;
     }
 
     /**
@@ -321,10 +1101,11 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
      */
     @NonNull
     private String getNUnitPath(Node builtOn, TaskListener listener, EnvVars env) {
+        long start = System.nanoTime();
         NUnitInstallation installation = getNUnit(listener);
         if (builtOn != null) {
             try {
-                installation = installation.forNode(builtOn, listener);
+                installation = installation.getDescriptor().forNode(installation, builtOn, listener);
             } catch (IOException | InterruptedException e) {
                 listener.getLogger().println("Failed to get NUnit executable");
             }
@@ -335,7 +1116,7 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
 
         String nunitExe = installation.getNUnitExe();
 
-        listener.getLogger().println("Path To NUnit: " + nunitExe);
+        listener.getLogger().println("Path To NUnit: " + nunitExe + " (resolved in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms)");
 
         return nunitExe;
     }
@@ -347,8 +1128,26 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
      * @throws InterruptedException
      * @throws IOException
      */
-    /* package */ List<String> getTestFilesArguments(FilePath workspace, EnvVars env) throws InterruptedException {
-        Set<String> files = new HashSet<>();
+    /* package */ List<String> getTestFilesArguments(FilePath workspace, EnvVars env) throws InterruptedException, IOException {
+        List<String> args = new ArrayList<>();
+        for (String file : getTestFiles(workspace, env)) {
+            args.add(appendQuote(file));
+        }
+        return args;
+    }
+
+    /**
+     * Resolves every pattern in one call to the agent, which walks the workspace once,
+     * or only its changed directories when the workspace index is enabled.
+     *
+     * @param workspace
+     * @param env
+     * @return test files relative to the workspace, sorted so shards are stable between builds
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    /* package */ List<String> getTestFiles(FilePath workspace, EnvVars env) throws InterruptedException, IOException {
+        List<String> patterns = new ArrayList<>();
 
         StringTokenizer testFilesTokenizer = new StringTokenizer(testFiles, " \t\r\n");
 
@@ -356,22 +1155,23 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
             String testFile = testFilesTokenizer.nextToken();
             testFile = replaceMacro(testFile, env);
 
-            if (!StringUtils.isBlank(testFile)) {
-                try {
-                    for (FilePath filePath : workspace.list(testFile)) {
-                        files.add(appendQuote(relativize(workspace, filePath)));
-                    }
-                } catch (IOException ignored) {
+            // Like FilePath.list, a single entry may hold several comma separated patterns.
+            for (String pattern : testFile.split(",")) {
+                if (!StringUtils.isBlank(pattern)) {
+                    patterns.add(pattern.trim());
                 }
             }
         }
 
-        return new ArrayList<>(files);
+        if (patterns.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return workspace.act(new TestFilesResolver(patterns, useWorkspaceIndex ? WorkspaceIndex.INDEX_FILE : null));
     }
 
     /**
      * @param env
-     * @return
+     * @return target platform architectures to run on, separated by commas
      */
     private String getPlatformArgument(EnvVars env) {
         return replaceMacro(platform, env);
@@ -379,13 +1179,68 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
 
     /**
      * @param env
-     * @return
+     * @return target .NET Framework versions to run on, separated by commas
      */
     private String getFrameworkArgument(EnvVars env) {
         String expanded = replaceMacro(framework, env);
         return expanded;
     }
 
+    /**
+     * @param env
+     * @return every combination of the platforms and frameworks; a single unnamed one unless several are given
+     */
+    /* package */ List<NUnitRunPlan.Combination> getCombinations(EnvVars env) {
+        List<String> platforms = splitValues(getPlatformArgument(env));
+        List<String> frameworks = splitValues(getFrameworkArgument(env));
+        boolean several = platforms.size() > 1 || frameworks.size() > 1;
+        // Leaving out the option runs the tests the way nunit3-console picks.
+        if (platforms.isEmpty()) {
+            platforms.add(null);
+        }
+        if (frameworks.isEmpty()) {
+            frameworks.add(null);
+        }
+
+        List<NUnitRunPlan.Combination> combinations = new ArrayList<NUnitRunPlan.Combination>();
+        for (String platformArg : platforms) {
+            for (String frameworkArg : frameworks) {
+                List<String> args = new ArrayList<String>();
+                StringBuilder name = new StringBuilder();
+
+                // Target platform architecture to be used for test execution.
+                if (platformArg != null) {
+                    args.add(convertArgument("Platform", platformArg));
+                    name.append(platformArg);
+                }
+
+                // Target .NET Framework version to be used for test execution.
+                if (frameworkArg != null) {
+                    args.add(convertArgument("Framework", frameworkArg));
+                    name.append(name.length() > 0 ? "-" : "").append(frameworkArg);
+                }
+                combinations.add(new NUnitRunPlan.Combination(several ? name.toString() : null, args));
+            }
+        }
+        return combinations;
+    }
+
+    /**
+     * @param values Values separated by commas or whitespace, or null
+     * @return the distinct values, in order
+     */
+    private static List<String> splitValues(String values) {
+        List<String> result = new ArrayList<String>();
+        if (values != null) {
+            for (String value : values.split("[,\\s]+")) {
+                if (!value.isEmpty() && !result.contains(value)) {
+                    result.add(value);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * @param base
      * @param path
@@ -393,68 +1248,157 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
      * @throws InterruptedException
      * @throws IOException
      */
-    /* package */ String relativize(FilePath base, FilePath path) throws InterruptedException, IOException {
+    /* package */ static String relativize(FilePath base, FilePath path) throws InterruptedException, IOException {
         return base.toURI().relativize(path.toURI()).getPath();
     }
 
     /**
-     * @param args
+     * Starts the invocations, as many at once as the plan allows, and waits for all of them. The step result is
+     * worked out by the caller, once all runs and retries are in.
+     *
+     * @param invocations
+     * @param plan Archives the results and receives the time spent in each phase
      * @param run
      * @param workspace
      * @param launcher
      * @param listener
      * @param env
-     * @return
+     * @return exit codes and results of the invocations
      * @throws InterruptedException
      * @throws IOException
      */
-    private void execNUnit(List<String> args, Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars env) throws InterruptedException, IOException {
-        ArgumentListBuilder cmdExecArgs = new ArgumentListBuilder();
-        FilePath tmpDir = null;
-
-        if (!launcher.isUnix()) {
-            tmpDir = workspace.createTextTempFile("nunit", ".bat", concatString(args), false);
-            cmdExecArgs.add("cmd.exe", "/C", tmpDir.getRemote(), "&&", "exit", "%ERRORLEVEL%");
-        } else {
-            for (String arg : args) {
-                cmdExecArgs.add(arg);
-            }
+    private NUnitOutcome execNUnit(List<NUnitInvocation> invocations, NUnitRunPlan plan, Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars env) throws InterruptedException, IOException {
+        NUnitOutcome outcome = new NUnitOutcome();
+        NUnitTimings timings = plan.getTimings();
+        String node = NUnitMetrics.getNodeName(workspace);
+        List<FilePath> tmpFiles = new ArrayList<FilePath>();
+        List<Proc> procs = new ArrayList<Proc>();
+        List<ArgumentListBuilder> commands = new ArrayList<ArgumentListBuilder>();
+        List<NUnitListenerDecorator> parserListeners = new ArrayList<NUnitListenerDecorator>();
+        NUnitTestEvent.Listener eventListener = liveProgress ? NUnitProgressAction.getOrAdd(run) : null;
+        NUnitFailFast failFast = plan.getFailFast();
+        if (failFast != null) {
+            eventListener = failFast.forwardTo(eventListener);
         }
 
-        listener.getLogger().println("Executing NUnit: " + cmdExecArgs.toStringWithQuote());
-
         try {
-            NUnitListenerDecorator parserListener = new NUnitListenerDecorator(listener);
-            int r = launcher.launch().cmds(cmdExecArgs).envs(env).stdout(parserListener).pwd(workspace).join();
+            NUnitRunPlan.deleteResults(invocations, workspace);
+
+            for (NUnitInvocation invocation : invocations) {
+                ArgumentListBuilder cmdExecArgs = new ArgumentListBuilder();
+                commands.add(cmdExecArgs);
+
+                if (!launcher.isUnix()) {
+                    long start = System.nanoTime();
+                    FilePath tmpDir = workspace.createTextTempFile("nunit", ".bat", concatString(invocation.getArgs()), false);
+                    tmpFiles.add(tmpDir);
+                    timings.record(NUnitTimings.Phase.BATCH_FILES, start);
+                    cmdExecArgs.add("cmd.exe", "/C", tmpDir.getRemote(), "&&", "exit", "%ERRORLEVEL%");
+                } else {
+                    for (String arg : invocation.getArgs()) {
+                        cmdExecArgs.add(arg);
+                    }
+                }
 
-            String coverageFullPath = parserListener.getCoverageFile();
-            String coveragePathRelativeToWorkspace = null;
+                parserListeners.add(new NUnitListenerDecorator(listener, run.getCharset(), invocation.getConsolePrefix(), eventListener));
+            }
 
-            if (coverageFullPath != null) {
-                coveragePathRelativeToWorkspace = relativize(workspace, workspace.child(parserListener.getCoverageFile()));
+            // At most the plan's limit at a time; each process that ends makes room for the next one.
+            int max = plan.getMaxProcesses() > 0 ? Math.min(plan.getMaxProcesses(), invocations.size()) : invocations.size();
+            while (procs.size() < max) {
+                int i = procs.size();
+                procs.add(startNUnit(invocations.get(i), commands.get(i), parserListeners.get(i), timings, node, workspace, launcher, listener, env));
             }
 
-            if (r != 0) {
-                if (failBuild) {
-                    run.setResult(Result.FAILURE);
-                    throw new AbortException("NUnit exited with " + r);
-                } else {
-                    run.setResult(Result.UNSTABLE);
+            long start = System.nanoTime();
+            // Launches while others run are startup time, not execution.
+            long launching = 0;
+            Integer[] exitCodes = new Integer[invocations.size()];
+            boolean stopped = false;
+            for (int finished = 0; finished < procs.size();) {
+                if (!stopped && plan.isStopped()) {
+                    // Enough tests failed: kill the process trees and leave the rest unstarted.
+                    stopped = true;
+                    listener.getLogger().println(failFast.getMessage() + ", stopping NUnit");
+                    for (Proc proc : procs) {
+                        if (proc.isAlive()) {
+                            proc.kill();
+                        }
+                    }
+                }
+                boolean ended = false;
+                for (int i = 0; i < procs.size(); i++) {
+                    // Once all are started, simply wait for each in turn unless failures are watched.
+                    if (exitCodes[i] == null && (procs.size() == invocations.size() && failFast == null || !procs.get(i).isAlive())) {
+                        exitCodes[i] = procs.get(i).join();
+                        finished++;
+                        ended = true;
+                        if (!stopped && procs.size() < invocations.size()) {
+                            int next = procs.size();
+                            long launch = System.nanoTime();
+                            procs.add(startNUnit(invocations.get(next), commands.get(next), parserListeners.get(next), timings, node, workspace, launcher, listener, env));
+                            launching += System.nanoTime() - launch;
+                        }
+                    }
+                }
+                if (!ended) {
+                    Thread.sleep(PROCESS_POLL_INTERVAL);
+                }
+            }
+            List<NUnitInvocation> started = invocations.subList(0, procs.size());
+            for (int i = 0; i < started.size(); i++) {
+                outcome.addExit(started.get(i).getName(), exitCodes[i], launcher.isUnix());
+            }
+            long now = System.nanoTime();
+            timings.add(NUnitTimings.Phase.EXECUTION, TimeUnit.NANOSECONDS.toMillis(now - start - launching));
+            start = now;
+
+            NUnitRunPlan.readResults(started, workspace, listener, outcome);
+            plan.keepResults(run, started, workspace, listener);
+            timings.record(NUnitTimings.Phase.RESULTS, start);
+
+            for (NUnitListenerDecorator parserListener : parserListeners) {
+                if (parserListener.getCoverageFile() != null) {
+                    outcome.setCoverageFile(parserListener.getCoverageFile());
                 }
             }
         } catch (IOException e) {
             Util.displayIOException(e, listener);
             e.printStackTrace(listener.fatalError("NUnit command execution failed"));
         } finally {
-            try {
-                if (tmpDir != null) {
+            // Only left running when the build was interrupted or a launch failed.
+            for (Proc proc : procs) {
+                try {
+                    if (proc.isAlive()) {
+                        proc.kill();
+                    }
+                } catch (IOException e) {
+                    Util.displayIOException(e, listener);
+                }
+                NUnitMetrics.processFinished(node);
+            }
+            for (FilePath tmpDir : tmpFiles) {
+                try {
                     tmpDir.delete();
+                } catch (IOException e) {
+                    Util.displayIOException(e, listener);
+                    e.printStackTrace(listener.fatalError("temporary file delete failed"));
                 }
-            } catch (IOException e) {
-                Util.displayIOException(e, listener);
-                e.printStackTrace(listener.fatalError("temporary file delete failed"));
             }
         }
+        return outcome;
+    }
+
+    private static Proc startNUnit(NUnitInvocation invocation, ArgumentListBuilder cmdExecArgs, NUnitListenerDecorator parserListener, NUnitTimings timings,
+                                   String node, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars env) throws IOException {
+        String label = invocation.getName() != null ? " (" + invocation.getName() + ")" : "";
+        listener.getLogger().println("Executing NUnit" + label + ": " + cmdExecArgs.toStringWithQuote());
+
+        long start = System.nanoTime();
+        Proc proc = launcher.launch().cmds(cmdExecArgs).envs(env).stdout(parserListener).pwd(workspace).start();
+        NUnitMetrics.processStarted(node);
+        timings.record(NUnitTimings.Phase.STARTUP, start);
+        return proc;
     }
 
     /**
@@ -462,7 +1406,7 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
      * @param param
      * @return
      */
-    private String convertArgument(String option, String param) {
+    private static String convertArgument(String option, String param) {
         return String.format("/%s:%s", option, param);
     }
 
@@ -471,7 +1415,7 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
      * @param param
      * @return
      */
-    private String convertArgumentWithQuote(String option, String param) {
+    /* package */ static String convertArgumentWithQuote(String option, String param) {
         return String.format("/%s:\"%s\"", option, param);
     }
 
@@ -479,7 +1423,7 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
      * @param value
      * @return
      */
-    private String appendQuote(String value) {
+    private static String appendQuote(String value) {
         return String.format("\"%s\"", value);
     }
 
@@ -487,7 +1431,7 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
      * @param args
      * @return
      */
-    private String concatString(List<String> args) {
+    /* package */ static String concatString(List<String> args) {
         StringBuilder buf = new StringBuilder();
         for (String arg : args) {
             if (buf.length() > 0) {
@@ -498,6 +1442,25 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
         return buf.toString();
     }
 
+    /**
+     * Joins the arguments into a <code>sh</code> command line that passes each of them as is,
+     * like a launch without a shell does, so <code>$</code>, backticks and backslashes in test
+     * names and filters are not expanded.
+     *
+     * @param args
+     * @return the arguments in single quotes
+     */
+    /* package */ static String concatShellString(List<String> args) {
+        StringBuilder buf = new StringBuilder();
+        for (String arg : args) {
+            if (buf.length() > 0) {
+                buf.append(' ');
+            }
+            buf.append('\'').append(arg.replace("'", "'\\''")).append('\'');
+        }
+        return buf.toString();
+    }
+
     private static Node workspaceToNode(FilePath workspace) {
         Computer computer = workspace.toComputer();
         Node node = null;
@@ -505,7 +1468,22 @@ public class NUnitBuilder extends Builder implements SimpleBuildStep {
         return node != null ? node : Jenkins.getInstance();
     }
 
-    private static class AddNUnitEnvVarsAction implements EnvironmentContributingAction {
+    /**
+     * Number of processors available on the agent.
+     */
+    private static class AvailableProcessors extends MasterToSlaveCallable<Integer, RuntimeException> {
+
+        private static final long serialVersionUID = 1L;
+
+        public Integer call() {
+            return Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    /**
+     * Exports the coverage file of the last NUnit step, relative to the workspace, as <code>NUNIT_RESULT_COVERAGE</code>.
+     */
+    /* package */ static class AddNUnitEnvVarsAction implements EnvironmentContributingAction {
 
         private final static String COVERAGE_ENV = "NUNIT_RESULT_COVERAGE";
 
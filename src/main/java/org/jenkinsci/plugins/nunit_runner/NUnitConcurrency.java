@@ -0,0 +1,114 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * nunit3-console <code>--agents</code> and <code>--workers</code> worked out from the cores and memory of
+ * a node, shared between the NUnit processes running on it.
+ * <p>
+ * Every process gets an equal share of the cores. Agents, which run one test file each, are limited by the
+ * share, the test files per process and the free memory; the cores of the share are then split between the
+ * agents as workers.
+ */
+public class NUnitConcurrency {
+
+    /** Memory set aside for each agent process. */
+    static final long MEMORY_PER_AGENT = 512L * 1024 * 1024;
+
+    private final int agents;
+
+    private final int workers;
+
+    NUnitConcurrency(int agents, int workers) {
+        this.agents = agents;
+        this.workers = workers;
+    }
+
+    public int getAgents() {
+        return agents;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @param hardware Cores and memory of the node
+     * @param processes NUnit processes sharing the node, including those about to start
+     * @param testFiles Most test files of one of the processes
+     * @param override Fixed counts of the node, or null
+     * @return agents and workers of each process
+     */
+    public static NUnitConcurrency compute(Hardware hardware, int processes, int testFiles, NUnitNodeProperty override) {
+        processes = Math.max(1, processes);
+        int cores = Math.max(1, hardware.getCores() / processes);
+        int agents = Math.min(cores, Math.max(1, testFiles));
+        if (hardware.getFreeMemory() > 0) {
+            agents = (int) Math.min(agents, hardware.getFreeMemory() / processes / MEMORY_PER_AGENT);
+        }
+        agents = Math.max(1, agents);
+        if (override != null && override.getAgents() > 0) {
+            agents = override.getAgents();
+        }
+        int workers = Math.max(1, cores / agents);
+        if (override != null && override.getWorkers() > 0) {
+            workers = override.getWorkers();
+        }
+        return new NUnitConcurrency(agents, workers);
+    }
+
+    /**
+     * Cores and memory of a node.
+     */
+    public static final class Hardware implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int cores;
+
+        private final long freeMemory;
+
+        public Hardware(int cores, long freeMemory) {
+            this.cores = cores;
+            this.freeMemory = freeMemory;
+        }
+
+        public int getCores() {
+            return cores;
+        }
+
+        /**
+         * @return free physical memory in bytes, 0 if not known
+         */
+        public long getFreeMemory() {
+            return freeMemory;
+        }
+
+        @Override
+        public String toString() {
+            return cores + " cores, " + (freeMemory > 0 ? freeMemory / (1024 * 1024) + " MB free memory" : "free memory unknown");
+        }
+    }
+
+    /**
+     * Measures the node it runs on.
+     */
+    public static final class Probe extends MasterToSlaveCallable<Hardware, RuntimeException> {
+
+        private static final long serialVersionUID = 1L;
+
+        public Hardware call() {
+            long freeMemory = 0;
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            // Only the HotSpot bean knows the physical memory.
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                freeMemory = ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+            }
+            return new Hardware(Runtime.getRuntime().availableProcessors(), freeMemory);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import hudson.model.Action;
+import hudson.model.Run;
+
+/**
+ * Line and branch coverage of the NUnit steps of a build, shown on the build page.
+ */
+public class NUnitCoverageAction implements Action {
+
+    private final NUnitCoverageSummary summary;
+
+    public NUnitCoverageAction(NUnitCoverageSummary summary) {
+        this.summary = summary;
+    }
+
+    public NUnitCoverageSummary getSummary() {
+        return summary;
+    }
+
+    public String getDisplayName() {
+        return Messages.NUnitCoverageAction_DisplayName();
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    /**
+     * Attaches the coverage to the build, adding it to that of earlier NUnit steps.
+     *
+     * @param run Build
+     * @param summary Coverage of this step
+     */
+    public static void addTo(Run<?, ?> run, NUnitCoverageSummary summary) {
+        synchronized (run) {
+            NUnitCoverageAction existing = run.getAction(NUnitCoverageAction.class);
+            if (existing == null) {
+                run.addAction(new NUnitCoverageAction(summary));
+            } else {
+                existing.summary.add(summary);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Streams Cobertura and OpenCover reports on the agent into a {@link NUnitCoverageSummary}.
+ * Memory use only depends on the number of assemblies, not on the size of the reports.
+ */
+public class NUnitCoverageParser extends MasterToSlaveFileCallable<NUnitCoverageSummary> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> reports;
+
+    private final TaskListener listener;
+
+    /**
+     * @param reports Coverage reports relative to the workspace
+     * @param listener Told about reports in another format
+     */
+    public NUnitCoverageParser(List<String> reports, TaskListener listener) {
+        this.reports = reports;
+        this.listener = listener;
+    }
+
+    /**
+     * @return coverage of all reports, or null when none of them exist
+     */
+    public NUnitCoverageSummary invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        NUnitCoverageSummary summary = null;
+        for (String report : reports) {
+            File file = new File(workspace, report);
+            if (!file.isFile()) {
+                continue;
+            }
+            if (summary == null) {
+                summary = new NUnitCoverageSummary();
+            }
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                if (!parse(in, summary)) {
+                    listener.getLogger().println(report + " is not a Cobertura or OpenCover report, ignoring it");
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException("Failed to parse " + file, e);
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * @param in Cobertura or OpenCover XML
+     * @param summary Summary to add the assemblies to
+     * @return false if the report is in neither format
+     * @throws XMLStreamException
+     */
+    /* package */ static boolean parse(InputStream in, NUnitCoverageSummary summary) throws XMLStreamException {
+        XMLStreamReader reader = NUnitResultParser.createInputFactory().createXMLStreamReader(in);
+        try {
+            while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+                // prolog
+            }
+            if (!reader.isStartElement()) {
+                return false;
+            }
+            if ("coverage".equals(reader.getLocalName())) {
+                parseCobertura(reader, summary);
+                return true;
+            }
+            if ("CoverageSession".equals(reader.getLocalName())) {
+                parseOpenCover(reader, summary);
+                return true;
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Every package is an assembly. Lines are counted where their class lists them; the
+     * lines of its methods repeat them.
+     */
+    private static void parseCobertura(XMLStreamReader reader, NUnitCoverageSummary summary) throws XMLStreamException {
+        NUnitCoverageSummary.AssemblyCoverage assembly = null;
+        int methodDepth = 0;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    String element = reader.getLocalName();
+                    if ("package".equals(element)) {
+                        assembly = new NUnitCoverageSummary.AssemblyCoverage(reader.getAttributeValue(null, "name"));
+                    } else if ("method".equals(element)) {
+                        methodDepth++;
+                    } else if ("line".equals(element) && assembly != null && methodDepth == 0) {
+                        assembly.addLines(parseLong(reader.getAttributeValue(null, "hits")) > 0 ? 1 : 0, 1);
+                        if ("true".equals(reader.getAttributeValue(null, "branch"))) {
+                            long[] conditions = parseConditionCoverage(reader.getAttributeValue(null, "condition-coverage"));
+                            if (conditions != null) {
+                                assembly.addBranches(conditions[0], conditions[1]);
+                            }
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    String endElement = reader.getLocalName();
+                    if ("method".equals(endElement)) {
+                        methodDepth--;
+                    } else if ("package".equals(endElement) && assembly != null) {
+                        if (assembly.getName() != null) {
+                            summary.addAssembly(assembly);
+                        }
+                        assembly = null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Every module that was not skipped is an assembly, counted by its own summary.
+     */
+    private static void parseOpenCover(XMLStreamReader reader, NUnitCoverageSummary summary) throws XMLStreamException {
+        // The root element is depth 1.
+        int depth = 1;
+        int moduleDepth = -1;
+        String name = null;
+        long[] counts = null;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    String element = reader.getLocalName();
+                    if ("Module".equals(element) && reader.getAttributeValue(null, "skippedDueTo") == null) {
+                        moduleDepth = depth;
+                        name = null;
+                        counts = null;
+                    } else if (depth == moduleDepth + 1 && "Summary".equals(element)) {
+                        counts = new long[] {
+                                parseLong(reader.getAttributeValue(null, "visitedSequencePoints")),
+                                parseLong(reader.getAttributeValue(null, "numSequencePoints")),
+                                parseLong(reader.getAttributeValue(null, "visitedBranchPoints")),
+                                parseLong(reader.getAttributeValue(null, "numBranchPoints"))};
+                    } else if (depth == moduleDepth + 1 && "ModuleName".equals(element)) {
+                        name = reader.getElementText().trim();
+                        // getElementText consumed the end element.
+                        depth--;
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (depth == moduleDepth) {
+                        if (name != null && counts != null) {
+                            summary.addAssembly(new NUnitCoverageSummary.AssemblyCoverage(name, counts[0], counts[1], counts[2], counts[3]));
+                        }
+                        moduleDepth = -1;
+                    }
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @param conditionCoverage e.g. <code>50% (1/2)</code>
+     * @return covered and total conditions, or null if not in that form
+     */
+    /* package */ static long[] parseConditionCoverage(String conditionCoverage) {
+        if (conditionCoverage == null) {
+            return null;
+        }
+        int open = conditionCoverage.indexOf('(');
+        int slash = conditionCoverage.indexOf('/', open);
+        int close = conditionCoverage.indexOf(')', slash);
+        if (open < 0 || slash < 0 || close < 0) {
+            return null;
+        }
+        try {
+            return new long[] {
+                    Long.parseLong(conditionCoverage.substring(open + 1, slash).trim()),
+                    Long.parseLong(conditionCoverage.substring(slash + 1, close).trim())};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
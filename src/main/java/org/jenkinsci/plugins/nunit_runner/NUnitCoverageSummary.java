@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Line and branch coverage per assembly, worked out from coverage reports on the agent.
+ * Only these counts are kept on the build, never the reports themselves.
+ */
+public class NUnitCoverageSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TreeMap<String, AssemblyCoverage> assemblies = new TreeMap<>();
+
+    /**
+     * @return coverage by assembly name, sorted by name
+     */
+    public List<AssemblyCoverage> getAssemblies() {
+        return Collections.unmodifiableList(new ArrayList<>(assemblies.values()));
+    }
+
+    public AssemblyCoverage getAssembly(String name) {
+        return assemblies.get(name);
+    }
+
+    /**
+     * @return coverage of all assemblies together
+     */
+    public AssemblyCoverage getTotal() {
+        AssemblyCoverage total = new AssemblyCoverage(null);
+        for (AssemblyCoverage assembly : assemblies.values()) {
+            total.add(assembly);
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return assemblies.isEmpty();
+    }
+
+    /**
+     * Adds the coverage of an assembly from one report. An assembly in several reports,
+     * e.g. one per shard, keeps the report that covers the most of it, since which lines
+     * the reports have in common is not known.
+     */
+    /* package */ void addAssembly(AssemblyCoverage coverage) {
+        AssemblyCoverage existing = assemblies.get(coverage.getName());
+        if (existing == null || coverage.linesCovered > existing.linesCovered
+                || coverage.linesCovered == existing.linesCovered && coverage.branchesCovered > existing.branchesCovered) {
+            assemblies.put(coverage.getName(), coverage);
+        }
+    }
+
+    /**
+     * Adds the coverage of another step.
+     */
+    public void add(NUnitCoverageSummary other) {
+        for (Map.Entry<String, AssemblyCoverage> assembly : other.assemblies.entrySet()) {
+            addAssembly(assembly.getValue());
+        }
+    }
+
+    public static class AssemblyCoverage implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private long linesCovered;
+        private long linesTotal;
+        private long branchesCovered;
+        private long branchesTotal;
+
+        public AssemblyCoverage(String name) {
+            this.name = name;
+        }
+
+        public AssemblyCoverage(String name, long linesCovered, long linesTotal, long branchesCovered, long branchesTotal) {
+            this.name = name;
+            this.linesCovered = linesCovered;
+            this.linesTotal = linesTotal;
+            this.branchesCovered = branchesCovered;
+            this.branchesTotal = branchesTotal;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getLinesCovered() {
+            return linesCovered;
+        }
+
+        public long getLinesTotal() {
+            return linesTotal;
+        }
+
+        public long getBranchesCovered() {
+            return branchesCovered;
+        }
+
+        public long getBranchesTotal() {
+            return branchesTotal;
+        }
+
+        /**
+         * @return covered lines in percent, 0 without lines
+         */
+        public double getLineRate() {
+            return linesTotal > 0 ? 100.0 * linesCovered / linesTotal : 0;
+        }
+
+        /**
+         * @return covered branches in percent, 0 without branches
+         */
+        public double getBranchRate() {
+            return branchesTotal > 0 ? 100.0 * branchesCovered / branchesTotal : 0;
+        }
+
+        /* package */ void addLines(long covered, long total) {
+            linesCovered += covered;
+            linesTotal += total;
+        }
+
+        /* package */ void addBranches(long covered, long total) {
+            branchesCovered += covered;
+            branchesTotal += total;
+        }
+
+        private void add(AssemblyCoverage other) {
+            addLines(other.linesCovered, other.linesTotal);
+            addBranches(other.branchesCovered, other.branchesTotal);
+        }
+    }
+}
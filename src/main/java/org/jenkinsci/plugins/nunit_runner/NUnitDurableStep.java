@@ -0,0 +1,328 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Pipeline step that runs NUnit like {@link NUnitBuilder}, but as durable tasks on
+ * the agent. No thread waits for the tests, and the run carries on after a restart
+ * of Jenkins.
+ */
+public class NUnitDurableStep extends Step {
+
+    private final NUnitBuilder builder = new NUnitBuilder();
+
+    @DataBoundConstructor
+    public NUnitDurableStep() {
+
+    }
+
+    public String getNUnitName() {
+        return builder.getNUnitName();
+    }
+
+    public String getTestFiles() {
+        return builder.getTestFiles();
+    }
+
+    public String getSettings() {
+        return builder.getSettings();
+    }
+
+    public String getTests() {
+        return builder.getTests();
+    }
+
+    public String getTestCaseFilter() {
+        return builder.getTestCaseFilter();
+    }
+
+    public String getPlatform() {
+        return builder.getPlatform();
+    }
+
+    public String getFramework() {
+        return builder.getFramework();
+    }
+
+    public String getCmdLineArgs() {
+        return builder.getCmdLineArgs();
+    }
+
+    public boolean isEnablecodecoverage() {
+        return builder.isEnablecodecoverage();
+    }
+
+    public boolean isFailBuild() {
+        return builder.isFailBuild();
+    }
+
+    public String getShards() {
+        return builder.getShards();
+    }
+
+    public boolean isLiveProgress() {
+        return builder.isLiveProgress();
+    }
+
+    public boolean isUseWorkspaceIndex() {
+        return builder.isUseWorkspaceIndex();
+    }
+
+    public boolean isSkipUnchanged() {
+        return builder.isSkipUnchanged();
+    }
+
+    public boolean isFailedTestsFirst() {
+        return builder.isFailedTestsFirst();
+    }
+
+    public boolean isFailedTestsOnly() {
+        return builder.isFailedTestsOnly();
+    }
+
+    public int getRetryCount() {
+        return builder.getRetryCount();
+    }
+
+    public int getAgentShard() {
+        return builder.getAgentShard();
+    }
+
+    public int getAgentShards() {
+        return builder.getAgentShards();
+    }
+
+    public int getSlowTestPercentile() {
+        return builder.getSlowTestPercentile();
+    }
+
+    public String getCoverageReports() {
+        return builder.getCoverageReports();
+    }
+
+    public boolean isArchiveResults() {
+        return builder.isArchiveResults();
+    }
+
+    public boolean isAutoConcurrency() {
+        return builder.isAutoConcurrency();
+    }
+
+    public int getMaxProcesses() {
+        return builder.getMaxProcesses();
+    }
+
+    public int getFailFast() {
+        return builder.getFailFast();
+    }
+
+    public String getSplitTestFiles() {
+        return builder.getSplitTestFiles();
+    }
+
+    public String getMergeResults() {
+        return builder.getMergeResults();
+    }
+
+    public String getMergeDuplicates() {
+        return builder.getMergeDuplicates();
+    }
+
+    @DataBoundSetter
+    public void setNUnitName(String nunitName) {
+        builder.setNUnitName(nunitName);
+    }
+
+    @DataBoundSetter
+    public void setTestFiles(String testFiles) {
+        builder.setTestFiles(testFiles);
+    }
+
+    @DataBoundSetter
+    public void setSettings(String settings) {
+        builder.setSettings(settings);
+    }
+
+    @DataBoundSetter
+    public void setTests(String tests) {
+        builder.setTests(tests);
+    }
+
+    @DataBoundSetter
+    public void setTestCaseFilter(String testCaseFilter) {
+        builder.setTestCaseFilter(testCaseFilter);
+    }
+
+    @DataBoundSetter
+    public void setPlatform(String platform) {
+        builder.setPlatform(platform);
+    }
+
+    @DataBoundSetter
+    public void setFramework(String framework) {
+        builder.setFramework(framework);
+    }
+
+    @DataBoundSetter
+    public void setCmdLineArgs(String cmdLineArgs) {
+        builder.setCmdLineArgs(cmdLineArgs);
+    }
+
+    @DataBoundSetter
+    public void setEnablecodecoverage(boolean enablecodecoverage) {
+        builder.setEnablecodecoverage(enablecodecoverage);
+    }
+
+    @DataBoundSetter
+    public void setFailBuild(boolean failBuild) {
+        builder.setFailBuild(failBuild);
+    }
+
+    @DataBoundSetter
+    public void setShards(String shards) {
+        builder.setShards(shards);
+    }
+
+    @DataBoundSetter
+    public void setLiveProgress(boolean liveProgress) {
+        builder.setLiveProgress(liveProgress);
+    }
+
+    @DataBoundSetter
+    public void setUseWorkspaceIndex(boolean useWorkspaceIndex) {
+        builder.setUseWorkspaceIndex(useWorkspaceIndex);
+    }
+
+    @DataBoundSetter
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        builder.setSkipUnchanged(skipUnchanged);
+    }
+
+    @DataBoundSetter
+    public void setFailedTestsFirst(boolean failedTestsFirst) {
+        builder.setFailedTestsFirst(failedTestsFirst);
+    }
+
+    @DataBoundSetter
+    public void setFailedTestsOnly(boolean failedTestsOnly) {
+        builder.setFailedTestsOnly(failedTestsOnly);
+    }
+
+    @DataBoundSetter
+    public void setRetryCount(int retryCount) {
+        builder.setRetryCount(retryCount);
+    }
+
+    @DataBoundSetter
+    public void setAgentShard(int agentShard) {
+        builder.setAgentShard(agentShard);
+    }
+
+    @DataBoundSetter
+    public void setSlowTestPercentile(int slowTestPercentile) {
+        builder.setSlowTestPercentile(slowTestPercentile);
+    }
+
+    @DataBoundSetter
+    public void setCoverageReports(String coverageReports) {
+        builder.setCoverageReports(coverageReports);
+    }
+
+    @DataBoundSetter
+    public void setArchiveResults(boolean archiveResults) {
+        builder.setArchiveResults(archiveResults);
+    }
+
+    @DataBoundSetter
+    public void setAutoConcurrency(boolean autoConcurrency) {
+        builder.setAutoConcurrency(autoConcurrency);
+    }
+
+    @DataBoundSetter
+    public void setMaxProcesses(int maxProcesses) {
+        builder.setMaxProcesses(maxProcesses);
+    }
+
+    @DataBoundSetter
+    public void setFailFast(int failFast) {
+        builder.setFailFast(failFast);
+    }
+
+    @DataBoundSetter
+    public void setSplitTestFiles(String splitTestFiles) {
+        builder.setSplitTestFiles(splitTestFiles);
+    }
+
+    @DataBoundSetter
+    public void setMergeResults(String mergeResults) {
+        builder.setMergeResults(mergeResults);
+    }
+
+    @DataBoundSetter
+    public void setMergeDuplicates(String mergeDuplicates) {
+        builder.setMergeDuplicates(mergeDuplicates);
+    }
+
+    @DataBoundSetter
+    public void setAgentShards(int agentShards) {
+        builder.setAgentShards(agentShards);
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new NUnitDurableStepExecution(context, builder);
+    }
+
+    /**
+     */
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            Set<Class<?>> context = new HashSet<Class<?>>();
+            context.add(Run.class);
+            context.add(FilePath.class);
+            context.add(Launcher.class);
+            context.add(EnvVars.class);
+            context.add(TaskListener.class);
+            return context;
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "nunitDurable";
+        }
+
+        @Override
+        @NonNull
+        public String getDisplayName() {
+            return Messages.NUnitDurableStep_DisplayName();
+        }
+
+        /**
+         * @return descriptor of the build step, whose configuration page and help the step shares
+         */
+        @SuppressWarnings("unused") // Used by Stapler
+        public NUnitBuilder.DescriptorImpl getBuilderDescriptor() {
+            return Jenkins.getInstance().getDescriptorByType(NUnitBuilder.DescriptorImpl.class);
+        }
+    }
+}
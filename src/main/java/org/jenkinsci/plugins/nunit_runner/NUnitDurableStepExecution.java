@@ -0,0 +1,391 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.AbortException;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.util.Timer;
+
+import org.jenkinsci.plugins.durabletask.BourneShellScript;
+import org.jenkinsci.plugins.durabletask.Controller;
+import org.jenkinsci.plugins.durabletask.DurableTask;
+import org.jenkinsci.plugins.durabletask.WindowsBatchScript;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+
+/**
+ * Runs the phases of a {@link NUnitRunPlan} as durable tasks and polls them from a
+ * timer, so no thread is held while the tests run. The plan, the merged outcome and
+ * the task controllers are serialized with the Pipeline, so polling resumes after a
+ * restart of Jenkins. Planning calls the agent and may run nunit3-console to explore
+ * test files, so it runs on a pool thread rather than the CPS VM thread. Reading the
+ * results of a phase runs on a pool thread too, keeping the shared timer threads free
+ * for polling.
+ */
+public class NUnitDurableStepExecution extends StepExecution {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(NUnitDurableStepExecution.class.getName());
+
+    /** Shortest and longest wait between two polls, in milliseconds. */
+    private static final long MIN_POLL_INTERVAL = 250;
+    private static final long MAX_POLL_INTERVAL = 15000;
+
+    private final boolean liveProgress;
+
+    private NUnitRunPlan plan;
+    private final NUnitOutcome outcome = new NUnitOutcome();
+
+    private List<NUnitInvocation> phase;
+    private List<Controller> controllers;
+    private Integer[] exitCodes;
+    private boolean done;
+    private boolean stopped;
+    private String node;
+    private long phaseStarted;
+    // Milliseconds spent launching processes of the phase while others ran, recorded as startup.
+    private long launching;
+
+    private transient NUnitBuilder builder;
+    /** Planning or the end of a phase, running on a pool thread. */
+    private transient Future<?> background;
+    private transient List<NUnitListenerDecorator> consoles;
+    private transient ScheduledFuture<?> poll;
+    private transient long pollInterval;
+
+    /**
+     * @param context
+     * @param builder Configuration of the step, only used to work out the plan
+     */
+    public NUnitDurableStepExecution(StepContext context, NUnitBuilder builder) {
+        super(context);
+        this.builder = builder;
+        this.liveProgress = builder.isLiveProgress();
+    }
+
+    @Override
+    public synchronized boolean start() throws Exception {
+        final NUnitBuilder configuration = builder;
+        builder = null;
+        background = Computer.threadPoolForRemoting.submit(new Runnable() {
+            public void run() {
+                plan(configuration);
+            }
+        });
+        return false;
+    }
+
+    /**
+     * Works out the plan and starts its first phase, or finishes the step when there is
+     * nothing to run. The lock is only taken once the plan is known, so the step can be
+     * stopped while the agent is being asked.
+     */
+    private void plan(NUnitBuilder configuration) {
+        StepContext context = getContext();
+        try {
+            FilePath workspace = context.get(FilePath.class);
+            Launcher launcher = context.get(Launcher.class);
+            TaskListener listener = context.get(TaskListener.class);
+            NUnitRunPlan runPlan = configuration.plan(context.get(Run.class), workspace, launcher, listener, context.get(EnvVars.class));
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                plan = runPlan;
+                if (plan == null || !startPhase(workspace, launcher, listener)) {
+                    done = true;
+                    context.onSuccess(null);
+                }
+            }
+        } catch (Exception e) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+            }
+            context.onFailure(e);
+        }
+    }
+
+    @Override
+    public synchronized void stop(Throwable cause) throws Exception {
+        done = true;
+        if (background != null) {
+            // Interrupts remote calls and kills a running explore.
+            background.cancel(true);
+        }
+        if (poll != null) {
+            poll.cancel(false);
+        }
+        try {
+            if (controllers != null) {
+                FilePath workspace = getContext().get(FilePath.class);
+                Launcher launcher = getContext().get(Launcher.class);
+                for (int i = 0; i < controllers.size(); i++) {
+                    if (controllers.get(i) == null) {
+                        continue;
+                    }
+                    controllers.get(i).stop(workspace, launcher);
+                    if (exitCodes[i] == null) {
+                        NUnitMetrics.processFinished(node);
+                    }
+                }
+            }
+        } finally {
+            getContext().onFailure(cause);
+        }
+    }
+
+    @Override
+    public synchronized void onResume() {
+        if (done) {
+            return;
+        }
+        if (phase == null) {
+            // The configuration is not kept, so the plan cannot be worked out again.
+            done = true;
+            getContext().onFailure(new AbortException("Jenkins restarted while the NUnit run was being planned, run the build again"));
+            return;
+        }
+        schedule();
+    }
+
+    @Override
+    public String getStatus() {
+        if (phase == null) {
+            return "planning the NUnit run";
+        }
+        int running = 0;
+        for (int i = 0; i < exitCodes.length; i++) {
+            if (controllers.get(i) != null && exitCodes[i] == null) {
+                running++;
+            }
+        }
+        return running + " of " + phase.size() + " nunit3-console processes running";
+    }
+
+    /**
+     * Launches the processes of the next phase, as many as the plan allows at once.
+     *
+     * @return false when there are no more phases
+     */
+    private boolean startPhase(FilePath workspace, Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+        List<NUnitInvocation> invocations = plan.nextPhase(outcome, listener);
+        if (invocations == null) {
+            return false;
+        }
+        NUnitRunPlan.deleteResults(invocations, workspace);
+        node = NUnitMetrics.getNodeName(workspace);
+
+        phase = new ArrayList<NUnitInvocation>(invocations);
+        // Processes not started yet have no controller.
+        controllers = new ArrayList<Controller>(Collections.<Controller>nCopies(invocations.size(), null));
+        exitCodes = new Integer[invocations.size()];
+        consoles = null;
+        launchWaiting(workspace, launcher, listener, 0);
+        // Wall clock time, since polling carries on after a restart.
+        phaseStarted = System.currentTimeMillis();
+        launching = 0;
+
+        pollInterval = MIN_POLL_INTERVAL;
+        schedule();
+        return true;
+    }
+
+    /**
+     * Launches processes of the phase that have not started, while fewer than the plan allows are running.
+     *
+     * @param running Processes of the phase running now
+     */
+    private void launchWaiting(FilePath workspace, Launcher launcher, TaskListener listener, int running) throws IOException, InterruptedException {
+        int max = plan.getMaxProcesses() > 0 ? plan.getMaxProcesses() : phase.size();
+        for (int i = 0; i < phase.size() && running < max; i++) {
+            if (controllers.get(i) != null) {
+                continue;
+            }
+            List<String> args = phase.get(i).getArgs();
+            String script = launcher.isUnix() ? NUnitBuilder.concatShellString(args) : NUnitBuilder.concatString(args);
+            String label = phase.get(i).getName() != null ? " (" + phase.get(i).getName() + ")" : "";
+            listener.getLogger().println("Executing NUnit" + label + " as a durable task: " + script);
+
+            long start = System.nanoTime();
+            DurableTask task = launcher.isUnix() ? new BourneShellScript(script) : new WindowsBatchScript(script);
+            controllers.set(i, task.launch(getContext().get(EnvVars.class), workspace, launcher, listener));
+            NUnitMetrics.processStarted(node);
+            launching += TimeUnit.NANOSECONDS.toMillis(plan.getTimings().record(NUnitTimings.Phase.STARTUP, start) - start);
+            running++;
+        }
+    }
+
+    private void schedule() {
+        poll = Timer.get().schedule(new Runnable() {
+            public void run() {
+                check();
+            }
+        }, Math.max(MIN_POLL_INTERVAL, pollInterval), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Copies new console output and looks for exit codes, starting waiting processes as
+     * others end. When all processes of the phase are done, hands the phase to
+     * {@link #endPhase()} on a pool thread.
+     */
+    private synchronized void check() {
+        if (done) {
+            return;
+        }
+        StepContext context = getContext();
+        try {
+            Run<?, ?> run = context.get(Run.class);
+            FilePath workspace = context.get(FilePath.class);
+            Launcher launcher = context.get(Launcher.class);
+            TaskListener listener = context.get(TaskListener.class);
+            List<NUnitListenerDecorator> output = getConsoles(run, listener);
+
+            boolean written = false;
+            int running = 0;
+            boolean waiting = false;
+            for (int i = 0; i < controllers.size(); i++) {
+                if (controllers.get(i) == null) {
+                    waiting = true;
+                    continue;
+                }
+                if (exitCodes[i] != null) {
+                    continue;
+                }
+                written |= controllers.get(i).writeLog(workspace, output.get(i));
+                Integer exitCode = controllers.get(i).exitStatus(workspace, launcher);
+                if (exitCode != null) {
+                    // Output written between the last poll and the exit.
+                    controllers.get(i).writeLog(workspace, output.get(i));
+                    output.get(i).close();
+                    controllers.get(i).cleanup(workspace);
+                    exitCodes[i] = exitCode;
+                    NUnitMetrics.processFinished(node);
+                } else {
+                    running++;
+                }
+            }
+            if (!stopped && plan.isStopped()) {
+                // Enough tests failed: kill the running process trees and leave the rest unstarted.
+                stopped = true;
+                listener.getLogger().println(plan.getFailFast().getMessage() + ", stopping NUnit");
+                for (int i = 0; i < controllers.size(); i++) {
+                    if (controllers.get(i) != null && exitCodes[i] == null) {
+                        controllers.get(i).stop(workspace, launcher);
+                    }
+                }
+            }
+            if (stopped) {
+                waiting = false;
+            } else if (waiting) {
+                launchWaiting(workspace, launcher, listener, running);
+            }
+            if (running > 0 || waiting) {
+                pollInterval = written ? MIN_POLL_INTERVAL : Math.min(MAX_POLL_INTERVAL, Math.max(MIN_POLL_INTERVAL, pollInterval) * 6 / 5);
+                schedule();
+                return;
+            }
+        } catch (IOException | InterruptedException e) {
+            // Usually the agent is offline for a while; the durable tasks keep running there.
+            LOGGER.log(Level.FINE, "Polling NUnit durable tasks failed, retrying", e);
+            pollInterval = MAX_POLL_INTERVAL;
+            schedule();
+            return;
+        }
+        background = Computer.threadPoolForRemoting.submit(new Runnable() {
+            public void run() {
+                endPhase();
+            }
+        });
+    }
+
+    /**
+     * Reads the results of the phase that ended and starts the next phase, or finishes the step.
+     * Polling is not scheduled meanwhile, so the phase is not changed under it.
+     */
+    private void endPhase() {
+        StepContext context = getContext();
+        try {
+            Run<?, ?> run = context.get(Run.class);
+            FilePath workspace = context.get(FilePath.class);
+            Launcher launcher = context.get(Launcher.class);
+            TaskListener listener = context.get(TaskListener.class);
+            List<NUnitListenerDecorator> output = getConsoles(run, listener);
+
+            plan.getTimings().add(NUnitTimings.Phase.EXECUTION, Math.max(0, System.currentTimeMillis() - phaseStarted - launching));
+            long start = System.nanoTime();
+            NUnitOutcome phaseOutcome = new NUnitOutcome();
+            List<NUnitInvocation> started = new ArrayList<NUnitInvocation>();
+            for (int i = 0; i < phase.size(); i++) {
+                if (exitCodes[i] == null) {
+                    // Never started, the step was stopped first.
+                    continue;
+                }
+                started.add(phase.get(i));
+                phaseOutcome.addExit(phase.get(i).getName(), exitCodes[i], launcher.isUnix());
+                if (output.get(i).getCoverageFile() != null) {
+                    phaseOutcome.setCoverageFile(output.get(i).getCoverageFile());
+                }
+            }
+            NUnitRunPlan.readResults(started, workspace, listener, phaseOutcome);
+            plan.keepResults(run, started, workspace, listener);
+            plan.addPhase(outcome, phaseOutcome);
+            plan.getTimings().record(NUnitTimings.Phase.RESULTS, start);
+
+            synchronized (this) {
+                if (done || startPhase(workspace, launcher, listener)) {
+                    return;
+                }
+            }
+            plan.finish(run, workspace, listener, outcome);
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+            }
+            context.onSuccess(null);
+        } catch (Exception e) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+            }
+            context.onFailure(e);
+        }
+    }
+
+    /**
+     * @return console scanner of each process of the phase, created again after a restart
+     */
+    private List<NUnitListenerDecorator> getConsoles(Run<?, ?> run, TaskListener listener) throws IOException {
+        if (consoles == null) {
+            NUnitTestEvent.Listener eventListener = liveProgress ? NUnitProgressAction.getOrAdd(run) : null;
+            if (plan.getFailFast() != null) {
+                eventListener = plan.getFailFast().forwardTo(eventListener);
+            }
+            consoles = new ArrayList<NUnitListenerDecorator>();
+            for (NUnitInvocation invocation : phase) {
+                consoles.add(new NUnitListenerDecorator(listener, run.getCharset(), invocation.getConsolePrefix(), eventListener));
+            }
+        }
+        return consoles;
+    }
+}
@@ -0,0 +1,570 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import hudson.model.Job;
+
+/**
+ * Per-job history of test durations, so trends and regressions can be worked out
+ * without loading old builds.
+ * <p>
+ * Stored in the job directory as an append-only binary file of records: a test name,
+ * as modified UTF-8 or, when too long for that, as length-prefixed UTF-8, which gets the next id of the name dictionary, or a build, given as its number and
+ * its test ids, ascending, with their durations. Parallel branches of one build append a
+ * record each, which are read as one build. Only what was appended since the last
+ * load is read, and a record cut short by a crash is dropped on the next append. Once
+ * the file holds {@link #MAX_BUILDS} builds it is rewritten with the newest
+ * {@link #KEEP_BUILDS}.
+ */
+public class NUnitDurationHistory {
+
+    private static final String FILE_NAME = "nunit-test-durations.bin";
+
+    private static final int MAGIC = 0x4E554448;
+
+    private static final byte NAME_RECORD = 1;
+
+    private static final byte BUILD_RECORD = 2;
+
+    private static final byte LONG_NAME_RECORD = 3;
+
+    /** Longest name writeUTF takes whatever its characters, at most three bytes each. */
+    private static final int MAX_SHORT_NAME = 65535 / 3;
+
+    static final int MAX_BUILDS = 1000;
+
+    static final int KEEP_BUILDS = 500;
+
+    /** Builds of one job may finish concurrently. */
+    private static final Object LOCK = new Object();
+
+    /** Loaded histories by file, caught up with the file on every load. Guarded by LOCK. */
+    private static final Map<String, SoftReference<NUnitDurationHistory>> CACHE = new HashMap<>();
+
+    private final List<String> names;
+    private final Map<String, Integer> ids;
+
+    private int buildCount;
+    private int[] builds;
+    private int[][] testIds;
+    private int[][] durations;
+
+    /** Bytes of the file read so far. */
+    private long length;
+
+    NUnitDurationHistory() {
+        names = new ArrayList<>();
+        ids = new HashMap<>();
+        builds = new int[16];
+        testIds = new int[16][];
+        durations = new int[16][];
+    }
+
+    private NUnitDurationHistory(NUnitDurationHistory other) {
+        // Per-build arrays are never changed once added, so they can be shared.
+        names = new ArrayList<>(other.names);
+        ids = new HashMap<>(other.ids);
+        buildCount = other.buildCount;
+        builds = Arrays.copyOf(other.builds, buildCount);
+        testIds = Arrays.copyOf(other.testIds, buildCount);
+        durations = Arrays.copyOf(other.durations, buildCount);
+        length = other.length;
+    }
+
+    /**
+     * @return number of builds in the history
+     */
+    public int getBuildCount() {
+        return buildCount;
+    }
+
+    /**
+     * @param index Index of the build, oldest first
+     * @return its build number
+     */
+    public int getBuild(int index) {
+        return builds[index];
+    }
+
+    /**
+     * @param index Index of the build, oldest first
+     * @return number of tests the build ran
+     */
+    public int getTestCount(int index) {
+        return testIds[index].length;
+    }
+
+    /**
+     * @param index Index of the build, oldest first
+     * @return summed duration of the tests of the build in milliseconds
+     */
+    public long getTotalDuration(int index) {
+        long total = 0;
+        for (int duration : durations[index]) {
+            total += duration;
+        }
+        return total;
+    }
+
+    /**
+     * @param index Index of the build, oldest first
+     * @return duration in milliseconds by test full name
+     */
+    public Map<String, Long> getDurations(int index) {
+        Map<String, Long> result = new HashMap<>(testIds[index].length * 2);
+        for (int i = 0; i < testIds[index].length; i++) {
+            result.put(names.get(testIds[index][i]), (long) durations[index][i]);
+        }
+        return result;
+    }
+
+    /**
+     * Collects the durations of the given tests in every build of the history.
+     *
+     * @param tests Test full names
+     * @param beforeIndex Only builds before this index are looked at
+     * @return durations in milliseconds by test, oldest first, only for tests with history
+     */
+    public Map<String, int[]> getHistory(Iterable<String> tests, int beforeIndex) {
+        Map<Integer, String> wanted = new HashMap<>();
+        for (String test : tests) {
+            Integer id = ids.get(test);
+            if (id != null) {
+                wanted.put(id, test);
+            }
+        }
+
+        Map<String, int[]> samples = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (int b = 0; b < Math.min(beforeIndex, buildCount); b++) {
+            int[] buildIds = testIds[b];
+            for (Map.Entry<Integer, String> test : wanted.entrySet()) {
+                int i = Arrays.binarySearch(buildIds, test.getKey());
+                if (i < 0) {
+                    continue;
+                }
+                int[] values = samples.get(test.getValue());
+                Integer count = counts.get(test.getValue());
+                if (values == null) {
+                    values = new int[4];
+                    count = 0;
+                } else if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count] = durations[b][i];
+                samples.put(test.getValue(), values);
+                counts.put(test.getValue(), count + 1);
+            }
+        }
+
+        Map<String, int[]> history = new HashMap<>();
+        for (Map.Entry<String, int[]> entry : samples.entrySet()) {
+            history.put(entry.getKey(), Arrays.copyOf(entry.getValue(), counts.get(entry.getKey())));
+        }
+        return history;
+    }
+
+    /**
+     * @param samples Durations
+     * @param percentile Between 1 and 100
+     * @return the nearest-rank percentile of the samples
+     */
+    public static int percentile(int[] samples, int percentile) {
+        int[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    /**
+     * Finds the tests that took longer than a percentile of their history.
+     *
+     * @param durations Duration in milliseconds by test full name, of a build not in the history yet
+     * @param percentile Between 1 and 100
+     * @param minSamples Tests with fewer earlier durations are not judged
+     * @param minDuration Tests faster than this many milliseconds are not judged, their timings are mostly noise
+     * @return the slow tests, the largest slowdown first
+     */
+    public List<SlowTest> findSlowTests(Map<String, Long> durations, int percentile, int minSamples, long minDuration) {
+        List<SlowTest> slow = new ArrayList<>();
+        for (Map.Entry<String, int[]> history : getHistory(durations.keySet(), buildCount).entrySet()) {
+            long duration = durations.get(history.getKey());
+            if (history.getValue().length < minSamples || duration < minDuration) {
+                continue;
+            }
+            int threshold = percentile(history.getValue(), percentile);
+            if (duration > threshold) {
+                slow.add(new SlowTest(history.getKey(), duration, threshold, history.getValue().length));
+            }
+        }
+        Collections.sort(slow, new Comparator<SlowTest>() {
+            public int compare(SlowTest a, SlowTest b) {
+                return Long.compare(b.getDuration() - b.getThreshold(), a.getDuration() - a.getThreshold());
+            }
+        });
+        return slow;
+    }
+
+    /**
+     * @param job Job
+     * @return the history of the job, empty if none was stored yet
+     * @throws IOException
+     */
+    public static NUnitDurationHistory load(Job<?, ?> job) throws IOException {
+        return load(getFile(job));
+    }
+
+    /* package */ static NUnitDurationHistory load(File file) throws IOException {
+        synchronized (LOCK) {
+            return new NUnitDurationHistory(getCurrent(file));
+        }
+    }
+
+    /**
+     * @param job Job
+     * @return whether the job has a history
+     */
+    public static boolean exists(Job<?, ?> job) {
+        return getFile(job).isFile();
+    }
+
+    /**
+     * Appends the test durations of a build.
+     *
+     * @param job Job
+     * @param build Build number
+     * @param testDurations Duration in milliseconds by test full name
+     * @throws IOException
+     */
+    public static void append(Job<?, ?> job, int build, Map<String, Long> testDurations) throws IOException {
+        append(getFile(job), build, testDurations);
+    }
+
+    /* package */ static void append(File file, int build, Map<String, Long> testDurations) throws IOException {
+        synchronized (LOCK) {
+            NUnitDurationHistory history = getCurrent(file);
+
+            if (history.buildCount >= MAX_BUILDS) {
+                history = history.compact(file, KEEP_BUILDS - 1);
+            }
+
+            // Drop a record cut short by a crash, or a file that is not a history.
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                if (raf.length() != history.length) {
+                    raf.setLength(history.length);
+                }
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+                if (history.length == 0) {
+                    out.writeInt(MAGIC);
+                }
+                history.writeBuild(out, build, testDurations);
+            }
+            history.readFrom(file);
+        }
+    }
+
+    /**
+     * @return the cached history of the file, with anything appended since read in
+     */
+    private static NUnitDurationHistory getCurrent(File file) throws IOException {
+        SoftReference<NUnitDurationHistory> reference = CACHE.get(file.getPath());
+        NUnitDurationHistory history = reference != null ? reference.get() : null;
+        if (history == null || file.length() < history.length) {
+            history = new NUnitDurationHistory();
+            CACHE.put(file.getPath(), new SoftReference<>(history));
+        }
+        history.readFrom(file);
+        return history;
+    }
+
+    /**
+     * Writes the names not in the dictionary yet and the build. The dictionary itself is
+     * only updated when the records are read back.
+     */
+    private void writeBuild(DataOutputStream out, int build, Map<String, Long> testDurations) throws IOException {
+        int nextId = names.size();
+        Map<String, Integer> newIds = new HashMap<>();
+        int[][] pairs = new int[testDurations.size()][];
+        int count = 0;
+        for (Map.Entry<String, Long> test : testDurations.entrySet()) {
+            Integer id = ids.get(test.getKey());
+            if (id == null) {
+                id = nextId++;
+                newIds.put(test.getKey(), id);
+                writeName(out, test.getKey());
+            }
+            pairs[count++] = new int[] {id, (int) Math.min(Integer.MAX_VALUE, Math.max(0, test.getValue()))};
+        }
+        Arrays.sort(pairs, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return Integer.compare(a[0], b[0]);
+            }
+        });
+        out.writeByte(BUILD_RECORD);
+        out.writeInt(build);
+        out.writeInt(pairs.length);
+        for (int[] pair : pairs) {
+            out.writeInt(pair[0]);
+            out.writeInt(pair[1]);
+        }
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        if (name.length() <= MAX_SHORT_NAME) {
+            out.writeByte(NAME_RECORD);
+            out.writeUTF(name);
+            return;
+        }
+        // Long parameterized names do not fit writeUTF.
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(LONG_NAME_RECORD);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Rewrites the file with the newest builds and the names they use.
+     *
+     * @return the history of the rewritten file
+     */
+    private NUnitDurationHistory compact(File file, int keep) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        NUnitDurationHistory compacted = new NUnitDurationHistory();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            for (int b = Math.max(0, buildCount - keep); b < buildCount; b++) {
+                Map<String, Long> build = getDurations(b);
+                compacted.writeBuild(out, builds[b], build);
+                // Names written for this build are known to the next one.
+                for (String name : build.keySet()) {
+                    if (!compacted.ids.containsKey(name)) {
+                        compacted.ids.put(name, compacted.names.size());
+                        compacted.names.add(name);
+                    }
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        NUnitDurationHistory history = new NUnitDurationHistory();
+        history.readFrom(file);
+        CACHE.put(file.getPath(), new SoftReference<>(history));
+        return history;
+    }
+
+    /**
+     * Reads the complete records after {@link #length}.
+     */
+    private void readFrom(File file) throws IOException {
+        long fileLength = file.length();
+        if (fileLength <= length) {
+            return;
+        }
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+             DataInputStream in = new DataInputStream(counter)) {
+            if (length == 0) {
+                if (in.readInt() != MAGIC) {
+                    return;
+                }
+                length = counter.count;
+            } else {
+                skipFully(counter, length);
+            }
+            while (counter.count < fileLength) {
+                byte tag = in.readByte();
+                if (tag == NAME_RECORD || tag == LONG_NAME_RECORD) {
+                    String name;
+                    if (tag == NAME_RECORD) {
+                        name = in.readUTF();
+                    } else {
+                        int size = in.readInt();
+                        if (size < 0 || size > fileLength - counter.count) {
+                            return;
+                        }
+                        byte[] bytes = new byte[size];
+                        in.readFully(bytes);
+                        name = new String(bytes, StandardCharsets.UTF_8);
+                    }
+                    ids.put(name, names.size());
+                    names.add(name);
+                } else if (tag == BUILD_RECORD) {
+                    int build = in.readInt();
+                    int count = in.readInt();
+                    if (count < 0 || count > names.size()) {
+                        return;
+                    }
+                    int[] buildIds = new int[count];
+                    int[] buildDurations = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        buildIds[i] = in.readInt();
+                        buildDurations[i] = in.readInt();
+                        if (buildIds[i] < 0 || buildIds[i] >= names.size()) {
+                            return;
+                        }
+                    }
+                    addBuild(build, buildIds, buildDurations);
+                } else {
+                    return;
+                }
+                length = counter.count;
+            }
+        } catch (EOFException e) {
+            // The last record was cut short; it is dropped on the next append.
+        }
+    }
+
+    private void addBuild(int build, int[] buildIds, int[] buildDurations) {
+        for (int b = buildCount - 1; b >= 0; b--) {
+            if (builds[b] == build) {
+                mergeBuild(b, buildIds, buildDurations);
+                return;
+            }
+        }
+        if (buildCount == builds.length) {
+            builds = Arrays.copyOf(builds, buildCount * 2);
+            testIds = Arrays.copyOf(testIds, buildCount * 2);
+            durations = Arrays.copyOf(durations, buildCount * 2);
+        }
+        builds[buildCount] = build;
+        testIds[buildCount] = buildIds;
+        durations[buildCount] = buildDurations;
+        buildCount++;
+    }
+
+    /**
+     * Merges another record of a build into its entry, the later duration winning for a test
+     * in both. New arrays are made, since the old ones may be shared with a copy.
+     */
+    private void mergeBuild(int index, int[] buildIds, int[] buildDurations) {
+        int[] oldIds = testIds[index];
+        int[] oldDurations = durations[index];
+        int[] mergedIds = new int[oldIds.length + buildIds.length];
+        int[] mergedDurations = new int[mergedIds.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < oldIds.length || j < buildIds.length) {
+            if (j == buildIds.length || i < oldIds.length && oldIds[i] < buildIds[j]) {
+                mergedIds[count] = oldIds[i];
+                mergedDurations[count++] = oldDurations[i++];
+            } else {
+                if (i < oldIds.length && oldIds[i] == buildIds[j]) {
+                    i++;
+                }
+                mergedIds[count] = buildIds[j];
+                mergedDurations[count++] = buildDurations[j++];
+            }
+        }
+        testIds[index] = Arrays.copyOf(mergedIds, count);
+        durations[index] = Arrays.copyOf(mergedDurations, count);
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            n -= skipped;
+        }
+    }
+
+    private static File getFile(Job<?, ?> job) {
+        return new File(job.getRootDir(), FILE_NAME);
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * A test that took longer than a percentile of its history.
+     */
+    public static final class SlowTest {
+
+        private final String name;
+        private final long duration;
+        private final int threshold;
+        private final int samples;
+
+        public SlowTest(String name, long duration, int threshold, int samples) {
+            this.name = name;
+            this.duration = duration;
+            this.threshold = threshold;
+            this.samples = samples;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return the percentile of the earlier durations, in milliseconds
+         */
+        public int getThreshold() {
+            return threshold;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import jenkins.model.TransientActionFactory;
+
+/**
+ * Test duration trend of a job, rendered from its {@link NUnitDurationHistory} alone.
+ */
+public class NUnitDurationTrendAction implements Action {
+
+    private static final Logger LOGGER = Logger.getLogger(NUnitDurationTrendAction.class.getName());
+
+    /** Builds listed, newest first. */
+    private static final int MAX_BUILDS = 30;
+
+    /** Tests listed as slower than usual. */
+    private static final int MAX_TESTS = 50;
+
+    private final Job<?, ?> job;
+
+    private transient NUnitDurationHistory history;
+
+    public NUnitDurationTrendAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    public String getDisplayName() {
+        return Messages.NUnitDurationTrendAction_DisplayName();
+    }
+
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    public String getUrlName() {
+        return "nunitDurations";
+    }
+
+    /**
+     * @return the newest builds, with the steps of one build added up
+     */
+    public List<BuildRow> getBuilds() {
+        NUnitDurationHistory history = getHistory();
+        Map<Integer, BuildRow> rows = new LinkedHashMap<>();
+        for (int i = history.getBuildCount() - 1; i >= 0 && rows.size() <= MAX_BUILDS; i--) {
+            BuildRow row = rows.get(history.getBuild(i));
+            if (row == null) {
+                row = new BuildRow(history.getBuild(i));
+                rows.put(row.build, row);
+            }
+            row.tests += history.getTestCount(i);
+            row.duration += history.getTotalDuration(i);
+        }
+        List<BuildRow> builds = new ArrayList<>(rows.values());
+        return builds.subList(0, Math.min(MAX_BUILDS, builds.size()));
+    }
+
+    /**
+     * @return tests of the newest build that took longer than their median, the largest increase first
+     */
+    public List<TestRow> getSlowerTests() {
+        NUnitDurationHistory history = getHistory();
+        int latest = history.getBuildCount() - 1;
+        if (latest < 1) {
+            return Collections.emptyList();
+        }
+        Map<String, Long> durations = history.getDurations(latest);
+        List<TestRow> rows = new ArrayList<>();
+        for (Map.Entry<String, int[]> test : history.getHistory(durations.keySet(), latest).entrySet()) {
+            long duration = durations.get(test.getKey());
+            int median = NUnitDurationHistory.percentile(test.getValue(), 50);
+            if (duration > median) {
+                rows.add(new TestRow(test.getKey(), duration, median, test.getValue().length));
+            }
+        }
+        Collections.sort(rows, new Comparator<TestRow>() {
+            public int compare(TestRow a, TestRow b) {
+                return Long.compare(b.getIncrease(), a.getIncrease());
+            }
+        });
+        return rows.subList(0, Math.min(MAX_TESTS, rows.size()));
+    }
+
+    private NUnitDurationHistory getHistory() {
+        if (history == null) {
+            try {
+                history = NUnitDurationHistory.load(job);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load the NUnit test durations of " + job.getFullName(), e);
+                history = new NUnitDurationHistory();
+            }
+        }
+        return history;
+    }
+
+    public static final class BuildRow {
+
+        private final int build;
+        private int tests;
+        private long duration;
+
+        BuildRow(int build) {
+            this.build = build;
+        }
+
+        public int getBuild() {
+            return build;
+        }
+
+        public int getTests() {
+            return tests;
+        }
+
+        /**
+         * @return summed duration of the tests in milliseconds
+         */
+        public long getDuration() {
+            return duration;
+        }
+    }
+
+    public static final class TestRow {
+
+        private final String name;
+        private final long duration;
+        private final int median;
+        private final int samples;
+
+        TestRow(String name, long duration, int median, int samples) {
+            this.name = name;
+            this.duration = duration;
+            this.median = median;
+            this.samples = samples;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public int getMedian() {
+            return median;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public long getIncrease() {
+            return duration - median;
+        }
+    }
+
+    /**
+     * Adds the trend to jobs that have a duration history.
+     */
+    @Extension
+    public static class Factory extends TransientActionFactory<Job> {
+
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Override
+        public Collection<? extends Action> createFor(Job target) {
+            if (!NUnitDurationHistory.exists(target)) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new NUnitDurationTrendAction(target));
+        }
+    }
+}
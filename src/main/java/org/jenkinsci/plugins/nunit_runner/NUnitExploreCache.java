@@ -0,0 +1,312 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Test cases found by <code>--explore</code>, cached on each node so an unchanged test
+ * file is never explored twice.
+ * <p>
+ * Entries are keyed by the {@link AssemblyHasher} hash of the test file and the options
+ * it was explored with. Each entry is a file of its own in the node's root directory,
+ * holding the test names front-coded and gzipped. Entries are written to a temporary
+ * file and renamed into place, so the executors of a node can share the cache; the
+ * least recently used ones are deleted once the cache grows past {@link #MAX_SIZE}.
+ */
+public final class NUnitExploreCache {
+
+    private static final String DIR_NAME = "nunit-explore-cache";
+
+    private static final String ENTRY_SUFFIX = ".bin";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x4E554543;
+
+    /** Bytes the entries of a node may take up together. */
+    static final long MAX_SIZE = 64L * 1024 * 1024;
+
+    /** Temporary files older than this were left by a writer that died. */
+    private static final long STALE_TEMP_AGE = TimeUnit.HOURS.toMillis(1);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Executors of one node share its cache. */
+    private static final Object LOCK = new Object();
+
+    private NUnitExploreCache() {
+    }
+
+    /**
+     * @param node Node running the tests
+     * @return the cache directory of the node, or null when the node is offline
+     */
+    public static FilePath getDirectory(Node node) {
+        FilePath root = node.getRootPath();
+        return root != null ? root.child(DIR_NAME) : null;
+    }
+
+    /**
+     * @param pathToNUnit nunit3-console.exe path, as other versions may find other tests
+     * @param assemblyHash Hash of the test file and its dependencies
+     * @param options Selection options the test file is explored with
+     * @return key of the entry
+     */
+    public static String key(String pathToNUnit, String assemblyHash, List<String> options) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(pathToNUnit.getBytes(UTF_8));
+        digest.update(("\n" + assemblyHash).getBytes(UTF_8));
+        for (String option : options) {
+            digest.update(("\n" + option).getBytes(UTF_8));
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    /**
+     * @param cache Cache directory of the node
+     * @param key Key of the entry
+     * @param listener Told when the cache cannot be read
+     * @return the cached test names, or null when not cached
+     * @throws InterruptedException
+     */
+    public static List<String> get(FilePath cache, String key, TaskListener listener) throws InterruptedException {
+        try {
+            return cache.act(new Lookup(key));
+        } catch (IOException e) {
+            Util.displayIOException(e, listener);
+            e.printStackTrace(listener.error("Failed to read the NUnit explore cache"));
+            return null;
+        }
+    }
+
+    /**
+     * @param cache Cache directory of the node
+     * @param key Key of the entry
+     * @param tests Test names to cache
+     * @param listener Told when the cache cannot be written
+     * @throws InterruptedException
+     */
+    public static void put(FilePath cache, String key, List<String> tests, TaskListener listener) throws InterruptedException {
+        try {
+            cache.act(new Store(key, tests, MAX_SIZE));
+        } catch (IOException e) {
+            Util.displayIOException(e, listener);
+            e.printStackTrace(listener.error("Failed to write the NUnit explore cache"));
+        }
+    }
+
+    /**
+     * Reads an entry and marks it as used.
+     *
+     * @return the test names, or null when there is no such entry
+     */
+    /* package */ static List<String> lookup(File dir, String key) throws IOException {
+        File file = new File(dir, key + ENTRY_SUFFIX);
+        List<String> tests;
+        try (InputStream in = new FileInputStream(file)) {
+            tests = read(in);
+        } catch (FileNotFoundException e) {
+            // Not cached, or just evicted by another executor.
+            return null;
+        } catch (IOException e) {
+            // Damaged entries are explored again and replaced.
+            file.delete();
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return tests;
+    }
+
+    /**
+     * Adds an entry, then evicts the least recently used entries while the cache is too large.
+     */
+    /* package */ static void store(File dir, String key, List<String> tests, long maxSize) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        File temp = File.createTempFile("nunit-explore", TEMP_SUFFIX, dir);
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                write(tests, out);
+            }
+            File entry = new File(dir, key + ENTRY_SUFFIX);
+            try {
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+        evict(dir, maxSize);
+    }
+
+    private static void evict(File dir, long maxSize) {
+        synchronized (LOCK) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            List<File> entries = new ArrayList<File>();
+            long size = 0;
+            for (File file : files) {
+                if (file.getName().endsWith(ENTRY_SUFFIX)) {
+                    entries.add(file);
+                    size += file.length();
+                } else if (file.getName().endsWith(TEMP_SUFFIX) && now - file.lastModified() > STALE_TEMP_AGE) {
+                    file.delete();
+                }
+            }
+            if (size <= maxSize) {
+                return;
+            }
+            final long[] used = new long[entries.size()];
+            List<Integer> order = new ArrayList<Integer>();
+            for (int i = 0; i < entries.size(); i++) {
+                used[i] = entries.get(i).lastModified();
+                order.add(i);
+            }
+            // Read the times once, lookups may touch them meanwhile.
+            Collections.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(used[a], used[b]);
+                }
+            });
+            for (int i = 0; i < order.size() && size > maxSize; i++) {
+                File entry = entries.get(order.get(i));
+                long length = entry.length();
+                // An entry being read cannot be deleted on Windows; it is evicted next time.
+                if (entry.delete()) {
+                    size -= length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the test names, each as the length of the prefix it shares with the previous
+     * name and the rest. Tests of one fixture share most of their name, so this and gzip
+     * shrink the list to a fraction of the explore output.
+     */
+    /* package */ static void write(List<String> tests, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out)));
+        data.writeInt(MAGIC);
+        data.writeInt(tests.size());
+        String previous = "";
+        for (String test : tests) {
+            int prefix = commonPrefix(previous, test);
+            byte[] rest = test.substring(prefix).getBytes(UTF_8);
+            data.writeInt(prefix);
+            data.writeInt(rest.length);
+            data.write(rest);
+            previous = test;
+        }
+        data.close();
+    }
+
+    /* package */ static List<String> read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new GZIPInputStream(new BufferedInputStream(in)));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an NUnit explore cache entry");
+        }
+        int count = data.readInt();
+        List<String> tests = new ArrayList<String>(Math.max(0, Math.min(count, 1 << 16)));
+        String previous = "";
+        for (int i = 0; i < count; i++) {
+            int prefix = data.readInt();
+            int length = data.readInt();
+            // Checked before allocating, so a damaged length is explored again rather than failing the build.
+            if (prefix < 0 || prefix > previous.length() || length < 0 || length > MAX_SIZE) {
+                throw new IOException("Damaged NUnit explore cache entry");
+            }
+            byte[] rest = new byte[length];
+            data.readFully(rest);
+            previous = previous.substring(0, prefix) + new String(rest, UTF_8);
+            tests.add(previous);
+        }
+        return tests;
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int max = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        // Never split a surrogate pair, the rest is encoded on its own.
+        if (i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    private static final class Lookup extends MasterToSlaveFileCallable<List<String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+
+        Lookup(String key) {
+            this.key = key;
+        }
+
+        public List<String> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            return lookup(dir, key);
+        }
+    }
+
+    private static final class Store extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+        private final ArrayList<String> tests;
+        private final long maxSize;
+
+        Store(String key, List<String> tests, long maxSize) {
+            this.key = key;
+            this.tests = new ArrayList<String>(tests);
+            this.maxSize = maxSize;
+        }
+
+        public Void invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            store(dir, key, tests, maxSize);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Counts the failed tests of a step from its live {@link NUnitTestEvent}s, so the step
+ * can stop all of its nunit3-console processes once enough of them failed.
+ * <p>
+ * Serialized with the {@link NUnitRunPlan}, so a durable Pipeline execution keeps the
+ * count over a restart.
+ */
+public class NUnitFailFast implements NUnitTestEvent.Listener, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxFailures;
+
+    private final LinkedHashSet<String> failedTests = new LinkedHashSet<String>();
+
+    private transient NUnitTestEvent.Listener next;
+
+    /**
+     * @param maxFailures Failed tests after which the step stops, at least 1
+     */
+    public NUnitFailFast(int maxFailures) {
+        this.maxFailures = Math.max(1, maxFailures);
+    }
+
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    /**
+     * @param next Also receives every event, e.g. the live progress of the build; may be null
+     * @return this
+     */
+    public NUnitFailFast forwardTo(NUnitTestEvent.Listener next) {
+        this.next = next;
+        return this;
+    }
+
+    public void onEvent(NUnitTestEvent event) {
+        if (event.getType() == NUnitTestEvent.Type.TEST_FAILED && event.getName() != null) {
+            synchronized (this) {
+                failedTests.add(event.getName());
+            }
+        }
+        NUnitTestEvent.Listener next = this.next;
+        if (next != null) {
+            next.onEvent(event);
+        }
+    }
+
+    /**
+     * @return whether enough tests failed to stop the step
+     */
+    public synchronized boolean isTriggered() {
+        return failedTests.size() >= maxFailures;
+    }
+
+    /**
+     * @return names of the tests seen failing, in the order they failed
+     */
+    public synchronized List<String> getFailedTests() {
+        return new ArrayList<String>(failedTests);
+    }
+
+    /**
+     * @return why the step was stopped
+     */
+    public synchronized String getMessage() {
+        return "NUnit stopped after " + failedTests.size() + " failed tests: " + StringUtils.join(failedTests, ", ");
+    }
+}
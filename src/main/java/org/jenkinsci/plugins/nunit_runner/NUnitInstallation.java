@@ -2,6 +2,11 @@ package org.jenkinsci.plugins.nunit_runner;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.EnvVars;
@@ -10,10 +15,13 @@ import hudson.init.InitMilestone;
 import hudson.init.Initializer;
 import hudson.tools.ToolDescriptor;
 import hudson.tools.ToolInstallation;
+import hudson.tools.ToolProperty;
 import org.kohsuke.stapler.DataBoundConstructor;
 
+import hudson.model.Computer;
 import hudson.model.TaskListener;
 import hudson.model.Node;
+import hudson.slaves.ComputerListener;
 import hudson.slaves.NodeSpecific;
 import hudson.model.EnvironmentSpecific;
 import jenkins.model.Jenkins;
@@ -36,16 +44,25 @@ public class NUnitInstallation extends ToolInstallation implements NodeSpecific<
      * @param name Name of install
      * @param home Path of install
      */
-    @DataBoundConstructor
     public NUnitInstallation(String name, String home) {
-        super(name, home, null);
+        this(name, home, null);
+    }
+
+    /**
+     * @param name Name of install
+     * @param home Path of install
+     * @param properties Tool properties, e.g. the installers
+     */
+    @DataBoundConstructor
+    public NUnitInstallation(String name, String home, List<? extends ToolProperty<?>> properties) {
+        super(name, home, properties);
     }
 
     /**
      *
      */
     public NUnitInstallation forNode(Node node, TaskListener log) throws IOException, InterruptedException {
-        return new NUnitInstallation(getName(), translateFor(node, log));
+        return new NUnitInstallation(getName(), translateFor(node, log), getProperties().toList());
     }
 
     /**
@@ -53,7 +70,7 @@ public class NUnitInstallation extends ToolInstallation implements NodeSpecific<
      * @return new NUnitInstallation instance
      */
     public NUnitInstallation forEnvironment(EnvVars environment) {
-        return new NUnitInstallation(getName(), environment.expand(getHome()));
+        return new NUnitInstallation(getName(), environment.expand(getHome()), getProperties().toList());
     }
 
     /**
@@ -129,19 +146,108 @@ public class NUnitInstallation extends ToolInstallation implements NodeSpecific<
     @Extension
     public static class DescriptorImpl extends ToolDescriptor<NUnitInstallation> {
 
+        /** Installations by name, built on first use since loading the configuration bypasses setInstallations. */
+        private transient Map<String, NUnitInstallation> byName;
+
+        /** Installations translated for a node, by installation and node name. */
+        private transient final ConcurrentMap<String, Translation> byNode = new ConcurrentHashMap<String, Translation>();
+
         public String getDisplayName() {
             return Messages.NUnitInstallation_DisplayName();
         }
 
         @Nullable
-        public NUnitInstallation getInstallation(String name) {
-            for (NUnitInstallation i : getInstallations()) {
-                if (i.getName().equals(name)) {
-                    return i;
+        public synchronized NUnitInstallation getInstallation(String name) {
+            if (byName == null) {
+                byName = new HashMap<String, NUnitInstallation>();
+                for (NUnitInstallation i : getInstallations()) {
+                    if (!byName.containsKey(i.getName())) {
+                        byName.put(i.getName(), i);
+                    }
+                }
+            }
+            return byName.get(name);
+        }
+
+        @Override
+        public synchronized void setInstallations(NUnitInstallation... installations) {
+            super.setInstallations(installations);
+            byName = null;
+            byNode.clear();
+        }
+
+        /**
+         * Translates the installation for a node, running its tool installers the first time.
+         * The result is kept until the installation or the node changes.
+         *
+         * @param tool Installation as configured
+         * @param node Node the build runs on
+         * @param log
+         * @return the installation with its home on the node
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        public NUnitInstallation forNode(NUnitInstallation tool, Node node, TaskListener log) throws IOException, InterruptedException {
+            String key = tool.getName() + '\0' + node.getNodeName();
+            Translation translation = byNode.get(key);
+            // Installations are replaced when reconfigured, so an entry for an older one is stale.
+            if (translation == null || translation.source != tool) {
+                translation = new Translation(tool, tool.forNode(node, log));
+                byNode.put(key, translation);
+            }
+            return translation.translated;
+        }
+
+        /**
+         * @param nodeName Name of the node whose translated installations are dropped
+         */
+        public void invalidate(String nodeName) {
+            String suffix = '\0' + nodeName;
+            for (String key : byNode.keySet()) {
+                if (key.endsWith(suffix)) {
+                    byNode.remove(key);
                 }
             }
-            return null;
         }
 
+        public void invalidateAll() {
+            byNode.clear();
+        }
+    }
+
+    private static final class Translation {
+
+        private final NUnitInstallation source;
+        private final NUnitInstallation translated;
+
+        Translation(NUnitInstallation source, NUnitInstallation translated) {
+            this.source = source;
+            this.translated = translated;
+        }
+    }
+
+    /**
+     * Drops the cached installations of a node when it reconnects, since it may be a
+     * fresh machine, and of all nodes when the node configuration changes.
+     */
+    @Extension
+    public static class NodeListener extends ComputerListener {
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            Node node = c.getNode();
+            if (node != null) {
+                getDescriptorImpl().invalidate(node.getNodeName());
+            }
+        }
+
+        @Override
+        public void onConfigurationChange() {
+            getDescriptorImpl().invalidateAll();
+        }
+
+        private static DescriptorImpl getDescriptorImpl() {
+            return Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+        }
     }
 }
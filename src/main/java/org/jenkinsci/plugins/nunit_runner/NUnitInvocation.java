@@ -0,0 +1,67 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single nunit3-console process started by {@link NUnitBuilder}.
+ */
+public class NUnitInvocation implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final List<String> args;
+    private final String resultFile;
+    private final String combination;
+
+    /**
+     * @param name Name used to prefix console output, or null for an unnamed run
+     * @param args Command line, starting with the path to nunit3-console
+     * @param resultFile Result file relative to the workspace, or null for the NUnit default
+     */
+    public NUnitInvocation(String name, List<String> args, String resultFile) {
+        this(name, args, resultFile, null);
+    }
+
+    /**
+     * @param name Name used to prefix console output, or null for an unnamed run
+     * @param args Command line, starting with the path to nunit3-console
+     * @param resultFile Result file relative to the workspace, or null for the NUnit default
+     * @param combination Platform and framework combination the process runs, or null when the step runs only one
+     */
+    public NUnitInvocation(String name, List<String> args, String resultFile, String combination) {
+        this.name = name;
+        this.args = Collections.unmodifiableList(new ArrayList<String>(args));
+        this.resultFile = resultFile;
+        this.combination = combination;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getArgs() {
+        return args;
+    }
+
+    public String getResultFile() {
+        return resultFile;
+    }
+
+    /**
+     * @return name of the platform and framework combination, or null when the step runs only one
+     */
+    public String getCombination() {
+        return combination;
+    }
+
+    /**
+     * @return prefix written in front of each console line, or null
+     */
+    public String getConsolePrefix() {
+        return name != null ? "[" + name + "] " : null;
+    }
+}
@@ -4,40 +4,77 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import hudson.console.LineTransformationOutputStream;
 import hudson.model.TaskListener;
 
 /**
+ * Passes NUnit console output through unchanged while watching it for the
+ * coverage file and, with <code>--teamcity</code>, for test events.
+ * <p>
+ * Lines are matched on their bytes. A <code>String</code> is only decoded for the
+ * few lines that match, so the common path does not allocate and never re-encodes
+ * the output.
+ *
  * @author a.filatov
  * 31.03.2014.
  */
 public class NUnitListenerDecorator extends LineTransformationOutputStream {
 
-    private final static String ATTACHMENTS_PATTERN = "^Attachments:\\s*$";
+    private final static byte[] ATTACHMENTS = ascii("Attachments:");
 
-    private final static String COVERAGE_PATTERN = "^\\s*(.*\\.coverage)$";
-    private final static int COVERAGE_GROUP = 1;
+    private final static byte[] COVERAGE_SUFFIX = ascii(".coverage");
+
+    private final static byte[] SERVICE_MESSAGE = ascii(NUnitTestEvent.SERVICE_MESSAGE_PREFIX);
 
     private final OutputStream listener;
 
-    private final Pattern attachmentsPattern;
-    private final Pattern coveragePattern;
+    private final Charset charset;
+
+    private final byte[] prefix;
+
+    private final NUnitTestEvent.Listener eventListener;
 
     private boolean attachmentsSection;
 
     private String coverageFile;
 
     public NUnitListenerDecorator(TaskListener listener) throws FileNotFoundException {
+        this(listener, null);
+    }
+
+    /**
+     * @param listener TaskListener
+     * @param prefix Written in front of every line, used to tell concurrent runs apart
+     */
+    public NUnitListenerDecorator(TaskListener listener, String prefix) throws FileNotFoundException {
+        this(listener, prefix, null);
+    }
+
+    /**
+     * @param listener TaskListener
+     * @param prefix Written in front of every line, used to tell concurrent runs apart
+     * @param eventListener Receives the test events of <code>--teamcity</code> output, may be null
+     */
+    public NUnitListenerDecorator(TaskListener listener, String prefix, NUnitTestEvent.Listener eventListener) throws FileNotFoundException {
+        this(listener, Charset.defaultCharset(), prefix, eventListener);
+    }
+
+    /**
+     * @param listener TaskListener
+     * @param charset Charset of the console output, only used to decode matched lines
+     * @param prefix Written in front of every line, used to tell concurrent runs apart
+     * @param eventListener Receives the test events of <code>--teamcity</code> output, may be null
+     */
+    public NUnitListenerDecorator(TaskListener listener, Charset charset, String prefix, NUnitTestEvent.Listener eventListener) throws FileNotFoundException {
         this.listener = listener != null ? listener.getLogger() : null;
+        this.charset = charset;
+        this.prefix = prefix != null ? prefix.getBytes(charset) : null;
+        this.eventListener = eventListener;
 
         coverageFile = null;
 
         this.attachmentsSection = false;
-        this.attachmentsPattern = Pattern.compile(ATTACHMENTS_PATTERN);
-        this.coveragePattern = Pattern.compile(COVERAGE_PATTERN);
     }
 
     public String getCoverageFile() {
@@ -51,21 +88,83 @@ public class NUnitListenerDecorator extends LineTransformationOutputStream {
             return;
         }
 
-        String line = new String(bytes, 0, len, Charset.defaultCharset());
+        int end = trimEol(bytes, len);
 
-        if (!this.attachmentsSection) {
-            Matcher attachmentsMatcher = this.attachmentsPattern.matcher(line);
+        if (this.eventListener != null && startsWith(bytes, end, SERVICE_MESSAGE)) {
+            NUnitTestEvent event = NUnitTestEvent.parse(new String(bytes, 0, end, this.charset));
+            if (event != null) {
+                this.eventListener.onEvent(event);
+            }
+        }
 
-            if (attachmentsMatcher.matches()) {
+        if (!this.attachmentsSection) {
+            if (startsWith(bytes, end, ATTACHMENTS) && skipWhitespace(bytes, ATTACHMENTS.length, end) == end) {
                 this.attachmentsSection = true;
             }
-        } else {
-            Matcher coverageMatcher = this.coveragePattern.matcher(line);
-            if (coverageMatcher.find()) {
-                this.coverageFile = coverageMatcher.group(COVERAGE_GROUP);
+        } else if (endsWith(bytes, end, COVERAGE_SUFFIX)) {
+            int start = skipWhitespace(bytes, 0, end);
+            this.coverageFile = new String(bytes, start, end - start, this.charset);
+        }
+
+        // Concurrent runs share one logger, so prefix and line must be written together.
+        synchronized (this.listener) {
+            if (this.prefix != null) {
+                this.listener.write(this.prefix);
+            }
+            this.listener.write(bytes, 0, len);
+        }
+    }
+
+    /**
+     * @return length of the line without its trailing line terminator
+     */
+    private static int trimEol(byte[] bytes, int len) {
+        while (len > 0 && (bytes[len - 1] == '\n' || bytes[len - 1] == '\r')) {
+            len--;
+        }
+        return len;
+    }
+
+    private static boolean startsWith(byte[] bytes, int end, byte[] prefix) {
+        if (end < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean endsWith(byte[] bytes, int end, byte[] suffix) {
+        int offset = end - suffix.length;
+        if (offset < 0) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length; i++) {
+            if (bytes[offset + i] != suffix[i]) {
+                return false;
             }
         }
+        return true;
+    }
+
+    /**
+     * @return index of the first non-whitespace byte at or after <code>start</code>, or <code>end</code>
+     */
+    private static int skipWhitespace(byte[] bytes, int start, int end) {
+        while (start < end && isWhitespace(bytes[start])) {
+            start++;
+        }
+        return start;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
 
-        this.listener.write(line.getBytes(Charset.defaultCharset()));
+    private static byte[] ascii(String value) {
+        return value.getBytes(Charset.forName("US-ASCII"));
     }
 }
@@ -0,0 +1,140 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Computer;
+import jenkins.metrics.api.MetricProvider;
+import jenkins.metrics.api.Metrics;
+
+/**
+ * Jenkins-wide metrics of the NUnit steps: a histogram of the milliseconds spent in each
+ * phase (<code>nunit.phase.&lt;phase&gt;.duration</code>) and the number of nunit3-console
+ * processes running, in total (<code>nunit.processes.active</code>) and on each node
+ * (<code>nunit.processes.active.&lt;node&gt;</code>).
+ */
+@Extension
+public class NUnitMetrics extends MetricProvider {
+
+    private static final String MASTER = "master";
+
+    private static final Map<NUnitTimings.Phase, Histogram> PHASES = new EnumMap<NUnitTimings.Phase, Histogram>(NUnitTimings.Phase.class);
+
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+
+    private static final ConcurrentMap<String, AtomicInteger> ACTIVE_BY_NODE = new ConcurrentHashMap<String, AtomicInteger>();
+
+    static {
+        for (NUnitTimings.Phase phase : NUnitTimings.Phase.values()) {
+            PHASES.put(phase, new Histogram(new ExponentiallyDecayingReservoir()));
+        }
+    }
+
+    @Override
+    public MetricSet getMetricSet() {
+        final Map<String, Metric> metrics = new HashMap<String, Metric>();
+        for (Map.Entry<NUnitTimings.Phase, Histogram> phase : PHASES.entrySet()) {
+            metrics.put(MetricRegistry.name("nunit", "phase", phase.getKey().getId(), "duration"), phase.getValue());
+        }
+        metrics.put("nunit.processes.active", new Gauge<Integer>() {
+            public Integer getValue() {
+                return ACTIVE.get();
+            }
+        });
+        return new MetricSet() {
+            public Map<String, Metric> getMetrics() {
+                return metrics;
+            }
+        };
+    }
+
+    /**
+     * @param timings Timings of a finished step
+     */
+    public static void record(NUnitTimings timings) {
+        for (Map.Entry<NUnitTimings.Phase, Long> phase : timings.getMillis().entrySet()) {
+            PHASES.get(phase.getKey()).update(phase.getValue());
+        }
+    }
+
+    /**
+     * @param node Name of the node running the process
+     */
+    public static void processStarted(String node) {
+        ACTIVE.incrementAndGet();
+        getActive(node).incrementAndGet();
+    }
+
+    /**
+     * @param node Name of the node that ran the process
+     */
+    public static void processFinished(String node) {
+        // Processes started before a restart were never counted.
+        if (decrement(getActive(node))) {
+            decrement(ACTIVE);
+        }
+    }
+
+    /**
+     * @param workspace
+     * @return name of the node the workspace is on
+     */
+    public static String getNodeName(FilePath workspace) {
+        Computer computer = workspace.toComputer();
+        String name = computer != null ? computer.getName() : null;
+        return name == null || name.isEmpty() ? MASTER : name;
+    }
+
+    /**
+     * @param node Name of the node
+     * @return nunit3-console processes running on the node
+     */
+    public static int getActiveProcesses(String node) {
+        AtomicInteger active = ACTIVE_BY_NODE.get(node);
+        return active != null ? active.get() : 0;
+    }
+
+    private static AtomicInteger getActive(String node) {
+        AtomicInteger active = ACTIVE_BY_NODE.get(node);
+        if (active == null) {
+            final AtomicInteger created = new AtomicInteger();
+            active = ACTIVE_BY_NODE.putIfAbsent(node, created);
+            if (active == null) {
+                active = created;
+                MetricRegistry registry = Metrics.metricRegistry();
+                if (registry != null) {
+                    registry.register(MetricRegistry.name("nunit", "processes", "active", node), new Gauge<Integer>() {
+                        public Integer getValue() {
+                            return created.get();
+                        }
+                    });
+                }
+            }
+        }
+        return active;
+    }
+
+    private static boolean decrement(AtomicInteger counter) {
+        for (;;) {
+            int value = counter.get();
+            if (value <= 0) {
+                return false;
+            }
+            if (counter.compareAndSet(value, value - 1)) {
+                return true;
+            }
+        }
+    }
+}
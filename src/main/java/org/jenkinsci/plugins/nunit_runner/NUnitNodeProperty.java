@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Fixed nunit3-console worker and agent counts for a node, used instead of the ones
+ * worked out from its hardware.
+ */
+public class NUnitNodeProperty extends NodeProperty<Node> {
+
+    private final int workers;
+
+    private final int agents;
+
+    /**
+     * @param workers Test worker threads per agent, 0 to work them out
+     * @param agents Test agent processes, 0 to work them out
+     */
+    @DataBoundConstructor
+    public NUnitNodeProperty(int workers, int agents) {
+        this.workers = Math.max(0, workers);
+        this.agents = Math.max(0, agents);
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getAgents() {
+        return agents;
+    }
+
+    /**
+     * @param node
+     * @return the property of the node, or null if it has none
+     */
+    public static NUnitNodeProperty of(Node node) {
+        return node != null ? node.getNodeProperties().get(NUnitNodeProperty.class) : null;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends NodePropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.NUnitNodeProperty_DisplayName();
+        }
+    }
+}
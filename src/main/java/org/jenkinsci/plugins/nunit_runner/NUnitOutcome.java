@@ -0,0 +1,285 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exit codes and results of the nunit3-console processes of one step, merged over
+ * its runs and retries so the build result can be worked out once at the end.
+ */
+public class NUnitOutcome implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Failures that are not about the tests of one process, e.g. unreadable result files.
+    private final List<String> errors = new ArrayList<String>();
+
+    // Exit code of every process, with the failures its own result file reported.
+    private final List<Exit> exits = new ArrayList<Exit>();
+
+    private int processes;
+
+    private NUnitResultSummary summary;
+
+    // Results of each platform and framework combination, null when the step runs only one.
+    private LinkedHashMap<String, NUnitResultSummary> combinations;
+
+    private String coverageFile;
+
+    /**
+     * @param name Name of the invocation, or null
+     * @param exitCode Exit code of nunit3-console
+     * @param unix Whether the process ran on Unix, where the negative error codes of nunit3-console wrap to 128 and above
+     */
+    public void addExit(String name, int exitCode, boolean unix) {
+        processes++;
+        exits.add(new Exit(name, exitCode, unix));
+    }
+
+    /**
+     * @param message Why the step failed regardless of the test results, e.g. an unreadable result file
+     */
+    public void addError(String message) {
+        errors.add(message);
+    }
+
+    /**
+     * @param name Name of the invocation the results are of, or null
+     * @param combination Platform and framework combination the results are of, or null
+     * @param summary Results of the process, or null if its result file was not found
+     */
+    public void addResults(String name, String combination, NUnitResultSummary summary) {
+        for (int i = exits.size() - 1; i >= 0; i--) {
+            Exit exit = exits.get(i);
+            if (!exit.added && (name == null ? exit.name == null : name.equals(exit.name))) {
+                exit.added = true;
+                exit.combination = combination;
+                exit.failedTests = summary != null ? summary.getFailedTestNames() : null;
+                break;
+            }
+        }
+        addResults(combination, summary);
+    }
+
+    private void addResults(NUnitResultSummary summary) {
+        if (summary == null) {
+            return;
+        }
+        if (this.summary == null) {
+            this.summary = summary;
+        } else {
+            this.summary.add(summary);
+        }
+    }
+
+    private void addResults(String combination, NUnitResultSummary summary) {
+        if (summary == null) {
+            return;
+        }
+        if (combination != null) {
+            addCombination(combination, summary);
+            // The merged summary is added to, so it must not be the combination's.
+            NUnitResultSummary copy = new NUnitResultSummary();
+            copy.add(summary);
+            summary = copy;
+        }
+        addResults(summary);
+    }
+
+    private void addCombination(String combination, NUnitResultSummary summary) {
+        if (combinations == null) {
+            combinations = new LinkedHashMap<String, NUnitResultSummary>();
+        }
+        NUnitResultSummary existing = combinations.get(combination);
+        if (existing == null) {
+            combinations.put(combination, summary);
+        } else {
+            existing.add(summary);
+        }
+    }
+
+    public void setCoverageFile(String coverageFile) {
+        this.coverageFile = coverageFile;
+    }
+
+    /**
+     * Adds another run of the same step, e.g. the rest of the suite after the previously failed tests.
+     */
+    public void add(NUnitOutcome other) {
+        errors.addAll(other.errors);
+        exits.addAll(other.exits);
+        processes += other.processes;
+        if (other.combinations != null) {
+            for (Map.Entry<String, NUnitResultSummary> combination : other.combinations.entrySet()) {
+                addCombination(combination.getKey(), combination.getValue());
+            }
+        }
+        addResults(other.summary);
+        if (other.coverageFile != null) {
+            coverageFile = other.coverageFile;
+        }
+    }
+
+    /**
+     * Adds a re-run of the failed tests. Its results only change the outcome of tests that ran before.
+     */
+    public void addRetry(NUnitOutcome retry) {
+        errors.addAll(retry.errors);
+        exits.addAll(retry.exits);
+        processes += retry.processes;
+        if (combinations != null && retry.combinations != null) {
+            // A test is only retried in the combinations it failed in, so the merged summary is worked out again.
+            summary = new NUnitResultSummary();
+            for (Map.Entry<String, NUnitResultSummary> combination : combinations.entrySet()) {
+                NUnitResultSummary retried = retry.combinations.get(combination.getKey());
+                if (retried != null) {
+                    combination.getValue().addRetry(retried);
+                }
+                summary.add(combination.getValue());
+            }
+        } else if (summary != null && retry.summary != null) {
+            summary.addRetry(retry.summary);
+        }
+    }
+
+    public NUnitResultSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * @return results by platform and framework combination, empty when the step runs only one
+     */
+    public Map<String, NUnitResultSummary> getCombinations() {
+        return combinations != null ? Collections.unmodifiableMap(combinations) : Collections.<String, NUnitResultSummary>emptyMap();
+    }
+
+    public String getCoverageFile() {
+        return coverageFile;
+    }
+
+    /**
+     * @return whether some tests failed and nothing else went wrong, so re-running the failed tests can help
+     */
+    public boolean isRetryable() {
+        if (!errors.isEmpty() || summary == null || summary.getFailed() == 0) {
+            return false;
+        }
+        for (Exit exit : exits) {
+            if (exit.isError() || exit.hasFailures() && exit.failedTests == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the step failed; a process with failed tests is only excused when all of them passed on retry
+     */
+    public boolean isFailed() {
+        if (!errors.isEmpty()) {
+            return true;
+        }
+        for (Exit exit : exits) {
+            if (isFailed(exit)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isFailed(Exit exit) {
+        return exit.isError() || exit.hasFailures() && !isExcused(exit);
+    }
+
+    private boolean isExcused(Exit exit) {
+        // Without its own results nothing shows which tests the exit code counted.
+        if (exit.failedTests == null || exit.failedTests.isEmpty()) {
+            return false;
+        }
+        NUnitResultSummary merged = exit.combination != null && combinations != null ? combinations.get(exit.combination) : summary;
+        if (merged == null) {
+            return false;
+        }
+        Set<String> passedOnRetry = new HashSet<String>(merged.getFlakyTests());
+        return passedOnRetry.containsAll(exit.failedTests);
+    }
+
+    /**
+     * @return why the step failed
+     */
+    public String getFailureMessage() {
+        List<String> messages = new ArrayList<String>(errors);
+        for (Exit exit : exits) {
+            if (isFailed(exit)) {
+                messages.add(exit.getMessage());
+            }
+        }
+        if (messages.size() == 1 && processes == 1) {
+            return messages.get(0);
+        }
+        StringBuilder buf = new StringBuilder("NUnit runs failed: ");
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+            buf.append(messages.get(i));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * How a process exited, and the failures its own result file reported. nunit3-console exits
+     * with the number of failed tests or a negative error code, but on Unix only the low 8 bits
+     * of either are seen, so the result file decides whenever it was read.
+     */
+    private static final class Exit implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final int exitCode;
+        private final boolean unix;
+        private boolean added;
+        private String combination;
+        // Null until its results were added, and when its result file was not found.
+        private List<String> failedTests;
+
+        Exit(String name, int exitCode, boolean unix) {
+            this.name = name;
+            this.exitCode = exitCode;
+            this.unix = unix;
+        }
+
+        /**
+         * @return whether the process failed for something other than its tests, e.g. a missing assembly
+         */
+        boolean isError() {
+            if (exitCode < 0) {
+                return true;
+            }
+            // 128 and above is a wrapped error code, or as many failed tests as the result file shows.
+            return unix && exitCode >= 128 && (failedTests == null || failedTests.isEmpty());
+        }
+
+        /**
+         * @return whether tests of the process failed, which a failed count wrapped to 0 does not hide
+         */
+        boolean hasFailures() {
+            return !isError() && (exitCode != 0 || failedTests != null && !failedTests.isEmpty());
+        }
+
+        String getMessage() {
+            String label = name != null ? name : "NUnit";
+            if (hasFailures() && failedTests != null && (exitCode == 0 || exitCode >= 128)) {
+                return label + " had " + failedTests.size() + " failed tests (exit code " + exitCode + ")";
+            }
+            return label + " exited with " + exitCode;
+        }
+    }
+}
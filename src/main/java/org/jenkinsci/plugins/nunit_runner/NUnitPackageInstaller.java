@@ -0,0 +1,333 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolInstallerDescriptor;
+import jenkins.MasterToSlaveFileCallable;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Installs nunit3-console from a NuGet package or zip on a path or URL the agent can
+ * reach, e.g. a network share or an internal mirror, without an update center.
+ * <p>
+ * Each package is extracted once per node into its own cache directory, which is only
+ * renamed into place, marker included, once complete. Executors and agent processes
+ * sharing the tools directory wait for each other on a file lock, then reuse it.
+ */
+public class NUnitPackageInstaller extends ToolInstaller {
+
+    /** Written into the cache directory last, holds the package stamp and the executable. */
+    static final String MARKER = ".nunit-installed";
+
+    private static final String DEFAULT_EXECUTABLE = "nunit3-console.exe";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String source;
+
+    private String checksum;
+
+    private String executable;
+
+    /**
+     * @param label Labels of the nodes this installer applies to
+     * @param source Path on the agent or URL of the .nupkg or .zip
+     */
+    @DataBoundConstructor
+    public NUnitPackageInstaller(String label, String source) {
+        super(label);
+        this.source = Util.fixEmptyAndTrim(source);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @param checksum SHA-256 of the package in hex, checked before it is used
+     */
+    @DataBoundSetter
+    public void setChecksum(String checksum) {
+        checksum = Util.fixEmptyAndTrim(checksum);
+        this.checksum = checksum != null ? checksum.toLowerCase() : null;
+    }
+
+    public String getExecutable() {
+        return executable;
+    }
+
+    /**
+     * @param executable Path of nunit3-console in the package, found by name when empty
+     */
+    @DataBoundSetter
+    public void setExecutable(String executable) {
+        this.executable = Util.fixEmptyAndTrim(executable);
+    }
+
+    @Override
+    public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log) throws IOException, InterruptedException {
+        if (source == null) {
+            throw new AbortException("No NUnit package configured for " + tool.getName());
+        }
+        FilePath dir = preferredLocation(tool, node).child(getCacheName(source, checksum));
+        return dir.child(dir.act(new Install(source, checksum, executable, log)));
+    }
+
+    /**
+     * @return name of the cache directory: the package file name, which usually carries
+     * the version, and a hash of the source and checksum, so a new package never reuses
+     * the directory of an old one
+     */
+    static String getCacheName(String source, String checksum) {
+        String name = source.substring(Math.max(source.lastIndexOf('/'), source.lastIndexOf('\\')) + 1);
+        int extension = name.lastIndexOf('.');
+        if (extension > 0) {
+            name = name.substring(0, extension);
+        }
+        name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        String stamp = source + "\n" + Util.fixNull(checksum);
+        return name + "-" + Util.toHexString(newDigest().digest(stamp.getBytes(UTF_8))).substring(0, 12);
+    }
+
+    /**
+     * Extracts the package into the cache directory on the agent unless it is already there.
+     */
+    static final class Install extends MasterToSlaveFileCallable<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Serializes the executors of one agent JVM, which a file lock does not. */
+        private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+        private final String source;
+        private final String checksum;
+        private final String executable;
+        private final TaskListener log;
+
+        Install(String source, String checksum, String executable, TaskListener log) {
+            this.source = source;
+            this.checksum = checksum;
+            this.executable = executable;
+            this.log = log;
+        }
+
+        /**
+         * @return path of nunit3-console relative to the cache directory
+         */
+        public String invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            File marker = new File(dir, MARKER);
+            String installed = readMarker(marker);
+            if (installed != null) {
+                return installed;
+            }
+
+            File parent = dir.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Failed to create " + parent);
+            }
+            Object lock = LOCKS.putIfAbsent(dir.getAbsolutePath(), new Object());
+            if (lock == null) {
+                lock = LOCKS.get(dir.getAbsolutePath());
+            }
+            synchronized (lock) {
+                try (RandomAccessFile lockFile = new RandomAccessFile(new File(parent, dir.getName() + ".lock"), "rw");
+                     FileLock ignored = lockFile.getChannel().lock()) {
+                    // Another executor or agent process may have finished while we waited.
+                    installed = readMarker(marker);
+                    if (installed != null) {
+                        return installed;
+                    }
+
+                    log.getLogger().println("Installing NUnit from " + source + " to " + dir);
+                    File tmp = new File(parent, dir.getName() + ".tmp");
+                    deleteRecursive(tmp);
+                    String digest = extract(tmp);
+                    if (checksum != null && !checksum.equals(digest)) {
+                        deleteRecursive(tmp);
+                        throw new AbortException("Checksum of " + source + " is " + digest + ", expected " + checksum);
+                    }
+                    String relative = locate(tmp);
+                    try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(tmp, MARKER)), UTF_8)) {
+                        writer.write(getStamp() + "\n" + relative + "\n");
+                    }
+
+                    // A directory without a marker is left from an interrupted install.
+                    deleteRecursive(dir);
+                    Files.move(tmp.toPath(), dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    return relative;
+                }
+            }
+        }
+
+        private String getStamp() {
+            return checksum != null ? checksum : source;
+        }
+
+        /**
+         * @return the executable recorded by a complete install of this package, or null
+         */
+        private String readMarker(File marker) throws IOException {
+            if (!marker.isFile()) {
+                return null;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(marker), UTF_8))) {
+                String stamp = reader.readLine();
+                String relative = reader.readLine();
+                return getStamp().equals(stamp) && relative != null ? relative : null;
+            }
+        }
+
+        /**
+         * Unzips the package while hashing it, so it is read only once.
+         *
+         * @return SHA-256 of the package in hex
+         */
+        private String extract(File target) throws IOException, InterruptedException {
+            MessageDigest digest = newDigest();
+            String canonicalTarget = target.getCanonicalPath() + File.separator;
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = new DigestInputStream(open(), digest);
+                 ZipInputStream zip = new ZipInputStream(in)) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    File file = new File(target, entry.getName());
+                    if (!file.getCanonicalPath().startsWith(canonicalTarget)) {
+                        throw new AbortException(source + " has an entry outside the package: " + entry.getName());
+                    }
+                    if (entry.isDirectory()) {
+                        file.mkdirs();
+                        continue;
+                    }
+                    file.getParentFile().mkdirs();
+                    try (OutputStream out = new FileOutputStream(file)) {
+                        int read;
+                        while ((read = zip.read(buffer)) > 0) {
+                            out.write(buffer, 0, read);
+                        }
+                    }
+                }
+                // The central directory follows the entries and is part of the checksum.
+                while (in.read(buffer) > 0) {
+                    // drain
+                }
+            }
+            return Util.toHexString(digest.digest());
+        }
+
+        private InputStream open() throws IOException {
+            if (source.contains("://")) {
+                return new URL(source).openStream();
+            }
+            return new FileInputStream(source);
+        }
+
+        /**
+         * @return path of nunit3-console relative to the extracted package
+         */
+        private String locate(File root) throws AbortException {
+            if (executable != null) {
+                if (!new File(root, executable).isFile()) {
+                    throw new AbortException("No " + executable + " in " + source);
+                }
+                return executable;
+            }
+            // Breadth first, so tools/nunit3-console.exe wins over copies deeper down.
+            Deque<String> dirs = new ArrayDeque<String>();
+            dirs.add("");
+            while (!dirs.isEmpty()) {
+                String dir = dirs.poll();
+                String[] names = new File(root, dir).list();
+                if (names == null) {
+                    continue;
+                }
+                for (String name : names) {
+                    String relative = dir.isEmpty() ? name : dir + "/" + name;
+                    if (name.equalsIgnoreCase(DEFAULT_EXECUTABLE)) {
+                        return relative;
+                    }
+                    if (new File(root, relative).isDirectory()) {
+                        dirs.add(relative);
+                    }
+                }
+            }
+            throw new AbortException("No " + DEFAULT_EXECUTABLE + " in " + source);
+        }
+
+        private static void deleteRecursive(File file) throws IOException {
+            if (file.isDirectory()) {
+                File[] children = file.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        deleteRecursive(child);
+                    }
+                }
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Failed to delete " + file);
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends ToolInstallerDescriptor<NUnitPackageInstaller> {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.NUnitPackageInstaller_DisplayName();
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+            return toolType == NUnitInstallation.class;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+/**
+ * Live pass/fail/running counts of the NUnit steps of a build, updated from
+ * {@link NUnitTestEvent}s while the tests run. Tests are counted by name, so a test
+ * run again in a later phase, e.g. a retry, replaces its earlier result.
+ */
+public class NUnitProgressAction implements RunAction2, NUnitTestEvent.Listener {
+
+    /** Failed test names kept for display; the full list is in {@link NUnitResultAction}. */
+    private static final int MAX_FAILED_TESTS = 100;
+
+    private transient Run<?, ?> run;
+
+    private int passed;
+    private int failed;
+    private int ignored;
+    private final List<String> failedTests = new ArrayList<>();
+
+    private transient Set<String> running;
+    private transient Set<String> concluded;
+    // Latest result of each test, TEST_FINISHED for a passed one.
+    private transient Map<String, NUnitTestEvent.Type> results;
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    public synchronized void onEvent(NUnitTestEvent event) {
+        String name = event.getName();
+        if (name == null) {
+            return;
+        }
+        if (running == null) {
+            running = new LinkedHashSet<>();
+            concluded = new HashSet<>();
+            results = new HashMap<>();
+        }
+        switch (event.getType()) {
+            case TEST_STARTED:
+                running.add(name);
+                break;
+            case TEST_FAILED:
+            case TEST_IGNORED:
+                concluded.add(name);
+                conclude(name, event.getType());
+                break;
+            case TEST_FINISHED:
+                running.remove(name);
+                if (!concluded.remove(name)) {
+                    conclude(name, NUnitTestEvent.Type.TEST_FINISHED);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void conclude(String name, NUnitTestEvent.Type result) {
+        NUnitTestEvent.Type earlier = results.put(name, result);
+        if (earlier != null) {
+            count(earlier, -1);
+        }
+        count(result, 1);
+        if (result != NUnitTestEvent.Type.TEST_FAILED) {
+            failedTests.remove(name);
+        } else if (earlier != result && failedTests.size() < MAX_FAILED_TESTS) {
+            failedTests.add(name);
+        }
+    }
+
+    private void count(NUnitTestEvent.Type result, int delta) {
+        if (result == NUnitTestEvent.Type.TEST_FAILED) {
+            failed += delta;
+        } else if (result == NUnitTestEvent.Type.TEST_IGNORED) {
+            ignored += delta;
+        } else {
+            passed += delta;
+        }
+    }
+
+    public synchronized int getPassed() {
+        return passed;
+    }
+
+    public synchronized int getFailed() {
+        return failed;
+    }
+
+    public synchronized int getIgnored() {
+        return ignored;
+    }
+
+    public synchronized int getRunning() {
+        return running != null ? running.size() : 0;
+    }
+
+    /**
+     * @return tests started but not finished yet, oldest first
+     */
+    public synchronized List<String> getRunningTests() {
+        return running != null ? new ArrayList<>(running) : new ArrayList<String>();
+    }
+
+    public synchronized List<String> getFailedTests() {
+        return new ArrayList<>(failedTests);
+    }
+
+    public String getDisplayName() {
+        return Messages.NUnitProgressAction_DisplayName();
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return "nunitProgress";
+    }
+
+    /**
+     * @param run Build
+     * @return the progress action of the build, attached if not there yet
+     */
+    public static NUnitProgressAction getOrAdd(Run<?, ?> run) {
+        synchronized (run) {
+            NUnitProgressAction action = run.getAction(NUnitProgressAction.class);
+            if (action == null) {
+                action = new NUnitProgressAction();
+                run.addAction(action);
+            }
+            return action;
+        }
+    }
+}
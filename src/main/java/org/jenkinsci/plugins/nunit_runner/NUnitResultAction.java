@@ -0,0 +1,166 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+/**
+ * Test results of the NUnit steps of a build.
+ */
+public class NUnitResultAction implements RunAction2 {
+
+    private transient Run<?, ?> run;
+
+    /** Failed test names kept for each combination; all failures are in the summary. */
+    private static final int MAX_FAILED_TESTS = 100;
+
+    private final NUnitResultSummary summary;
+
+    // Null unless a step ran several platform and framework combinations.
+    private List<CombinationResult> combinations;
+
+    public NUnitResultAction(NUnitResultSummary summary) {
+        this.summary = summary;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public NUnitResultSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * @return counts of each platform and framework combination, empty when every step ran only one
+     */
+    public List<CombinationResult> getCombinations() {
+        return combinations != null ? Collections.unmodifiableList(combinations) : Collections.<CombinationResult>emptyList();
+    }
+
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    public String getDisplayName() {
+        return Messages.NUnitResultAction_DisplayName();
+    }
+
+    public String getIconFileName() {
+        return "clipboard.png";
+    }
+
+    public String getUrlName() {
+        return "nunitResult";
+    }
+
+    /**
+     * Attaches the summary to the build, adding it to the results of earlier NUnit steps.
+     *
+     * @param run Build
+     * @param summary Results of this step
+     */
+    public static void addTo(Run<?, ?> run, NUnitResultSummary summary) {
+        addTo(run, summary, Collections.<String, NUnitResultSummary>emptyMap());
+    }
+
+    /**
+     * Attaches the summary to the build, adding it to the results of earlier NUnit steps.
+     *
+     * @param run Build
+     * @param summary Results of this step
+     * @param combinations Results of each platform and framework combination of this step, if it ran several
+     */
+    public static void addTo(Run<?, ?> run, NUnitResultSummary summary, Map<String, NUnitResultSummary> combinations) {
+        // Parallel Pipeline branches record into the same build.
+        synchronized (run) {
+            NUnitResultAction existing = run.getAction(NUnitResultAction.class);
+            if (existing == null) {
+                existing = new NUnitResultAction(summary);
+                run.addAction(existing);
+            } else {
+                existing.summary.add(summary);
+            }
+            for (Map.Entry<String, NUnitResultSummary> combination : combinations.entrySet()) {
+                if (existing.combinations == null) {
+                    existing.combinations = new ArrayList<CombinationResult>();
+                }
+                existing.combinations.add(new CombinationResult(combination.getKey(), combination.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Counts of one platform and framework combination, without its per-test durations.
+     */
+    public static class CombinationResult implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final int passed;
+        private final int failed;
+        private final int skipped;
+        private final int inconclusive;
+        private final long duration;
+        private final List<String> failedTests;
+
+        public CombinationResult(String name, NUnitResultSummary summary) {
+            this.name = name;
+            this.passed = summary.getPassed();
+            this.failed = summary.getFailed();
+            this.skipped = summary.getSkipped();
+            this.inconclusive = summary.getInconclusive();
+            this.duration = summary.getDuration();
+            List<String> names = summary.getFailedTestNames();
+            this.failedTests = new ArrayList<String>(names.subList(0, Math.min(MAX_FAILED_TESTS, names.size())));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPassed() {
+            return passed;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public int getInconclusive() {
+            return inconclusive;
+        }
+
+        public int getTotal() {
+            return passed + failed + skipped + inconclusive;
+        }
+
+        /**
+         * @return summed duration of its assemblies in milliseconds
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return names of its failed tests, at most {@value #MAX_FAILED_TESTS}
+         */
+        public List<String> getFailedTests() {
+            return Collections.unmodifiableList(failedTests);
+        }
+    }
+}
@@ -0,0 +1,567 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerResponse;
+
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * A result file of a build, kept compressed in the build directory with an index of its test fixtures.
+ * <p>
+ * Each fixture is a gzip member of its own, and so is the XML between fixtures. The members together are
+ * one gzip file of the whole result XML, and the index gives the offset and length of each fixture's member,
+ * so a single fixture can be read without inflating or parsing the rest of the file.
+ */
+public class NUnitResultArchive {
+
+    /** Directory in the build directory holding the archived result files. */
+    static final String DIRECTORY = "nunit-results";
+
+    private static final String DATA_SUFFIX = ".xml.gz";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x4E555249;
+
+    /** Suites that are reachable on their own; fixtures nested in one of them are part of it. */
+    private static final Set<String> FIXTURE_TYPES = new HashSet<>(Arrays.asList("TestFixture", "ParameterizedFixture", "GenericFixture"));
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String id;
+
+    private final File data;
+
+    private final Index index;
+
+    private NUnitResultArchive(String id, File data, Index index) {
+        this.id = id;
+        this.data = data;
+        this.index = index;
+    }
+
+    /**
+     * @return name of the archive in the build, used in its URL
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the result file as it was named in the workspace
+     */
+    public String getResultFile() {
+        return index.resultFile;
+    }
+
+    /**
+     * @return compressed size in bytes
+     */
+    public long getSize() {
+        return data.length();
+    }
+
+    public List<Fixture> getFixtures() {
+        return Collections.unmodifiableList(index.fixtures);
+    }
+
+    public Fixture getFixture(String name) {
+        for (Fixture fixture : index.fixtures) {
+            if (fixture.name.equals(name)) {
+                return fixture;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the <code>test-suite</code> element of the fixture, inflated from its member alone
+     * @throws IOException
+     */
+    public InputStream readFixture(Fixture fixture) throws IOException {
+        byte[] member = new byte[(int) fixture.length];
+        try (RandomAccessFile file = new RandomAccessFile(data, "r")) {
+            file.seek(fixture.offset);
+            file.readFully(member);
+        }
+        return new GZIPInputStream(new ByteArrayInputStream(member));
+    }
+
+    /**
+     * @return the whole result XML
+     * @throws IOException
+     */
+    public InputStream read() throws IOException {
+        return new GZIPInputStream(new BufferedInputStream(new FileInputStream(data)), BUFFER_SIZE);
+    }
+
+    /**
+     * Serves the XML of one fixture, e.g. <code>nunitResultFiles/archive/1/fixture?name=Tests.Calculator</code>.
+     */
+    public void doFixture(StaplerResponse rsp, @QueryParameter String name) throws IOException {
+        Fixture fixture = name != null ? getFixture(name) : null;
+        if (fixture == null) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        try (InputStream in = readFixture(fixture)) {
+            serve(rsp, in);
+        }
+    }
+
+    /**
+     * Serves the whole result XML.
+     */
+    public void doXml(StaplerResponse rsp) throws IOException {
+        try (InputStream in = read()) {
+            serve(rsp, in);
+        }
+    }
+
+    private static void serve(StaplerResponse rsp, InputStream in) throws IOException {
+        rsp.setContentType("application/xml;charset=UTF-8");
+        OutputStream out = rsp.getOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Compresses a result file on the agent and keeps it in the build directory.
+     *
+     * @param run Build
+     * @param workspace
+     * @param resultFile Result file relative to the workspace
+     * @return the archive, or null if the result file does not exist
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static NUnitResultArchive archive(Run<?, ?> run, FilePath workspace, String resultFile) throws IOException, InterruptedException {
+        FilePath source = workspace.child(resultFile);
+        if (!source.exists()) {
+            return null;
+        }
+        FilePath tmp = workspace.createTempFile("nunit", DATA_SUFFIX);
+        try {
+            List<Fixture> fixtures = source.act(new Compressor(tmp.getRemote()));
+            File data = createDataFile(new File(run.getRootDir(), DIRECTORY));
+            tmp.copyTo(new FilePath(data));
+            String id = data.getName().substring(0, data.getName().length() - DATA_SUFFIX.length());
+            Index index = new Index(resultFile, fixtures);
+            index.save(new File(data.getParentFile(), id + INDEX_SUFFIX));
+            return new NUnitResultArchive(id, data, index);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Creates the next numbered archive, as parallel steps may archive into the same build.
+     */
+    private static File createDataFile(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        for (int i = 1; ; i++) {
+            File data = new File(dir, i + DATA_SUFFIX);
+            if (data.createNewFile()) {
+                return data;
+            }
+        }
+    }
+
+    /**
+     * @param run Build
+     * @param id Name of the archive
+     * @return the archive, or null if the build has none by that name
+     * @throws IOException
+     */
+    public static NUnitResultArchive load(Run<?, ?> run, String id) throws IOException {
+        if (!id.matches("[0-9]+")) {
+            return null;
+        }
+        File dir = new File(run.getRootDir(), DIRECTORY);
+        File indexFile = new File(dir, id + INDEX_SUFFIX);
+        // The data file is created first, so an archive without an index is still being written.
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        return new NUnitResultArchive(id, new File(dir, id + DATA_SUFFIX), Index.load(indexFile));
+    }
+
+    /**
+     * @param run Build
+     * @return names of the archives of the build, in the order they were archived
+     */
+    public static List<String> list(Run<?, ?> run) {
+        String[] names = new File(run.getRootDir(), DIRECTORY).list();
+        List<Integer> ids = new ArrayList<>();
+        if (names != null) {
+            for (String name : names) {
+                if (name.matches("[0-9]+\\" + INDEX_SUFFIX)) {
+                    ids.add(Integer.valueOf(name.substring(0, name.length() - INDEX_SUFFIX.length())));
+                }
+            }
+        }
+        Collections.sort(ids);
+        List<String> result = new ArrayList<>();
+        for (Integer id : ids) {
+            result.add(String.valueOf(id));
+        }
+        return result;
+    }
+
+    /**
+     * Writes the result XML as gzip members, one per fixture.
+     *
+     * @param in NUnit result XML
+     * @param out Receives the compressed XML
+     * @return fixtures with the offset and length of their member
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    /* package */ static List<Fixture> compress(InputStream in, OutputStream out) throws XMLStreamException, IOException {
+        List<Fixture> fixtures = new ArrayList<>();
+        MemberWriter members = new MemberWriter(out);
+        XMLStreamReader reader = NUnitResultParser.createInputFactory().createXMLStreamReader(in);
+        try {
+            members.writer().write("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+            int depth = 0;
+            int fixtureDepth = -1;
+            String fixture = null;
+            long offset = 0;
+            while (reader.hasNext()) {
+                Writer writer;
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        if (fixtureDepth < 0 && "test-suite".equals(reader.getLocalName())
+                                && FIXTURE_TYPES.contains(reader.getAttributeValue(null, "type"))) {
+                            members.finish();
+                            fixtureDepth = depth;
+                            fixture = reader.getAttributeValue(null, "fullname");
+                            if (fixture == null) {
+                                fixture = reader.getAttributeValue(null, "name");
+                            }
+                            offset = members.getOffset();
+                        }
+                        writeStartElement(reader, members.writer());
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        writer = members.writer();
+                        writer.write("</");
+                        writer.write(qualifiedName(reader.getPrefix(), reader.getLocalName()));
+                        writer.write('>');
+                        if (depth == fixtureDepth) {
+                            members.finish();
+                            if (fixture != null) {
+                                fixtures.add(new Fixture(fixture, offset, members.getOffset() - offset));
+                            }
+                            fixtureDepth = -1;
+                        }
+                        depth--;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        escape(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength(), false, members.writer());
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        writer = members.writer();
+                        writer.write("<![CDATA[");
+                        writer.write(reader.getText().replace("]]>", "]]]]><![CDATA[>"));
+                        writer.write("]]>");
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        writer = members.writer();
+                        writer.write("<!--");
+                        writer.write(reader.getText());
+                        writer.write("-->");
+                        break;
+                    default:
+                        break;
+                }
+            }
+            members.finish();
+        } finally {
+            reader.close();
+        }
+        return fixtures;
+    }
+
+    // The XML writing below is shared with NUnitResultMerger.
+
+    /* package */ static void writeStartElement(XMLStreamReader reader, Writer writer) throws IOException {
+        writer.write('<');
+        writer.write(qualifiedName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            writer.write(' ');
+            writer.write(qualifiedName("xmlns", reader.getNamespacePrefix(i)));
+            writer.write("=\"");
+            writeEscaped(reader.getNamespaceURI(i), writer);
+            writer.write('"');
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            writer.write(' ');
+            writer.write(qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)));
+            writer.write("=\"");
+            writeEscaped(reader.getAttributeValue(i), writer);
+            writer.write('"');
+        }
+        writer.write('>');
+    }
+
+    /* package */ static String qualifiedName(String prefix, String localName) {
+        if (prefix == null || prefix.isEmpty()) {
+            return localName;
+        }
+        return localName != null && !localName.isEmpty() ? prefix + ":" + localName : prefix;
+    }
+
+    /* package */ static void writeEscaped(String value, Writer writer) throws IOException {
+        if (value != null) {
+            escape(value.toCharArray(), 0, value.length(), true, writer);
+        }
+    }
+
+    /* package */ static void escape(char[] text, int start, int length, boolean attribute, Writer writer) throws IOException {
+        int from = start;
+        int end = start + length;
+        for (int i = start; i < end; i++) {
+            String replacement;
+            switch (text[i]) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '\r':
+                    replacement = "&#13;";
+                    break;
+                case '"':
+                    replacement = attribute ? "&quot;" : null;
+                    break;
+                case '\n':
+                    replacement = attribute ? "&#10;" : null;
+                    break;
+                case '\t':
+                    replacement = attribute ? "&#9;" : null;
+                    break;
+                default:
+                    replacement = null;
+                    break;
+            }
+            if (replacement != null) {
+                writer.write(text, from, i - from);
+                writer.write(replacement);
+                from = i + 1;
+            }
+        }
+        writer.write(text, from, end - from);
+    }
+
+    /**
+     * Writes consecutive gzip members, a new one started by the first write after {@link #finish()}.
+     */
+    private static final class MemberWriter {
+
+        private final CountingOutputStream out;
+
+        private GZIPOutputStream gzip;
+
+        private Writer writer;
+
+        MemberWriter(OutputStream out) {
+            this.out = new CountingOutputStream(out);
+        }
+
+        Writer writer() throws IOException {
+            if (writer == null) {
+                gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+                writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), BUFFER_SIZE);
+            }
+            return writer;
+        }
+
+        /**
+         * Ends the current member, if anything was written to it.
+         */
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+                gzip.finish();
+                writer = null;
+                gzip = null;
+            }
+        }
+
+        /**
+         * @return bytes written by the finished members
+         */
+        long getOffset() {
+            return out.count;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Compresses the result file on the agent into the given file and returns its fixtures.
+     */
+    private static final class Compressor extends MasterToSlaveFileCallable<List<Fixture>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String target;
+
+        Compressor(String target) {
+            this.target = target;
+        }
+
+        public List<Fixture> invoke(File resultFile, VirtualChannel channel) throws IOException, InterruptedException {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(resultFile));
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+                return compress(in, out);
+            } catch (XMLStreamException e) {
+                throw new IOException("Failed to parse " + resultFile, e);
+            }
+        }
+    }
+
+    /**
+     * A test fixture of the result file and where its gzip member is in the archive.
+     */
+    public static final class Fixture implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final long offset;
+        private final long length;
+
+        Fixture(String name, long offset, long length) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return full name of the fixture
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return compressed size in bytes
+         */
+        public long getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Side file of an archive: the result file name and the fixtures, in a compact binary form.
+     */
+    private static final class Index {
+
+        private final String resultFile;
+
+        private final List<Fixture> fixtures;
+
+        Index(String resultFile, List<Fixture> fixtures) {
+            this.resultFile = resultFile;
+            this.fixtures = fixtures;
+        }
+
+        void save(File file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(resultFile);
+                out.writeInt(fixtures.size());
+                for (Fixture fixture : fixtures) {
+                    out.writeUTF(fixture.name);
+                    out.writeLong(fixture.offset);
+                    out.writeLong(fixture.length);
+                }
+            }
+        }
+
+        static Index load(File file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException(file + " is not an NUnit result index");
+                }
+                String resultFile = in.readUTF();
+                int count = in.readInt();
+                List<Fixture> fixtures = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    fixtures.add(new Fixture(in.readUTF(), in.readLong(), in.readLong()));
+                }
+                return new Index(resultFile, fixtures);
+            }
+        }
+    }
+}
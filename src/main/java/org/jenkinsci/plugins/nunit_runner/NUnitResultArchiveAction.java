@@ -0,0 +1,84 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+/**
+ * The compressed result files of a build, each loaded from its index only when asked for.
+ */
+public class NUnitResultArchiveAction implements RunAction2 {
+
+    private static final Logger LOGGER = Logger.getLogger(NUnitResultArchiveAction.class.getName());
+
+    private transient Run<?, ?> run;
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    public String getDisplayName() {
+        return Messages.NUnitResultArchiveAction_DisplayName();
+    }
+
+    public String getIconFileName() {
+        return "package.png";
+    }
+
+    public String getUrlName() {
+        return "nunitResultFiles";
+    }
+
+    /**
+     * @return the archives of the build, in the order they were archived
+     */
+    public List<NUnitResultArchive> getArchives() {
+        List<NUnitResultArchive> archives = new ArrayList<>();
+        for (String id : NUnitResultArchive.list(run)) {
+            NUnitResultArchive archive = getArchive(id);
+            if (archive != null) {
+                archives.add(archive);
+            }
+        }
+        return archives;
+    }
+
+    /**
+     * @param id Name of the archive, the <code>archive/{id}</code> part of its URL
+     * @return the archive, or null if there is none by that name
+     */
+    public NUnitResultArchive getArchive(String id) {
+        try {
+            return NUnitResultArchive.load(run, id);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load NUnit result archive " + id + " of " + run.getFullDisplayName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the action to the build, unless an earlier NUnit step did.
+     *
+     * @param run Build
+     */
+    public static void addTo(Run<?, ?> run) {
+        synchronized (run) {
+            if (run.getAction(NUnitResultArchiveAction.class) == null) {
+                run.addAction(new NUnitResultArchiveAction());
+            }
+        }
+    }
+}
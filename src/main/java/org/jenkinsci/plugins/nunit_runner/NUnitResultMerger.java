@@ -0,0 +1,559 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Streams the NUnit 3 result files of a step into one result file on the agent, for
+ * publishers that expect a single file from a step that ran shards, combinations or retries.
+ * <p>
+ * No file is ever held in memory. A first pass reads a few numbers per test case, from
+ * which the duplicates to drop and the counts of the merged file are worked out; a second
+ * pass copies the test suites of every file into the merged one. Only the suites that lose
+ * a duplicate get new counts, the rest are copied unchanged.
+ */
+public class NUnitResultMerger extends MasterToSlaveFileCallable<Integer> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * What to keep of a test that has results in several files, e.g. from a retry.
+     * Results of different platform and framework combinations are never duplicates, nor
+     * are test cases of one file that share a name, e.g. cases of a test case source.
+     */
+    public enum Duplicates {
+        /** The result of the last file wins, so a retry replaces the failure it retried. */
+        LAST,
+        /** The result of the first file wins. */
+        FIRST,
+        /** Every result is kept. */
+        ALL;
+
+        /**
+         * @param value e.g. <code>last</code>
+         * @throws IllegalArgumentException if there is no such policy
+         */
+        public static Duplicates fromString(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String[] RESULTS = {"Passed", "Failed", "Warning", "Inconclusive", "Skipped"};
+
+    private static final int INCONCLUSIVE = 3;
+
+    /** Counts kept per suite: total, one per result, asserts. */
+    private static final int TOTAL = 0;
+    private static final int ASSERTS = RESULTS.length + 1;
+    private static final int COLUMNS = RESULTS.length + 2;
+
+    private final List<String> files;
+    private final List<String> groups;
+    private final String output;
+    private final Duplicates duplicates;
+
+    /**
+     * @param files Result files relative to the workspace, in the order they were written; missing ones are skipped
+     * @param groups Platform and framework combination of each file, or null entries when the step runs only one
+     * @param output Merged result file relative to the workspace
+     * @param duplicates What to keep of a test with results in several files
+     */
+    public NUnitResultMerger(List<String> files, List<String> groups, String output, Duplicates duplicates) {
+        this.files = new ArrayList<String>(files);
+        this.groups = new ArrayList<String>(groups);
+        this.output = output;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * @return number of test cases in the merged file, or null when none of the result files exist
+     */
+    public Integer invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        List<File> inputs = new ArrayList<File>();
+        List<String> inputGroups = new ArrayList<String>();
+        for (int i = 0; i < files.size(); i++) {
+            File file = new File(workspace, files.get(i));
+            if (file.isFile()) {
+                inputs.add(file);
+                inputGroups.add(groups.get(i));
+            }
+        }
+        if (inputs.isEmpty()) {
+            return null;
+        }
+
+        File merged = new File(workspace, output).getAbsoluteFile();
+        for (File input : inputs) {
+            if (input.getAbsoluteFile().equals(merged)) {
+                throw new IOException(output + " is one of the result files being merged");
+            }
+        }
+        File dir = merged.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        // Readers of the merged file never see half of it.
+        File temp = File.createTempFile("nunit-merge", ".tmp", dir);
+        try {
+            int tests;
+            try (OutputStream out = new FileOutputStream(temp)) {
+                tests = merge(inputs, inputGroups, duplicates, out);
+            }
+            Files.move(temp.toPath(), merged.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return tests;
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to merge NUnit result files into " + output, e);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * @param files NUnit 3 result files
+     * @param groups Combination of each file, or null entries
+     * @param duplicates What to keep of a test with results in several files
+     * @param out Receives the merged XML
+     * @return number of test cases in the merged XML
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    /* package */ static int merge(List<File> files, List<String> groups, Duplicates duplicates, OutputStream out) throws IOException, XMLStreamException {
+        Index index = new Index();
+        for (int f = 0; f < files.size(); f++) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(files.get(f)), BUFFER_SIZE)) {
+                index.read(in, groups.get(f));
+            }
+        }
+        index.resolve(duplicates);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        int[] position = new int[2];
+        for (int f = 0; f < files.size(); f++) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(files.get(f)), BUFFER_SIZE)) {
+                copy(in, f, files.size() > 1, index, position, writer);
+            }
+        }
+        writer.write("\n</test-run>\n");
+        writer.flush();
+        return index.totals[TOTAL];
+    }
+
+    /**
+     * Copies the kept test suites and cases of one file. The root element and what else it
+     * holds, such as the command line, are only taken from the first file.
+     *
+     * @param position Suites and test cases of the earlier files, advanced past this one
+     */
+    private static void copy(InputStream in, int file, boolean renumber, Index index, int[] position, Writer writer) throws IOException, XMLStreamException {
+        XMLStreamReader reader = NUnitResultParser.createInputFactory().createXMLStreamReader(in);
+        try {
+            int depth = 0;
+            int skipDepth = -1;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (skipDepth > 0) {
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        advance(reader, position);
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (depth == skipDepth) {
+                            skipDepth = -1;
+                        }
+                        depth--;
+                    }
+                    continue;
+                }
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        String element = reader.getLocalName();
+                        Map<String, String> overrides = new LinkedHashMap<String, String>();
+                        if (depth == 1) {
+                            if (file == 0) {
+                                index.rootOverrides(reader, overrides);
+                                writeStartElement(reader, overrides, writer);
+                            }
+                            break;
+                        }
+                        if ("test-suite".equals(element)) {
+                            int suite = position[0]++;
+                            if (index.isEmptied(suite)) {
+                                skipDepth = depth;
+                                break;
+                            }
+                            index.suiteOverrides(reader, suite, overrides);
+                        } else if ("test-case".equals(element)) {
+                            if (!index.kept[position[1]++]) {
+                                skipDepth = depth;
+                                break;
+                            }
+                        } else if (depth == 2 && file > 0) {
+                            skipDepth = depth;
+                            break;
+                        }
+                        if (depth == 2) {
+                            writer.write("\n  ");
+                        }
+                        // Every process numbers its tests from the start, so ids are made unique per file.
+                        String id = reader.getAttributeValue(null, "id");
+                        if (renumber && id != null && ("test-suite".equals(element) || "test-case".equals(element))) {
+                            overrides.put("id", file + "-" + id);
+                        }
+                        writeStartElement(reader, overrides, writer);
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (depth > 1) {
+                            writer.write("</");
+                            writer.write(NUnitResultArchive.qualifiedName(reader.getPrefix(), reader.getLocalName()));
+                            writer.write('>');
+                        }
+                        depth--;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        // Whitespace between the children of the root is written anew.
+                        if (depth > 1) {
+                            NUnitResultArchive.escape(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength(), false, writer);
+                        }
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        if (depth > 1) {
+                            writer.write("<![CDATA[");
+                            writer.write(reader.getText().replace("]]>", "]]]]><![CDATA[>"));
+                            writer.write("]]>");
+                        }
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        if (depth > 1) {
+                            writer.write("<!--");
+                            writer.write(reader.getText());
+                            writer.write("-->");
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Counts a skipped suite or test case, so later ones keep their place in the index.
+     */
+    private static void advance(XMLStreamReader reader, int[] position) {
+        if ("test-suite".equals(reader.getLocalName())) {
+            position[0]++;
+        } else if ("test-case".equals(reader.getLocalName())) {
+            position[1]++;
+        }
+    }
+
+    /**
+     * Writes a start element with some attributes replaced or added; a null value leaves the attribute out.
+     */
+    private static void writeStartElement(XMLStreamReader reader, Map<String, String> overrides, Writer writer) throws IOException {
+        if (overrides.isEmpty()) {
+            NUnitResultArchive.writeStartElement(reader, writer);
+            return;
+        }
+        Map<String, String> added = new LinkedHashMap<String, String>(overrides);
+        writer.write('<');
+        writer.write(NUnitResultArchive.qualifiedName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            writeAttribute(NUnitResultArchive.qualifiedName("xmlns", reader.getNamespacePrefix(i)), reader.getNamespaceURI(i), writer);
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String prefix = reader.getAttributePrefix(i);
+            String name = reader.getAttributeLocalName(i);
+            if ((prefix == null || prefix.isEmpty()) && overrides.containsKey(name)) {
+                writeAttribute(name, added.remove(name), writer);
+            } else {
+                writeAttribute(NUnitResultArchive.qualifiedName(prefix, name), reader.getAttributeValue(i), writer);
+            }
+        }
+        for (Map.Entry<String, String> attribute : added.entrySet()) {
+            writeAttribute(attribute.getKey(), attribute.getValue(), writer);
+        }
+        writer.write('>');
+    }
+
+    private static void writeAttribute(String name, String value, Writer writer) throws IOException {
+        if (value == null) {
+            return;
+        }
+        writer.write(' ');
+        writer.write(name);
+        writer.write("=\"");
+        NUnitResultArchive.writeEscaped(value, writer);
+        writer.write('"');
+    }
+
+    private static int parseResult(String result) {
+        for (int i = 0; i < RESULTS.length; i++) {
+            if (RESULTS[i].equals(result)) {
+                return i;
+            }
+        }
+        return INCONCLUSIVE;
+    }
+
+    private static int parseInt(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a test's combination and full name. Names are not compared
+     * beyond it, to keep the index small; for a million names the odds that two distinct
+     * tests share a hash, and one is dropped as the other's duplicate, are below 1 in 10^7.
+     */
+    private static long key(String group, String name) {
+        long hash = 0xcbf29ce484222325L;
+        String value = group != null ? group + '\u0000' + name : name;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * A few numbers per test case and suite of all files, in document order.
+     */
+    private static final class Index {
+
+        private long[] keys = new long[1024];
+        private boolean[] named = new boolean[1024];
+        private int[] caseFiles = new int[1024];
+        private int[] caseSuites = new int[1024];
+        private byte[] results = new byte[1024];
+        private int[] asserts = new int[1024];
+        private int cases;
+        private int files;
+
+        private int[] parents = new int[256];
+        private int suites;
+
+        private double duration;
+        private String startTime;
+        private String endTime;
+
+        private boolean[] kept;
+        private int[] counts;
+        private int[] dropped;
+        private final int[] totals = new int[COLUMNS];
+
+        void read(InputStream in, String group) throws XMLStreamException {
+            XMLStreamReader reader = NUnitResultParser.createInputFactory().createXMLStreamReader(in);
+            try {
+                int[] open = new int[16];
+                int depth = 0;
+                int openSuites = 0;
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                        case XMLStreamConstants.START_ELEMENT:
+                            depth++;
+                            String element = reader.getLocalName();
+                            if (depth == 1) {
+                                readRoot(reader);
+                            } else if ("test-suite".equals(element)) {
+                                if (suites == parents.length) {
+                                    parents = Arrays.copyOf(parents, suites * 2);
+                                }
+                                parents[suites] = openSuites > 0 ? open[openSuites - 1] : -1;
+                                if (openSuites == open.length) {
+                                    open = Arrays.copyOf(open, openSuites * 2);
+                                }
+                                open[openSuites++] = suites++;
+                            } else if ("test-case".equals(element)) {
+                                addCase(reader, group, files, openSuites > 0 ? open[openSuites - 1] : -1);
+                            }
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            if ("test-suite".equals(reader.getLocalName()) && openSuites > 0) {
+                                openSuites--;
+                            }
+                            depth--;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } finally {
+                reader.close();
+                files++;
+            }
+        }
+
+        private void readRoot(XMLStreamReader reader) {
+            String value = reader.getAttributeValue(null, "duration");
+            if (value != null) {
+                try {
+                    duration += Double.parseDouble(value);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            // NUnit writes sortable times, e.g. 2017-03-01 10:00:00Z.
+            value = reader.getAttributeValue(null, "start-time");
+            if (value != null && (startTime == null || value.compareTo(startTime) < 0)) {
+                startTime = value;
+            }
+            value = reader.getAttributeValue(null, "end-time");
+            if (value != null && (endTime == null || value.compareTo(endTime) > 0)) {
+                endTime = value;
+            }
+        }
+
+        private void addCase(XMLStreamReader reader, String group, int file, int suite) {
+            if (cases == keys.length) {
+                int capacity = cases * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                named = Arrays.copyOf(named, capacity);
+                caseFiles = Arrays.copyOf(caseFiles, capacity);
+                caseSuites = Arrays.copyOf(caseSuites, capacity);
+                results = Arrays.copyOf(results, capacity);
+                asserts = Arrays.copyOf(asserts, capacity);
+            }
+            String name = reader.getAttributeValue(null, "fullname");
+            if (name == null) {
+                name = reader.getAttributeValue(null, "name");
+            }
+            named[cases] = name != null;
+            keys[cases] = name != null ? key(group, name) : 0;
+            caseFiles[cases] = file;
+            caseSuites[cases] = suite;
+            results[cases] = (byte) parseResult(reader.getAttributeValue(null, "result"));
+            asserts[cases] = parseInt(reader.getAttributeValue(null, "asserts"));
+            cases++;
+        }
+
+        /**
+         * Decides which test cases are kept and adds them up per suite. Of a test with
+         * results in several files, every case of the chosen file is kept.
+         */
+        void resolve(Duplicates duplicates) {
+            kept = new boolean[cases];
+            if (duplicates == Duplicates.ALL) {
+                Arrays.fill(kept, true);
+            } else {
+                // File whose results of each test are kept.
+                Map<Long, Integer> chosen = new HashMap<Long, Integer>();
+                for (int i = 0; i < cases; i++) {
+                    if (named[i] && (duplicates == Duplicates.LAST || !chosen.containsKey(keys[i]))) {
+                        chosen.put(keys[i], caseFiles[i]);
+                    }
+                }
+                for (int i = 0; i < cases; i++) {
+                    kept[i] = !named[i] || chosen.get(keys[i]) == caseFiles[i];
+                }
+            }
+
+            counts = new int[suites * COLUMNS];
+            dropped = new int[suites];
+            for (int i = 0; i < cases; i++) {
+                if (kept[i]) {
+                    add(totals, 0, i);
+                }
+                for (int s = caseSuites[i]; s >= 0; s = parents[s]) {
+                    if (kept[i]) {
+                        add(counts, s * COLUMNS, i);
+                    } else {
+                        dropped[s]++;
+                    }
+                }
+            }
+        }
+
+        private void add(int[] into, int offset, int i) {
+            into[offset + TOTAL]++;
+            into[offset + 1 + results[i]]++;
+            into[offset + ASSERTS] += asserts[i];
+        }
+
+        /**
+         * @return whether all test cases of the suite were dropped as duplicates
+         */
+        boolean isEmptied(int suite) {
+            return dropped[suite] > 0 && counts[suite * COLUMNS + TOTAL] == 0;
+        }
+
+        void rootOverrides(XMLStreamReader reader, Map<String, String> overrides) {
+            putCounts(reader, totals, 0, overrides);
+            overrides.put("testcasecount", String.valueOf(totals[TOTAL]));
+            overrides.put("start-time", startTime);
+            overrides.put("end-time", endTime);
+            overrides.put("duration", String.format(Locale.ROOT, "%.6f", duration));
+        }
+
+        void suiteOverrides(XMLStreamReader reader, int suite, Map<String, String> overrides) {
+            if (dropped[suite] > 0) {
+                putCounts(reader, counts, suite * COLUMNS, overrides);
+                overrides.put("testcasecount", String.valueOf(counts[suite * COLUMNS + TOTAL]));
+            }
+        }
+
+        private static void putCounts(XMLStreamReader reader, int[] from, int offset, Map<String, String> overrides) {
+            overrides.put("total", String.valueOf(from[offset + TOTAL]));
+            overrides.put("passed", String.valueOf(from[offset + 1]));
+            overrides.put("failed", String.valueOf(from[offset + 2]));
+            overrides.put("warnings", String.valueOf(from[offset + 3]));
+            overrides.put("inconclusive", String.valueOf(from[offset + 4]));
+            overrides.put("skipped", String.valueOf(from[offset + 5]));
+            overrides.put("asserts", String.valueOf(from[offset + ASSERTS]));
+            String result;
+            if (from[offset + 2] > 0) {
+                result = "Failed";
+            } else if (from[offset + 3] > 0) {
+                result = "Warning";
+            } else if (from[offset + 1] > 0) {
+                result = "Passed";
+            } else if (from[offset + 5] > 0) {
+                result = "Skipped";
+            } else {
+                result = "Inconclusive";
+            }
+            overrides.put("result", result);
+            // The label and site explain the old result, e.g. a failure that was retried away.
+            if (!result.equals(reader.getAttributeValue(null, "result"))) {
+                overrides.put("label", null);
+                overrides.put("site", null);
+            }
+        }
+    }
+}
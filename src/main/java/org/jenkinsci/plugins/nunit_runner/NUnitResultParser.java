@@ -0,0 +1,195 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Streams NUnit 3 result files on the agent and returns a {@link NUnitResultSummary}.
+ * Memory use does not depend on the size of the files, only on the number of tests.
+ */
+public class NUnitResultParser extends MasterToSlaveFileCallable<NUnitResultSummary> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Failure messages and stack traces longer than this are cut, to keep the summary small. */
+    private static final int MAX_MESSAGE_LENGTH = 4096;
+    private static final int MAX_STACK_TRACE_LENGTH = 16384;
+
+    private final List<String> resultFiles;
+
+    /**
+     * @param resultFiles Result files relative to the workspace
+     */
+    public NUnitResultParser(List<String> resultFiles) {
+        this.resultFiles = resultFiles;
+    }
+
+    /**
+     * @return summary of all result files, or null when none of them exist
+     */
+    public NUnitResultSummary invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        NUnitResultSummary summary = null;
+        for (String resultFile : resultFiles) {
+            File file = new File(workspace, resultFile);
+            if (!file.isFile()) {
+                continue;
+            }
+            if (summary == null) {
+                summary = new NUnitResultSummary();
+            }
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                parse(workspace, in, summary);
+            } catch (XMLStreamException e) {
+                throw new IOException("Failed to parse " + file, e);
+            }
+        }
+        if (summary != null) {
+            summary.trim();
+        }
+        return summary;
+    }
+
+    /**
+     * @param workspace Workspace, used to relativize assembly paths
+     * @param in NUnit 3 result XML
+     * @param summary Summary to add the tests to
+     * @throws XMLStreamException
+     */
+    /* package */ static void parse(File workspace, InputStream in, NUnitResultSummary summary) throws XMLStreamException {
+        XMLStreamReader reader = createInputFactory().createXMLStreamReader(in);
+        try {
+            String testName = null;
+            String result = null;
+            long duration = 0;
+            boolean inFailure = false;
+            StringBuilder message = null;
+            StringBuilder stackTrace = null;
+            StringBuilder text = null;
+            int limit = 0;
+
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        String element = reader.getLocalName();
+                        if ("test-case".equals(element)) {
+                            testName = reader.getAttributeValue(null, "fullname");
+                            result = reader.getAttributeValue(null, "result");
+                            duration = parseDuration(reader.getAttributeValue(null, "duration"));
+                            message = null;
+                            stackTrace = null;
+                        } else if ("test-suite".equals(element)) {
+                            if ("Assembly".equals(reader.getAttributeValue(null, "type"))) {
+                                String assembly = relativeAssemblyPath(workspace, reader.getAttributeValue(null, "fullname"), reader.getAttributeValue(null, "name"));
+                                if (assembly != null) {
+                                    summary.addAssembly(new NUnitResultSummary.AssemblyResult(assembly,
+                                            parseDuration(reader.getAttributeValue(null, "duration")),
+                                            parseCount(reader.getAttributeValue(null, "passed")),
+                                            parseCount(reader.getAttributeValue(null, "failed")),
+                                            parseCount(reader.getAttributeValue(null, "skipped")),
+                                            parseCount(reader.getAttributeValue(null, "inconclusive")), 0));
+                                }
+                            }
+                        } else if (testName != null && "failure".equals(element)) {
+                            inFailure = true;
+                        } else if (inFailure && "message".equals(element)) {
+                            message = new StringBuilder();
+                            text = message;
+                            limit = MAX_MESSAGE_LENGTH;
+                        } else if (inFailure && "stack-trace".equals(element)) {
+                            stackTrace = new StringBuilder();
+                            text = stackTrace;
+                            limit = MAX_STACK_TRACE_LENGTH;
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (text != null && text.length() < limit) {
+                            int length = Math.min(reader.getTextLength(), limit - text.length());
+                            text.append(reader.getTextCharacters(), reader.getTextStart(), length);
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        String endElement = reader.getLocalName();
+                        if ("message".equals(endElement) || "stack-trace".equals(endElement)) {
+                            text = null;
+                        } else if ("failure".equals(endElement)) {
+                            inFailure = false;
+                        } else if ("test-case".equals(endElement) && testName != null) {
+                            NUnitResultSummary.Failure failure = null;
+                            if ("Failed".equals(result)) {
+                                failure = new NUnitResultSummary.Failure(testName, trim(message), trim(stackTrace));
+                            }
+                            summary.addTest(testName, result, duration, failure);
+                            testName = null;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String trim(StringBuilder text) {
+        return text != null ? text.toString().trim() : null;
+    }
+
+    /**
+     * @param duration NUnit duration in seconds
+     * @return duration in milliseconds
+     */
+    /* package */ static long parseDuration(String duration) {
+        if (duration == null) {
+            return 0;
+        }
+        try {
+            return Math.round(Double.parseDouble(duration) * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int parseCount(String count) {
+        if (count == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the assembly path relative to the workspace, or its name when outside it
+     */
+    /* package */ static String relativeAssemblyPath(File workspace, String fullName, String name) {
+        if (fullName == null) {
+            return name;
+        }
+        URI relative = workspace.toURI().relativize(new File(fullName).toURI());
+        return relative.isAbsolute() ? name : relative.getPath();
+    }
+
+    /* package */ static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
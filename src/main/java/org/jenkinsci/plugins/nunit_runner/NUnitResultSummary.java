@@ -0,0 +1,407 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact summary of one or more NUnit 3 result files. This is all that is sent
+ * back from the agent and stored on the build.
+ */
+public class NUnitResultSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int passed;
+    private int failed;
+    private int skipped;
+    private int inconclusive;
+
+    private final List<Failure> failures = new ArrayList<>();
+
+    // Per-test durations as parallel arrays; far smaller than one object per test.
+    private String[] testNames = new String[0];
+    private long[] testDurations = new long[0];
+    // Null in summaries stored before it was recorded.
+    private boolean[] testPassed = new boolean[0];
+    private int testCount;
+
+    private final List<AssemblyResult> assemblies = new ArrayList<>();
+
+    // Null in summaries stored before retries were recorded.
+    private List<String> flakyTests;
+
+    public int getTotal() {
+        return passed + failed + skipped + inconclusive;
+    }
+
+    public int getPassed() {
+        return passed;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public int getInconclusive() {
+        return inconclusive;
+    }
+
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return duration in milliseconds by test full name
+     */
+    public Map<String, Long> getTestDurations() {
+        Map<String, Long> durations = new HashMap<>(testCount * 2);
+        for (int i = 0; i < testCount; i++) {
+            durations.put(testNames[i], testDurations[i]);
+        }
+        return durations;
+    }
+
+    /**
+     * @return full names of the tests that failed and then passed when re-run in the same build
+     */
+    public List<String> getFlakyTests() {
+        return flakyTests != null ? Collections.unmodifiableList(flakyTests) : Collections.<String>emptyList();
+    }
+
+    /**
+     * @return full names of the failed tests, without duplicates
+     */
+    public List<String> getFailedTestNames() {
+        Set<String> names = new LinkedHashSet<>();
+        for (Failure failure : failures) {
+            names.add(failure.getName());
+        }
+        return new ArrayList<>(names);
+    }
+
+    public List<AssemblyResult> getAssemblies() {
+        return Collections.unmodifiableList(assemblies);
+    }
+
+    /**
+     * @param path Assembly path relative to the workspace
+     * @return results of the assembly, or null
+     */
+    public AssemblyResult getAssembly(String path) {
+        for (AssemblyResult assembly : assemblies) {
+            if (assembly.getPath().equals(path)) {
+                return assembly;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return duration in milliseconds by assembly path relative to the workspace, for assemblies run in this build
+     */
+    public Map<String, Long> getAssemblyDurations() {
+        Map<String, Long> durations = new HashMap<>();
+        for (AssemblyResult assembly : assemblies) {
+            if (!assembly.isReused()) {
+                durations.put(assembly.getPath(), assembly.getDuration());
+            }
+        }
+        return durations;
+    }
+
+    /**
+     * @return total duration of all assemblies run in this build, in milliseconds
+     */
+    public long getDuration() {
+        long duration = 0;
+        for (AssemblyResult assembly : assemblies) {
+            if (!assembly.isReused()) {
+                duration += assembly.getDuration();
+            }
+        }
+        return duration;
+    }
+
+    /**
+     * @param name Test full name
+     * @param result NUnit result, e.g. Passed or Failed
+     * @param duration Duration in milliseconds
+     * @param failure Failure details, or null
+     */
+    /* package */ void addTest(String name, String result, long duration, Failure failure) {
+        if ("Passed".equals(result)) {
+            passed++;
+        } else if ("Failed".equals(result)) {
+            failed++;
+            if (failure != null) {
+                failures.add(failure);
+            }
+        } else if ("Skipped".equals(result)) {
+            skipped++;
+        } else {
+            inconclusive++;
+        }
+
+        if (testCount == testNames.length) {
+            int capacity = Math.max(16, testCount * 2);
+            testNames = Arrays.copyOf(testNames, capacity);
+            testDurations = Arrays.copyOf(testDurations, capacity);
+        }
+        ensureTestPassed(testNames.length);
+        testNames[testCount] = name;
+        testDurations[testCount] = duration;
+        testPassed[testCount] = "Passed".equals(result);
+        testCount++;
+    }
+
+    /* package */ void addAssembly(AssemblyResult assembly) {
+        // A test file split into groups is in several result files.
+        addAssemblyRun(assembly);
+    }
+
+    /**
+     * Carries the results of an unchanged assembly forward from an earlier build.
+     *
+     * @param assembly Results recorded by the earlier build
+     * @param build Number of the build that ran the assembly
+     */
+    public void addReused(AssemblyResult assembly, int build) {
+        passed += assembly.passed;
+        failed += assembly.failed;
+        skipped += assembly.skipped;
+        inconclusive += assembly.inconclusive;
+        assemblies.add(new AssemblyResult(assembly.path, assembly.duration, assembly.passed, assembly.failed, assembly.skipped, assembly.inconclusive, build));
+    }
+
+    /**
+     * Adds every test of another summary to this one.
+     *
+     * @param other Summary of other result files
+     */
+    public void add(NUnitResultSummary other) {
+        passed += other.passed;
+        failed += other.failed;
+        skipped += other.skipped;
+        inconclusive += other.inconclusive;
+        failures.addAll(other.failures);
+        int size = testCount + other.testCount;
+        if (size > testNames.length) {
+            testNames = Arrays.copyOf(testNames, size);
+            testDurations = Arrays.copyOf(testDurations, size);
+        }
+        ensureTestPassed(testNames.length);
+        System.arraycopy(other.testNames, 0, testNames, testCount, other.testCount);
+        System.arraycopy(other.testDurations, 0, testDurations, testCount, other.testCount);
+        if (other.testPassed != null) {
+            System.arraycopy(other.testPassed, 0, testPassed, testCount, other.testCount);
+        }
+        testCount = size;
+        for (AssemblyResult assembly : other.assemblies) {
+            addAssemblyRun(assembly);
+        }
+        if (other.flakyTests != null) {
+            if (flakyTests == null) {
+                flakyTests = new ArrayList<>();
+            }
+            flakyTests.addAll(other.flakyTests);
+        }
+    }
+
+    /**
+     * Takes in the results of re-running the failed tests. A test that passes on retry
+     * counts as passed and is recorded as flaky; one that is skipped, ignored or
+     * inconclusive still counts as failed. The original run's durations are kept.
+     *
+     * @param retry Results of re-running the failed tests of this summary
+     */
+    public void addRetry(NUnitResultSummary retry) {
+        Set<String> recovered = new HashSet<>();
+        for (int i = 0; i < retry.testCount; i++) {
+            if (retry.testPassed != null && retry.testPassed[i]) {
+                recovered.add(retry.testNames[i]);
+            }
+        }
+
+        for (Iterator<Failure> it = failures.iterator(); it.hasNext();) {
+            String name = it.next().getName();
+            if (recovered.contains(name)) {
+                it.remove();
+                failed--;
+                passed++;
+                if (flakyTests == null) {
+                    flakyTests = new ArrayList<>();
+                }
+                if (!flakyTests.contains(name)) {
+                    flakyTests.add(name);
+                }
+            }
+        }
+
+        for (AssemblyResult assembly : retry.assemblies) {
+            int recoveredInAssembly = assembly.getPassed();
+            for (int i = 0; i < assemblies.size() && recoveredInAssembly > 0; i++) {
+                AssemblyResult earlier = assemblies.get(i);
+                if (!earlier.isReused() && earlier.path.equals(assembly.path)) {
+                    int moved = Math.min(recoveredInAssembly, earlier.failed);
+                    assemblies.set(i, new AssemblyResult(earlier.path, earlier.duration, earlier.passed + moved,
+                            earlier.failed - moved, earlier.skipped, earlier.inconclusive, 0));
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an assembly, combining it with an earlier run of the same assembly in this build,
+     * e.g. when previously failed tests ran before the rest or its tests ran in groups.
+     */
+    private void addAssemblyRun(AssemblyResult assembly) {
+        if (!assembly.isReused()) {
+            for (int i = 0; i < assemblies.size(); i++) {
+                AssemblyResult earlier = assemblies.get(i);
+                if (!earlier.isReused() && earlier.path.equals(assembly.path)) {
+                    assemblies.set(i, new AssemblyResult(assembly.path, earlier.duration + assembly.duration,
+                            earlier.passed + assembly.passed, earlier.failed + assembly.failed,
+                            earlier.skipped + assembly.skipped, earlier.inconclusive + assembly.inconclusive, 0));
+                    return;
+                }
+            }
+        }
+        assemblies.add(assembly);
+    }
+
+    /**
+     * Grows the passed flags along with the other per-test arrays; tests of summaries
+     * stored without them count as not passed.
+     */
+    private void ensureTestPassed(int capacity) {
+        if (testPassed == null) {
+            testPassed = new boolean[capacity];
+        } else if (testPassed.length < capacity) {
+            testPassed = Arrays.copyOf(testPassed, capacity);
+        }
+    }
+
+    /**
+     * Drops the unused capacity of the duration arrays before the summary is sent or stored.
+     */
+    /* package */ void trim() {
+        if (testNames.length != testCount) {
+            testNames = Arrays.copyOf(testNames, testCount);
+            testDurations = Arrays.copyOf(testDurations, testCount);
+        }
+        if (testPassed != null && testPassed.length != testCount) {
+            testPassed = Arrays.copyOf(testPassed, testCount);
+        }
+    }
+
+    /**
+     * Counts and duration of one test assembly.
+     */
+    public static class AssemblyResult implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final long duration;
+        private final int passed;
+        private final int failed;
+        private final int skipped;
+        private final int inconclusive;
+        private final int reusedFrom;
+
+        /**
+         * @param path Assembly path relative to the workspace
+         * @param duration Duration in milliseconds
+         * @param reusedFrom Number of the build the results were carried forward from, or 0
+         */
+        public AssemblyResult(String path, long duration, int passed, int failed, int skipped, int inconclusive, int reusedFrom) {
+            this.path = path;
+            this.duration = duration;
+            this.passed = passed;
+            this.failed = failed;
+            this.skipped = skipped;
+            this.inconclusive = inconclusive;
+            this.reusedFrom = reusedFrom;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public int getPassed() {
+            return passed;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public int getInconclusive() {
+            return inconclusive;
+        }
+
+        public int getTotal() {
+            return passed + failed + skipped + inconclusive;
+        }
+
+        public boolean isReused() {
+            return reusedFrom > 0;
+        }
+
+        public int getReusedFrom() {
+            return reusedFrom;
+        }
+    }
+
+    /**
+     * A failed test with its message and stack trace.
+     */
+    public static class Failure implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String message;
+        private final String stackTrace;
+
+        public Failure(String name, String message, String stackTrace) {
+            this.name = name;
+            this.message = message;
+            this.stackTrace = stackTrace;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public String getStackTrace() {
+            return stackTrace;
+        }
+    }
+}
@@ -0,0 +1,630 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The nunit3-console runs of one step, worked out before the first one starts.
+ * <p>
+ * Runs happen in phases: the tests that failed in the previous build, the suite
+ * itself, then retries of the tests that failed. Every phase runs each platform and
+ * framework combination, and the suite each shard of it, whole test files or a group
+ * of the tests of a large one. The processes of a phase
+ * run at the same time, up to {@link #getMaxProcesses()}. The plan is serializable,
+ * so a durable Pipeline execution can pick it up again after a restart.
+ */
+public class NUnitRunPlan implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Result file nunit3-console writes when no /result is given. */
+    private static final String DEFAULT_RESULT_FILE = "TestResult.xml";
+
+    /** Start of every result file named by the plan, relative to the workspace. */
+    private static final String RESULT_FILE_PREFIX = "TestResult";
+
+    /** Tests with fewer earlier durations are not judged slow. */
+    private static final int MIN_DURATION_SAMPLES = 5;
+
+    /** Tests faster than this many milliseconds are not judged slow, their timings are mostly noise. */
+    private static final long MIN_SLOW_TEST_DURATION = 100;
+
+    private enum Phase {
+        FAILED_FIRST, SUITE, RETRY, DONE
+    }
+
+    private final String pathToNUnit;
+    private final List<String> targets;
+    private final List<List<String>> shards;
+    private final List<TestGroup> testGroups;
+    private final List<Combination> combinations;
+    private final int maxProcesses;
+    private final List<String> selectionOptions;
+    private final List<String> runOptions;
+    private final String manualResultFile;
+    private final String failedFilter;
+    private final boolean failedTestsOnly;
+    private final int retryCount;
+    private final int slowTestPercentile;
+    private final String coverageReports;
+    private final boolean archiveResults;
+    private final String mergeResults;
+    private final NUnitResultMerger.Duplicates mergeDuplicates;
+    private final boolean failBuild;
+    private final NUnitFailFast failFast;
+    private final HashMap<String, String> hashes;
+    private final NUnitTimings timings = new NUnitTimings();
+    private final ArrayList<String> resultFiles = new ArrayList<String>();
+    private final ArrayList<String> resultCombinations = new ArrayList<String>();
+
+    private Phase current;
+    private Phase next;
+    private int attempt;
+
+    /**
+     * @param pathToNUnit nunit3-console.exe path
+     * @param targets Test files relative to the workspace
+     * @param shards Test files of each concurrent process of the suite phase
+     * @param testGroups Groups of the tests of split test files, each run by another process of the suite phase
+     * @param combinations Platform and framework combinations, each run over all test files
+     * @param maxProcesses Most processes running at the same time, 0 for no limit
+     * @param selectionOptions Arguments that select tests, the /where filter is added after them
+     * @param runOptions Other arguments, the manual command line last
+     * @param manualResultFile Result file set by the manual command line, which then runs only one process, or null
+     * @param failedFilter Selection of the tests that failed in the previous build, or null
+     * @param failedTestsOnly Whether only the previously failed tests run
+     * @param retryCount How many times failed tests are re-run
+     * @param slowTestPercentile Percentile of their duration history above which tests are reported as slow, 0 to not report
+     * @param coverageReports Ant pattern of the coverage reports to summarize, or null
+     * @param archiveResults Whether the result files are kept compressed on the build
+     * @param mergeResults File the result files of all phases are merged into, relative to the workspace, or null
+     * @param mergeDuplicates What the merged file keeps of a test with results in several files
+     * @param failBuild Whether failed tests fail the build rather than mark it unstable
+     * @param failFast Failed tests after which all processes are stopped and the build fails, 0 to run all tests
+     * @param hashes Hash by test file to record after a green run, or null
+     */
+    public NUnitRunPlan(String pathToNUnit, List<String> targets, List<List<String>> shards, List<TestGroup> testGroups, List<Combination> combinations, int maxProcesses,
+                        List<String> selectionOptions, List<String> runOptions, String manualResultFile,
+                        String failedFilter, boolean failedTestsOnly, int retryCount, int slowTestPercentile, String coverageReports, boolean archiveResults,
+                        String mergeResults, NUnitResultMerger.Duplicates mergeDuplicates, boolean failBuild, int failFast, Map<String, String> hashes) {
+        this.pathToNUnit = pathToNUnit;
+        this.targets = new ArrayList<String>(targets);
+        this.shards = new ArrayList<List<String>>();
+        for (List<String> shard : shards) {
+            this.shards.add(new ArrayList<String>(shard));
+        }
+        this.testGroups = new ArrayList<TestGroup>(testGroups);
+        this.combinations = new ArrayList<Combination>(combinations);
+        this.maxProcesses = maxProcesses;
+        this.selectionOptions = new ArrayList<String>(selectionOptions);
+        this.runOptions = new ArrayList<String>(runOptions);
+        this.manualResultFile = manualResultFile;
+        this.failedFilter = failedFilter;
+        this.failedTestsOnly = failedTestsOnly;
+        this.retryCount = retryCount;
+        this.slowTestPercentile = slowTestPercentile;
+        this.coverageReports = coverageReports;
+        this.archiveResults = archiveResults;
+        this.mergeResults = mergeResults;
+        this.mergeDuplicates = mergeDuplicates;
+        this.failBuild = failBuild;
+        this.failFast = failFast > 0 ? new NUnitFailFast(failFast) : null;
+        this.hashes = hashes != null ? new HashMap<String, String>(hashes) : null;
+        this.next = failedFilter != null ? Phase.FAILED_FIRST : Phase.SUITE;
+    }
+
+    /**
+     * @return time spent in each phase so far, added to by the runs of the plan
+     */
+    public NUnitTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return most processes of a phase running at the same time, 0 for no limit
+     */
+    public int getMaxProcesses() {
+        return maxProcesses;
+    }
+
+    /**
+     * @return failed test counter that stops the step, or null when all tests run
+     */
+    public NUnitFailFast getFailFast() {
+        return failFast;
+    }
+
+    /**
+     * @return whether the step was stopped because enough tests failed
+     */
+    public boolean isStopped() {
+        return failFast != null && failFast.isTriggered();
+    }
+
+    /**
+     * @return whether whole test files run, rather than only the previously failed tests
+     */
+    public boolean isWholeSuite() {
+        return failedFilter == null || !failedTestsOnly;
+    }
+
+    /**
+     * @param outcome Merged outcome of the phases so far
+     * @param listener
+     * @return the processes of the next phase, or null when all phases are done
+     */
+    public List<NUnitInvocation> nextPhase(NUnitOutcome outcome, TaskListener listener) {
+        current = isStopped() ? Phase.DONE : next;
+        List<NUnitInvocation> invocations = new ArrayList<NUnitInvocation>();
+        switch (current) {
+            case FAILED_FIRST:
+                next = failedTestsOnly ? Phase.RETRY : Phase.SUITE;
+                listener.getLogger().println("Running the tests that failed in the previous build" + (failedTestsOnly ? "" : " first"));
+                for (Combination combination : combinations) {
+                    invocations.add(createInvocation(combination, "failed", targets, failedFilter, null));
+                }
+                return invocations;
+            case SUITE:
+                next = Phase.RETRY;
+                String where = failedFilter != null ? "!(" + failedFilter + ")" : null;
+                for (Combination combination : combinations) {
+                    if (shards.size() == 1 && testGroups.isEmpty()) {
+                        invocations.add(createInvocation(combination, null, shards.get(0), where, null));
+                        continue;
+                    }
+                    int part = 0;
+                    for (List<String> shard : shards) {
+                        invocations.add(createInvocation(combination, "shard-" + ++part, shard, where, null));
+                    }
+                    for (TestGroup group : testGroups) {
+                        invocations.add(createInvocation(combination, "shard-" + ++part, Collections.singletonList(group.getTestFile()), where, group.getTestList()));
+                    }
+                }
+                return invocations;
+            case RETRY:
+                // Re-run only the failed tests; a test that passes on a later attempt no longer fails the step.
+                if (attempt >= retryCount || !outcome.isRetryable()) {
+                    break;
+                }
+                attempt++;
+                for (Combination combination : combinations) {
+                    NUnitResultSummary summary = combination.getName() != null ? outcome.getCombinations().get(combination.getName()) : outcome.getSummary();
+                    List<String> failedTests = summary != null ? summary.getFailedTestNames() : Collections.<String>emptyList();
+                    if (failedTests.isEmpty()) {
+                        continue;
+                    }
+                    String label = combination.getName() != null ? " of " + combination.getName() : "";
+                    String retryFilter = NUnitBuilder.getFailedTestsFilter(failedTests);
+                    if (retryFilter == null) {
+                        listener.getLogger().println("The " + failedTests.size() + " failed tests" + label + " cannot be selected by name, not retrying them");
+                        continue;
+                    }
+                    listener.getLogger().println("Retrying " + failedTests.size() + " failed tests" + label + ", attempt " + attempt + " of " + retryCount);
+                    invocations.add(createInvocation(combination, "retry-" + attempt, targets, retryFilter, null));
+                }
+                if (!invocations.isEmpty()) {
+                    return invocations;
+                }
+                break;
+            default:
+                break;
+        }
+        current = next = Phase.DONE;
+        return null;
+    }
+
+    /**
+     * Merges the outcome of the phase last returned by {@link #nextPhase(NUnitOutcome, TaskListener)}.
+     *
+     * @param outcome Merged outcome of the phases so far
+     * @param phase Outcome of the phase
+     */
+    public void addPhase(NUnitOutcome outcome, NUnitOutcome phase) {
+        if (current == Phase.RETRY) {
+            outcome.addRetry(phase);
+        } else {
+            outcome.add(phase);
+        }
+    }
+
+    /**
+     * Records the merged results, the coverage and the timings on the build and works out the step result.
+     *
+     * @param run
+     * @param workspace
+     * @param listener
+     * @param outcome Merged outcome of all phases
+     * @throws AbortException if the step failed and should fail the build
+     * @throws IOException
+     */
+    public void finish(Run<?, ?> run, FilePath workspace, TaskListener listener, NUnitOutcome outcome) throws IOException, InterruptedException {
+        deleteTestLists(workspace, listener);
+        mergeResults(workspace, listener);
+
+        // Only part of each test file ran when running just the failed tests, so durations do not describe it.
+        long start = System.nanoTime();
+        recordResults(run, listener, outcome);
+        recordCoverage(run, workspace, listener, outcome);
+        timings.record(NUnitTimings.Phase.RESULTS, start);
+        recordTimings(run, listener);
+
+        // Stopped processes leave no results, so their exit codes say nothing about the tests.
+        if (isStopped()) {
+            run.setResult(Result.FAILURE);
+            throw new AbortException(failFast.getMessage());
+        }
+
+        if (outcome.isFailed()) {
+            if (failBuild) {
+                run.setResult(Result.FAILURE);
+                throw new AbortException(outcome.getFailureMessage());
+            } else {
+                run.setResult(Result.UNSTABLE);
+            }
+        }
+
+        // Hashes describe whole test files, which a run of only the failed tests does not cover.
+        if (hashes != null && isWholeSuite()) {
+            recordHashes(run);
+        }
+    }
+
+    /**
+     * @param combination Platform and framework to run
+     * @param part What part of the phase the process runs, e.g. <code>shard-1</code>, or null for all of it
+     * @param files Test files relative to the workspace
+     * @param where Selection of the tests to run, or null
+     * @param testList File listing the tests to run, relative to the workspace, or null
+     */
+    private NUnitInvocation createInvocation(Combination combination, String part, List<String> files, String where, String testList) {
+        List<String> options = new ArrayList<String>(selectionOptions);
+        if (where != null) {
+            // Run or leave out the tests that failed before.
+            options.add(NUnitBuilder.convertArgumentWithQuote("where", where));
+        }
+        if (testList != null) {
+            // Long test lists are read from a file rather than passed on the command line.
+            options.add(NUnitBuilder.convertArgumentWithQuote("testlist", testList));
+        }
+        options.addAll(combination.getOptions());
+        options.addAll(runOptions);
+        List<String> args = NUnitBuilder.getArguments(pathToNUnit, files, options);
+        String name = join(combination.getName(), part);
+        // Unnamed runs write NUnit's default result file, or the one of the manual command line.
+        String resultFile = name != null ? RESULT_FILE_PREFIX + "-" + join(combination.getName(), part != null ? part.replace("-", "") : null) + ".xml" : manualResultFile;
+        if (name != null) {
+            args.add(NUnitBuilder.convertArgumentWithQuote("result", resultFile));
+        }
+        return new NUnitInvocation(name, args, resultFile, combination.getName());
+    }
+
+    private static String join(String first, String second) {
+        if (first == null) {
+            return second;
+        }
+        return second != null ? first + "-" + second : first;
+    }
+
+    /**
+     * Attaches the merged results to the build. Per-assembly durations are also kept for
+     * balancing later shards.
+     */
+    private void recordResults(Run<?, ?> run, TaskListener listener, NUnitOutcome outcome) {
+        NUnitResultSummary summary = outcome.getSummary();
+        if (summary == null) {
+            return;
+        }
+        if (!summary.getFlakyTests().isEmpty()) {
+            listener.getLogger().println(summary.getFlakyTests().size() + " tests passed only on retry: " + StringUtils.join(summary.getFlakyTests(), ", "));
+        }
+        NUnitResultAction.addTo(run, summary, outcome.getCombinations());
+        if (isWholeSuite() && !summary.getAssemblyDurations().isEmpty()) {
+            NUnitAssemblyDurationsAction.addTo(run, summary.getAssemblyDurations());
+        }
+        recordTestDurations(run, listener, summary.getTestDurations());
+    }
+
+    /**
+     * Reports the tests that took longer than usual, then adds the durations to the job's history.
+     */
+    private void recordTestDurations(Run<?, ?> run, TaskListener listener, Map<String, Long> durations) {
+        if (durations.isEmpty()) {
+            return;
+        }
+        try {
+            if (slowTestPercentile > 0) {
+                NUnitDurationHistory history = NUnitDurationHistory.load(run.getParent());
+                List<NUnitDurationHistory.SlowTest> slowTests = history.findSlowTests(durations, slowTestPercentile, MIN_DURATION_SAMPLES, MIN_SLOW_TEST_DURATION);
+                if (!slowTests.isEmpty()) {
+                    listener.getLogger().println(slowTests.size() + " tests took longer than the " + slowTestPercentile + "th percentile of their history");
+                    NUnitSlowTestsAction.addTo(run, slowTestPercentile, slowTests);
+                }
+            }
+            NUnitDurationHistory.append(run.getParent(), run.getNumber(), durations);
+        } catch (IOException e) {
+            Util.displayIOException(e, listener);
+            e.printStackTrace(listener.error("Failed to record NUnit test durations"));
+        }
+    }
+
+    /**
+     * Exports the coverage file NUnit reported and summarizes the coverage reports, which
+     * are read on the agent and not kept.
+     */
+    private void recordCoverage(Run<?, ?> run, FilePath workspace, TaskListener listener, NUnitOutcome outcome) throws InterruptedException {
+        List<String> reports = new ArrayList<String>();
+        try {
+            if (outcome.getCoverageFile() != null) {
+                String coverageFile = NUnitBuilder.relativize(workspace, workspace.child(outcome.getCoverageFile()));
+                listener.getLogger().println("Coverage file: " + coverageFile);
+                run.replaceAction(new NUnitBuilder.AddNUnitEnvVarsAction(coverageFile));
+                if (coverageFile.toLowerCase().endsWith(".xml")) {
+                    reports.add(coverageFile);
+                }
+            }
+            if (coverageReports != null) {
+                for (FilePath report : workspace.list(coverageReports)) {
+                    String relative = NUnitBuilder.relativize(workspace, report);
+                    if (!reports.contains(relative)) {
+                        reports.add(relative);
+                    }
+                }
+            }
+            if (reports.isEmpty()) {
+                return;
+            }
+            NUnitCoverageSummary coverage = workspace.act(new NUnitCoverageParser(reports, listener));
+            if (coverage == null || coverage.isEmpty()) {
+                listener.getLogger().println("No coverage found in " + StringUtils.join(reports, ", "));
+                return;
+            }
+            NUnitCoverageSummary.AssemblyCoverage total = coverage.getTotal();
+            listener.getLogger().println(String.format("Coverage of %d assemblies: lines %.1f%% (%d/%d), branches %.1f%% (%d/%d)",
+                    coverage.getAssemblies().size(), total.getLineRate(), total.getLinesCovered(), total.getLinesTotal(),
+                    total.getBranchRate(), total.getBranchesCovered(), total.getBranchesTotal()));
+            NUnitCoverageAction.addTo(run, coverage);
+        } catch (IOException e) {
+            // Coverage is informational; failing to read it does not fail the step.
+            Util.displayIOException(e, listener);
+            e.printStackTrace(listener.error("Failed to summarize NUnit coverage"));
+        }
+    }
+
+    private void recordTimings(Run<?, ?> run, TaskListener listener) {
+        listener.getLogger().println("NUnit timings: " + timings);
+        NUnitTimingsAction.addTo(run, timings);
+        NUnitMetrics.record(timings);
+    }
+
+    /**
+     * Stores the hashes of the test files that ran, if the build is still green.
+     */
+    private void recordHashes(Run<?, ?> run) throws IOException {
+        Result result = run.getResult();
+        if (result != null && result.isWorseThan(Result.SUCCESS)) {
+            return;
+        }
+        Map<String, String> ran = new HashMap<String, String>();
+        for (String target : targets) {
+            if (hashes.containsKey(target)) {
+                ran.put(target, hashes.get(target));
+            }
+        }
+        AssemblyHashStore.update(run.getParent(), ran, run.getNumber());
+    }
+
+    /**
+     * Streams the result file of each process on the agent into a compact summary and adds
+     * it to the outcome of the phase, which judges the exit code of the process by it.
+     *
+     * @param invocations
+     * @param workspace
+     * @param listener
+     * @param outcome Outcome of the phase
+     * @throws InterruptedException
+     */
+    public static void readResults(List<NUnitInvocation> invocations, FilePath workspace, TaskListener listener, NUnitOutcome outcome) throws InterruptedException {
+        Map<String, NUnitResultSummary> byCombination = new LinkedHashMap<String, NUnitResultSummary>();
+        for (NUnitInvocation invocation : invocations) {
+            String resultFile = getResultFiles(Collections.singletonList(invocation)).get(0);
+            NUnitResultSummary summary;
+            try {
+                summary = workspace.act(new NUnitResultParser(Collections.singletonList(resultFile)));
+            } catch (IOException e) {
+                Util.displayIOException(e, listener);
+                e.printStackTrace(listener.error("Failed to read NUnit results from " + resultFile));
+                outcome.addError("unreadable result file " + resultFile);
+                summary = null;
+            }
+            if (summary == null) {
+                listener.getLogger().println("No NUnit result file " + resultFile);
+            }
+            outcome.addResults(invocation.getName(), invocation.getCombination(), summary);
+
+            if (summary != null) {
+                NUnitResultSummary total = byCombination.get(invocation.getCombination());
+                if (total == null) {
+                    total = new NUnitResultSummary();
+                    byCombination.put(invocation.getCombination(), total);
+                }
+                total.add(summary);
+            }
+        }
+        for (Map.Entry<String, NUnitResultSummary> combination : byCombination.entrySet()) {
+            String label = combination.getKey() != null ? " of " + combination.getKey() : "";
+            NUnitResultSummary summary = combination.getValue();
+            listener.getLogger().println(String.format("NUnit results%s: %d total, %d passed, %d failed, %d skipped, %d inconclusive", label,
+                    summary.getTotal(), summary.getPassed(), summary.getFailed(), summary.getSkipped(), summary.getInconclusive()));
+        }
+    }
+
+    /**
+     * Remembers the result files of a phase for merging and keeps them compressed on the build, if enabled.
+     *
+     * @param run
+     * @param invocations
+     * @param workspace
+     * @param listener
+     * @throws InterruptedException
+     */
+    public void keepResults(Run<?, ?> run, List<NUnitInvocation> invocations, FilePath workspace, TaskListener listener) throws InterruptedException {
+        resultFiles.addAll(getResultFiles(invocations));
+        for (NUnitInvocation invocation : invocations) {
+            resultCombinations.add(invocation.getCombination());
+        }
+        if (!archiveResults) {
+            return;
+        }
+        try {
+            for (String resultFile : getResultFiles(invocations)) {
+                NUnitResultArchive archive = NUnitResultArchive.archive(run, workspace, resultFile);
+                if (archive != null) {
+                    listener.getLogger().println(String.format("Archived %s: %d fixtures, %d bytes compressed",
+                            resultFile, archive.getFixtures().size(), archive.getSize()));
+                    NUnitResultArchiveAction.addTo(run);
+                }
+            }
+        } catch (IOException e) {
+            Util.displayIOException(e, listener);
+            e.printStackTrace(listener.error("Failed to archive NUnit results"));
+        }
+    }
+
+    /**
+     * Streams the result files of all phases into one file, in the order they were written,
+     * for publishers that expect a single result file.
+     */
+    private void mergeResults(FilePath workspace, TaskListener listener) throws InterruptedException {
+        if (mergeResults == null) {
+            return;
+        }
+        try {
+            Integer tests = workspace.act(new NUnitResultMerger(resultFiles, resultCombinations, mergeResults, mergeDuplicates));
+            if (tests == null) {
+                listener.getLogger().println("No NUnit result files found to merge into " + mergeResults);
+            } else {
+                listener.getLogger().println(String.format("Merged the NUnit result files into %s: %d tests", mergeResults, tests));
+            }
+        } catch (IOException e) {
+            Util.displayIOException(e, listener);
+            e.printStackTrace(listener.error("Failed to merge NUnit results into " + mergeResults));
+        }
+    }
+
+    /**
+     * Deletes the test list files of the split test files, which are only needed while the suite runs.
+     */
+    private void deleteTestLists(FilePath workspace, TaskListener listener) throws InterruptedException {
+        for (TestGroup group : testGroups) {
+            try {
+                workspace.child(group.getTestList()).delete();
+            } catch (IOException e) {
+                Util.displayIOException(e, listener);
+            }
+        }
+    }
+
+    /**
+     * Deletes results left over from an earlier build, so they are not read as this build's.
+     *
+     * @param invocations
+     * @param workspace
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void deleteResults(List<NUnitInvocation> invocations, FilePath workspace) throws IOException, InterruptedException {
+        for (String resultFile : getResultFiles(invocations)) {
+            workspace.child(resultFile).delete();
+        }
+    }
+
+    /**
+     * @param invocations
+     * @return result file of each invocation, relative to the workspace
+     */
+    private static List<String> getResultFiles(List<NUnitInvocation> invocations) {
+        List<String> resultFiles = new ArrayList<String>();
+        for (NUnitInvocation invocation : invocations) {
+            resultFiles.add(invocation.getResultFile() != null ? invocation.getResultFile() : DEFAULT_RESULT_FILE);
+        }
+        return resultFiles;
+    }
+
+    /**
+     * Some of the tests of a test file too large for one process, found with <code>--explore</code>.
+     */
+    public static final class TestGroup implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String testFile;
+        private final String testList;
+        private final int testCount;
+
+        /**
+         * @param testFile Test file relative to the workspace
+         * @param testList File listing the full names of the tests of the group, relative to the workspace
+         * @param testCount Number of tests in the list
+         */
+        public TestGroup(String testFile, String testList, int testCount) {
+            this.testFile = testFile;
+            this.testList = testList;
+            this.testCount = testCount;
+        }
+
+        public String getTestFile() {
+            return testFile;
+        }
+
+        public String getTestList() {
+            return testList;
+        }
+
+        public int getTestCount() {
+            return testCount;
+        }
+    }
+
+    /**
+     * A platform and framework to run the tests on.
+     */
+    public static final class Combination implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final List<String> options;
+
+        /**
+         * @param name Name used for its processes and result files, or null when the step runs only one combination
+         * @param options nunit3-console arguments selecting the platform and framework
+         */
+        public Combination(String name, List<String> options) {
+            this.name = name;
+            this.options = new ArrayList<String>(options);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getOptions() {
+            return Collections.unmodifiableList(options);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import hudson.model.Action;
+import hudson.model.Run;
+
+/**
+ * Tests of a build that took longer than a percentile of their history, shown on the build page.
+ */
+public class NUnitSlowTestsAction implements Action {
+
+    /** Slow tests kept for display, the largest slowdowns. */
+    static final int MAX_SLOW_TESTS = 50;
+
+    private final int percentile;
+
+    private final List<NUnitDurationHistory.SlowTest> slowTests;
+
+    public NUnitSlowTestsAction(int percentile, List<NUnitDurationHistory.SlowTest> slowTests) {
+        this.percentile = percentile;
+        this.slowTests = new ArrayList<>(slowTests.subList(0, Math.min(MAX_SLOW_TESTS, slowTests.size())));
+    }
+
+    public int getPercentile() {
+        return percentile;
+    }
+
+    public List<NUnitDurationHistory.SlowTest> getSlowTests() {
+        return Collections.unmodifiableList(slowTests);
+    }
+
+    public String getDisplayName() {
+        return Messages.NUnitSlowTestsAction_DisplayName();
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    /**
+     * Attaches the slow tests to the build, adding them to those of earlier NUnit steps.
+     *
+     * @param run Build
+     * @param percentile Percentile the tests were judged by
+     * @param slowTests Slow tests of this step, the largest slowdown first
+     */
+    public static void addTo(Run<?, ?> run, int percentile, List<NUnitDurationHistory.SlowTest> slowTests) {
+        synchronized (run) {
+            NUnitSlowTestsAction existing = run.getAction(NUnitSlowTestsAction.class);
+            if (existing == null) {
+                run.addAction(new NUnitSlowTestsAction(percentile, slowTests));
+                return;
+            }
+            for (NUnitDurationHistory.SlowTest slowTest : slowTests) {
+                if (existing.slowTests.size() >= MAX_SLOW_TESTS) {
+                    break;
+                }
+                existing.slowTests.add(slowTest);
+            }
+        }
+    }
+}
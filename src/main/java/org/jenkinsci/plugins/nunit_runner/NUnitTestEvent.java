@@ -0,0 +1,150 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A test event reported by nunit3-console while it runs, read from the
+ * TeamCity service messages it prints with <code>--teamcity</code>.
+ */
+public class NUnitTestEvent {
+
+    public static final String SERVICE_MESSAGE_PREFIX = "##teamcity[";
+
+    public enum Type {
+        SUITE_STARTED("testSuiteStarted"),
+        SUITE_FINISHED("testSuiteFinished"),
+        TEST_STARTED("testStarted"),
+        TEST_FINISHED("testFinished"),
+        TEST_FAILED("testFailed"),
+        TEST_IGNORED("testIgnored");
+
+        private final String messageName;
+
+        Type(String messageName) {
+            this.messageName = messageName;
+        }
+
+        /* package */ static Type forMessageName(String messageName) {
+            for (Type type : values()) {
+                if (type.messageName.equals(messageName)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Type type;
+    private final Map<String, String> attributes;
+
+    private NUnitTestEvent(Type type, Map<String, String> attributes) {
+        this.type = type;
+        this.attributes = attributes;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getName() {
+        return attributes.get("name");
+    }
+
+    public String getMessage() {
+        return attributes.get("message");
+    }
+
+    public String getDetails() {
+        return attributes.get("details");
+    }
+
+    /**
+     * @return test duration in milliseconds, or -1 when not reported
+     */
+    public long getDuration() {
+        String duration = attributes.get("duration");
+        if (duration != null) {
+            try {
+                return Long.parseLong(duration);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a line such as <code>##teamcity[testStarted name='Ns.Fixture.Test' flowId='0-1001']</code>.
+     *
+     * @param line Console line, without the line terminator
+     * @return the event, or null when the line is not a test service message
+     */
+    public static NUnitTestEvent parse(String line) {
+        int start = line.indexOf(SERVICE_MESSAGE_PREFIX);
+        if (start < 0) {
+            return null;
+        }
+        int pos = start + SERVICE_MESSAGE_PREFIX.length();
+        int nameEnd = pos;
+        while (nameEnd < line.length() && line.charAt(nameEnd) != ' ' && line.charAt(nameEnd) != ']') {
+            nameEnd++;
+        }
+        Type type = Type.forMessageName(line.substring(pos, nameEnd));
+        if (type == null) {
+            return null;
+        }
+
+        Map<String, String> attributes = new HashMap<>();
+        pos = nameEnd;
+        while (pos < line.length()) {
+            char c = line.charAt(pos);
+            if (c == ']') {
+                break;
+            }
+            if (c == ' ') {
+                pos++;
+                continue;
+            }
+            int eq = line.indexOf("='", pos);
+            if (eq < 0) {
+                return null;
+            }
+            String key = line.substring(pos, eq);
+            StringBuilder value = new StringBuilder();
+            pos = eq + 2;
+            while (pos < line.length() && line.charAt(pos) != '\'') {
+                char v = line.charAt(pos++);
+                if (v == '|' && pos < line.length()) {
+                    value.append(unescape(line.charAt(pos++)));
+                } else {
+                    value.append(v);
+                }
+            }
+            if (pos >= line.length()) {
+                return null;
+            }
+            attributes.put(key, value.toString());
+            pos++;
+        }
+        return new NUnitTestEvent(type, attributes);
+    }
+
+    private static char unescape(char c) {
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            default:
+                // |' || |[ |] stand for the character itself.
+                return c;
+        }
+    }
+
+    /**
+     * Receives test events as nunit3-console reports them.
+     */
+    public interface Listener {
+        void onEvent(NUnitTestEvent event);
+    }
+}
@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in each phase of an NUnit step, summed over its runs and retries.
+ */
+public class NUnitTimings implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Phase {
+        TEST_FILES("test-files", "test file resolution"),
+        TOOL("tool", "tool resolution"),
+        PLANNING("planning", "planning"),
+        EXPLORE("explore", "test discovery"),
+        BATCH_FILES("batch-files", "batch file creation"),
+        STARTUP("startup", "process startup"),
+        EXECUTION("execution", "test execution"),
+        RESULTS("results", "result handling");
+
+        private final String id;
+        private final String displayName;
+
+        Phase(String id, String displayName) {
+            this.id = id;
+            this.displayName = displayName;
+        }
+
+        /**
+         * @return name used in metric names
+         */
+        public String getId() {
+            return id;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private final EnumMap<Phase, Long> millis = new EnumMap<Phase, Long>(Phase.class);
+
+    /**
+     * Adds the time since <code>start</code> to the phase.
+     *
+     * @param phase
+     * @param start {@link System#nanoTime()} when the phase started
+     * @return {@link System#nanoTime()} now, the start of the next phase
+     */
+    public long record(Phase phase, long start) {
+        long now = System.nanoTime();
+        add(phase, TimeUnit.NANOSECONDS.toMillis(now - start));
+        return now;
+    }
+
+    /**
+     * @param phase
+     * @param duration Milliseconds to add to the phase
+     */
+    public void add(Phase phase, long duration) {
+        Long total = millis.get(phase);
+        millis.put(phase, total != null ? total + duration : duration);
+    }
+
+    public void add(NUnitTimings other) {
+        for (Map.Entry<Phase, Long> entry : other.millis.entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return milliseconds by phase, in phase order, only for phases that happened
+     */
+    public Map<Phase, Long> getMillis() {
+        return Collections.unmodifiableMap(millis);
+    }
+
+    public boolean isEmpty() {
+        return millis.isEmpty();
+    }
+
+    /**
+     * @return e.g. <code>test file resolution 12 ms, tool resolution 3 ms</code>
+     */
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        for (Map.Entry<Phase, Long> entry : millis.entrySet()) {
+            if (buf.length() > 0) {
+                buf.append(", ");
+            }
+            buf.append(entry.getKey().getDisplayName()).append(' ').append(entry.getValue()).append(" ms");
+        }
+        return buf.toString();
+    }
+}
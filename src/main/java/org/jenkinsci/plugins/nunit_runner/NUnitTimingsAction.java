@@ -0,0 +1,64 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.util.Map;
+
+import hudson.model.Action;
+import hudson.model.Run;
+
+/**
+ * Where the NUnit steps of a build spent their time, shown on the build page.
+ */
+public class NUnitTimingsAction implements Action {
+
+    private final NUnitTimings timings;
+
+    public NUnitTimingsAction(NUnitTimings timings) {
+        this.timings = timings;
+    }
+
+    /**
+     * @return milliseconds by phase, summed over the NUnit steps of the build
+     */
+    public Map<NUnitTimings.Phase, Long> getMillis() {
+        return timings.getMillis();
+    }
+
+    public long getTotalMillis() {
+        long total = 0;
+        for (long millis : timings.getMillis().values()) {
+            total += millis;
+        }
+        return total;
+    }
+
+    public String getDisplayName() {
+        return Messages.NUnitTimingsAction_DisplayName();
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    /**
+     * Attaches the timings to the build, adding them to those of earlier NUnit steps.
+     *
+     * @param run Build
+     * @param timings Timings of this step
+     */
+    public static void addTo(Run<?, ?> run, NUnitTimings timings) {
+        synchronized (run) {
+            NUnitTimingsAction existing = run.getAction(NUnitTimingsAction.class);
+            if (existing == null) {
+                NUnitTimings copy = new NUnitTimings();
+                copy.add(timings);
+                run.addAction(new NUnitTimingsAction(copy));
+            } else {
+                existing.timings.add(timings);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits test assemblies into shards that run as separate nunit3-console processes.
+ */
+public final class ShardPlanner {
+
+    private ShardPlanner() {
+    }
+
+    /**
+     * Distributes targets round-robin, so shards differ in size by one at most.
+     *
+     * @param targets Test assemblies, in a stable order
+     * @param shardCount Requested number of shards
+     * @return non-empty shards, never more than targets
+     */
+    public static List<List<String>> partition(List<String> targets, int shardCount) {
+        List<List<String>> shards = createShards(targets, shardCount);
+        for (int i = 0; i < targets.size(); i++) {
+            shards.get(i % shards.size()).add(targets.get(i));
+        }
+        return shards;
+    }
+
+    /**
+     * Assigns targets longest first, each to the shard with the least total duration so far.
+     * Targets without a recorded duration are estimated at the average of the known ones.
+     * Without any history this falls back to {@link #partition(List, int)}.
+     *
+     * @param targets Test assemblies, in a stable order
+     * @param durations Known durations by target, in milliseconds
+     * @param shardCount Requested number of shards
+     * @return non-empty shards, never more than targets
+     */
+    public static List<List<String>> balance(List<String> targets, Map<String, Long> durations, int shardCount) {
+        long known = 0;
+        int knownCount = 0;
+        for (String target : targets) {
+            Long duration = durations.get(target);
+            if (duration != null) {
+                known += duration;
+                knownCount++;
+            }
+        }
+        if (knownCount == 0) {
+            return partition(targets, shardCount);
+        }
+
+        final long[] estimates = new long[targets.size()];
+        List<Integer> order = new ArrayList<>(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            Long duration = durations.get(targets.get(i));
+            estimates[i] = duration != null ? duration : known / knownCount;
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int c = Long.compare(estimates[b], estimates[a]);
+                return c != 0 ? c : Integer.compare(a, b);
+            }
+        });
+
+        List<List<String>> shards = createShards(targets, shardCount);
+        long[] loads = new long[shards.size()];
+        for (int index : order) {
+            int lightest = 0;
+            for (int s = 1; s < loads.length; s++) {
+                if (loads[s] < loads[lightest] || (loads[s] == loads[lightest] && shards.get(s).size() < shards.get(lightest).size())) {
+                    lightest = s;
+                }
+            }
+            shards.get(lightest).add(targets.get(index));
+            loads[lightest] += estimates[index];
+        }
+        for (List<String> shard : shards) {
+            Collections.sort(shard);
+        }
+        return shards;
+    }
+
+    private static List<List<String>> createShards(List<String> targets, int shardCount) {
+        int count = Math.max(1, Math.min(shardCount, targets.size()));
+        List<List<String>> shards = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            shards.add(new ArrayList<String>());
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,213 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.lang.StringUtils;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+import org.apache.tools.ant.types.selectors.TokenizedPath;
+import org.apache.tools.ant.types.selectors.TokenizedPattern;
+
+/**
+ * Resolves all <code>testFiles</code> patterns on the agent with one walk of the workspace.
+ * <p>
+ * Directories no pattern can match below, and directories excluded by Ant's default
+ * excludes (<code>.git</code>, <code>.svn</code>, ...), are never listed. Symbolic links
+ * are followed like {@link DirectoryScanner} does, but each target only once. Pattern syntax
+ * is the same as {@link hudson.FilePath#list(String)}.
+ * <p>
+ * With an index file, the walk reuses the listings of directories that have not changed
+ * since the previous build, see {@link WorkspaceIndex}.
+ */
+public class TestFilesResolver extends MasterToSlaveFileCallable<List<String>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> patterns;
+
+    private final String indexFile;
+
+    /**
+     * @param patterns Ant style patterns relative to the workspace, macros already expanded
+     */
+    public TestFilesResolver(List<String> patterns) {
+        this(patterns, null);
+    }
+
+    /**
+     * @param patterns Ant style patterns relative to the workspace, macros already expanded
+     * @param indexFile Workspace index relative to the workspace, or null to always walk everything
+     */
+    public TestFilesResolver(List<String> patterns, String indexFile) {
+        this.patterns = patterns;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * @return matching files relative to the workspace with '/' separators, sorted and without duplicates
+     */
+    public List<String> invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        Set<String> files = new TreeSet<>();
+        if (!workspace.isDirectory()) {
+            return new ArrayList<>(files);
+        }
+
+        WorkspaceIndex previous = null;
+        WorkspaceIndex next = null;
+        File index = null;
+        if (indexFile != null) {
+            index = new File(workspace, indexFile);
+            String key = StringUtils.join(patterns, "\n");
+            previous = WorkspaceIndex.load(index, key);
+            next = new WorkspaceIndex(key);
+        }
+
+        new Walk(compile(patterns), compile(defaultExcludes()), previous, next).directory(workspace, new TokenizedPath(""), "", false, files);
+
+        if (next != null) {
+            next.save(index);
+        }
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * Shared by every directory of one walk.
+     */
+    private static final class Walk {
+
+        private final List<TokenizedPattern> includes;
+        private final List<TokenizedPattern> excludes;
+        private final List<TokenizedPattern> excludedDirectories = new ArrayList<>();
+        private final Set<String> visitedLinks = new HashSet<>();
+        private final WorkspaceIndex previous;
+        private final WorkspaceIndex next;
+
+        Walk(List<TokenizedPattern> includes, List<TokenizedPattern> excludes, WorkspaceIndex previous, WorkspaceIndex next) {
+            this.includes = includes;
+            this.excludes = excludes;
+            this.previous = previous;
+            this.next = next;
+            for (TokenizedPattern exclude : excludes) {
+                if (exclude.endsWith(SelectorUtils.DEEP_TREE_MATCH)) {
+                    excludedDirectories.add(exclude.withoutLastToken());
+                }
+            }
+        }
+
+        /**
+         * @param linked Whether the directory was reached through a symbolic link, whose target
+         *               can change without a trace in the times of the directories recorded
+         */
+        void directory(File dir, TokenizedPath path, String relative, boolean linked, Set<String> files) throws IOException, InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            WorkspaceIndex.Entry entry = previous != null && !linked ? previous.get(relative, dir.lastModified()) : null;
+            if (entry == null) {
+                entry = list(dir, path, linked);
+            }
+            if (next != null) {
+                next.put(relative, entry);
+            }
+
+            for (String name : entry.getFiles()) {
+                files.add(relative.isEmpty() ? name : relative + '/' + name);
+            }
+            for (String name : entry.getDirectories()) {
+                File child = new File(dir, name);
+                directory(child, new TokenizedPath(path, name), relative.isEmpty() ? name : relative + '/' + name,
+                        linked || Files.isSymbolicLink(child.toPath()), files);
+            }
+        }
+
+        private WorkspaceIndex.Entry list(File dir, TokenizedPath path, boolean linked) throws IOException {
+            long listed = System.currentTimeMillis();
+            long modified = dir.lastModified();
+            String[] children = dir.list();
+            if (children == null) {
+                throw new IOException("Failed to list " + dir);
+            }
+
+            List<String> matched = new ArrayList<>();
+            List<String> directories = new ArrayList<>();
+            boolean links = false;
+            for (String name : children) {
+                File child = new File(dir, name);
+                TokenizedPath childPath = new TokenizedPath(path, name);
+
+                if (child.isDirectory()) {
+                    if (isExcludedDirectory(childPath) || !couldHoldIncluded(childPath)) {
+                        continue;
+                    }
+                    if (Files.isSymbolicLink(child.toPath())) {
+                        links = true;
+                        if (!visitedLinks.add(child.getCanonicalPath())) {
+                            continue;
+                        }
+                    }
+                    directories.add(name);
+                } else if (matches(includes, childPath) && !matches(excludes, childPath)) {
+                    matched.add(name);
+                }
+            }
+
+            boolean trusted = !links && !linked && listed - modified >= WorkspaceIndex.RACY_INTERVAL;
+            return new WorkspaceIndex.Entry(trusted ? modified : WorkspaceIndex.UNTRUSTED, matched, directories);
+        }
+
+        private boolean couldHoldIncluded(TokenizedPath path) {
+            for (TokenizedPattern include : includes) {
+                if (include.matchStartOf(path, true)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isExcludedDirectory(TokenizedPath path) {
+            return matches(excludedDirectories, path);
+        }
+
+        private static boolean matches(List<TokenizedPattern> patterns, TokenizedPath path) {
+            for (TokenizedPattern pattern : patterns) {
+                if (pattern.matchPath(path, true)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static List<String> defaultExcludes() {
+        List<String> excludes = new ArrayList<>();
+        for (String exclude : DirectoryScanner.getDefaultExcludes()) {
+            excludes.add(exclude);
+        }
+        return excludes;
+    }
+
+    /**
+     * Normalizes separators the way Ant does and tokenizes each pattern once.
+     */
+    private static List<TokenizedPattern> compile(List<String> patterns) {
+        List<TokenizedPattern> compiled = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) {
+            String normalized = pattern.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+            if (normalized.endsWith(File.separator)) {
+                normalized += SelectorUtils.DEEP_TREE_MATCH;
+            }
+            compiled.add(new TokenizedPattern(normalized));
+        }
+        return compiled;
+    }
+}
@@ -0,0 +1,190 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Result of an earlier {@link TestFilesResolver} walk, kept in the workspace so the
+ * next walk only lists directories that changed since.
+ * <p>
+ * For every directory visited it records the modification time, the matching files and
+ * the subdirectories worth descending into. Creating, deleting or renaming an entry
+ * updates the modification time of its directory, so an unchanged time means the
+ * recorded names are still right. Directories modified shortly before they were listed,
+ * holding symbolic links or reached through one are always listed again.
+ */
+public class WorkspaceIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(WorkspaceIndex.class.getName());
+
+    /** Index file relative to the workspace. */
+    public static final String INDEX_FILE = ".nunit/testfiles.index";
+
+    private static final int MAGIC = 0x4e55494e;
+    private static final int VERSION = 1;
+
+    /** Marks an entry that must not be reused. */
+    /* package */ static final long UNTRUSTED = -1;
+
+    /**
+     * Changes within this long of a listing may not have moved the timestamp yet
+     * on file systems with coarse time resolution.
+     */
+    /* package */ static final long RACY_INTERVAL = 2000;
+
+    private final String key;
+    private final Map<String, Entry> entries;
+
+    /**
+     * @param key Identifies the patterns the index was built for
+     */
+    public WorkspaceIndex(String key) {
+        this(key, new HashMap<String, Entry>());
+    }
+
+    private WorkspaceIndex(String key, Map<String, Entry> entries) {
+        this.key = key;
+        this.entries = entries;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @param relative Directory relative to the workspace, "" for the workspace itself
+     * @param modified Current modification time of the directory
+     * @return the recorded entry if the directory is unchanged, otherwise null
+     */
+    public Entry get(String relative, long modified) {
+        Entry entry = entries.get(relative);
+        if (entry == null || entry.modified == UNTRUSTED || entry.modified != modified) {
+            return null;
+        }
+        return entry;
+    }
+
+    public void put(String relative, Entry entry) {
+        entries.put(relative, entry);
+    }
+
+    /**
+     * @param file Index file
+     * @param key Patterns the caller resolves
+     * @return the stored index, or null if missing, unreadable or built for other patterns
+     */
+    public static WorkspaceIndex load(File file, String key) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            int count = in.readInt();
+            Map<String, Entry> entries = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String relative = in.readUTF();
+                long modified = in.readLong();
+                List<String> files = readNames(in);
+                List<String> directories = readNames(in);
+                entries.put(relative, new Entry(modified, files, directories));
+            }
+            return new WorkspaceIndex(key, entries);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Ignoring unreadable workspace index " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file first, so a reader never sees half of it.
+     *
+     * @param file Index file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(key);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().modified);
+                    writeNames(out, entry.getValue().files);
+                    writeNames(out, entry.getValue().directories);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static List<String> readNames(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+
+    private static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    /**
+     * What a walk found in one directory.
+     */
+    public static final class Entry {
+
+        private final long modified;
+        private final List<String> files;
+        private final List<String> directories;
+
+        /**
+         * @param modified Modification time of the directory when listed, or {@link #UNTRUSTED}
+         * @param files Names of the matching files
+         * @param directories Names of the subdirectories to descend into
+         */
+        public Entry(long modified, List<String> files, List<String> directories) {
+            this.modified = modified;
+            this.files = Collections.unmodifiableList(files);
+            this.directories = Collections.unmodifiableList(directories);
+        }
+
+        public List<String> getFiles() {
+            return files;
+        }
+
+        public List<String> getDirectories() {
+            return directories;
+        }
+    }
+}
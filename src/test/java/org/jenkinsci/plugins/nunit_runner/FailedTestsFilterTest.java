@@ -0,0 +1,53 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class FailedTestsFilterTest {
+
+    @Test
+    public void testFilter_singleTest() {
+        String filter = NUnitBuilder.getFailedTestsFilter(Collections.singletonList("Ns.Fixture.Test"));
+        assertThat(filter, is("test == 'Ns.Fixture.Test'"));
+    }
+
+    @Test
+    public void testFilter_severalTests() {
+        String filter = NUnitBuilder.getFailedTestsFilter(Arrays.asList("Ns.Fixture.A", "Ns.Fixture.B(1,2)"));
+        assertThat(filter, is("test == 'Ns.Fixture.A' || test == 'Ns.Fixture.B(1,2)'"));
+    }
+
+    @Test
+    public void testFilter_escapesQuotes() {
+        String filter = NUnitBuilder.getFailedTestsFilter(Collections.singletonList("Ns.Fixture.Test('a\\b')"));
+        assertThat(filter, is("test == 'Ns.Fixture.Test(\\'a\\\\b\\')'"));
+    }
+
+    @Test
+    public void testFilter_unquotableName() {
+        assertThat(NUnitBuilder.getFailedTestsFilter(Collections.singletonList("Ns.Fixture.Test(\"a\")")), nullValue());
+        assertThat(NUnitBuilder.getFailedTestsFilter(Collections.singletonList("Ns.Fixture.Test(\"100%\")")), nullValue());
+    }
+
+    @Test
+    public void testFilter_quotedForShell() {
+        String filter = NUnitBuilder.getFailedTestsFilter(Arrays.asList("Ns.Fixture$Nested.Test", "Ns.Fixture.Test('`id`')"));
+        String script = NUnitBuilder.concatShellString(Arrays.asList("nunit3-console", NUnitBuilder.convertArgumentWithQuote("where", filter)));
+        assertThat(script, is("'nunit3-console' '/where:\"test == '\\''Ns.Fixture$Nested.Test'\\'' || test == '\\''Ns.Fixture.Test(\\'\\''`id`\\'\\'')'\\''\"'"));
+    }
+
+    @Test
+    public void testFilter_tooLong() {
+        String[] names = new String[200];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "Some.Long.Namespace.Fixture.Test" + i;
+        }
+        assertThat(NUnitBuilder.getFailedTestsFilter(Arrays.asList(names)), nullValue());
+    }
+}
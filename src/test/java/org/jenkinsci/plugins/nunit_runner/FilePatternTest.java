@@ -11,6 +11,8 @@ import java.io.File;
 import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.is;
 
 public class FilePatternTest {
@@ -51,4 +53,38 @@ public class FilePatternTest {
     // Bunch of tests from here:
     // https://github.com/jenkinsci/vstestrunner-plugin/blob/master/src/test/java/org/jenkinsci/plugins/vstest_runner/FilePatternTest.java
     // But this doesn't care about trx, so removed.
+
+    private List<String> resolve(String testFiles) throws Exception {
+        NUnitBuilder builder = new NUnitBuilder();
+        builder.setTestFiles(testFiles);
+        return builder.getTestFiles(workspace, new EnvVars());
+    }
+
+    @Test
+    public void testMultiplePatterns() throws Exception {
+        createFile(workspace, "a.Tests.dll");
+        createFile(subfolder, "b.Tests.dll");
+        createFile(subfolder, "b.dll");
+
+        List<String> files = resolve("*.Tests.dll\nsubfolder/*.dll **\\b.Tests.dll");
+        assertThat(files, contains("a.Tests.dll", "subfolder/b.Tests.dll", "subfolder/b.dll"));
+    }
+
+    @Test
+    public void testCommaSeparatedPatterns() throws Exception {
+        createFile(workspace, "a.Tests.dll");
+        createFile(subfolder, "b.Tests.dll");
+
+        List<String> files = resolve("a.Tests.dll,subfolder/b.Tests.dll");
+        assertThat(files, contains("a.Tests.dll", "subfolder/b.Tests.dll"));
+    }
+
+    @Test
+    public void testDefaultExcludes() throws Exception {
+        FilePath git = workspace.child(".git");
+        git.mkdirs();
+        createFile(git, "c.Tests.dll");
+
+        assertThat(resolve("**/*.Tests.dll"), is(empty()));
+    }
 }
@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class NUnitConcurrencyTest {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @Test
+    public void testCompute_agentsPerTestFileWorkersFromRemainingCores() {
+        NUnitConcurrency concurrency = NUnitConcurrency.compute(new NUnitConcurrency.Hardware(16, 32 * GB), 1, 4, null);
+        assertThat(concurrency.getAgents(), is(4));
+        assertThat(concurrency.getWorkers(), is(4));
+    }
+
+    @Test
+    public void testCompute_coresSharedWithRunningProcesses() {
+        NUnitConcurrency concurrency = NUnitConcurrency.compute(new NUnitConcurrency.Hardware(16, 32 * GB), 4, 10, null);
+        assertThat(concurrency.getAgents(), is(4));
+        assertThat(concurrency.getWorkers(), is(1));
+    }
+
+    @Test
+    public void testCompute_agentsLimitedByMemory() {
+        NUnitConcurrency concurrency = NUnitConcurrency.compute(new NUnitConcurrency.Hardware(8, GB), 1, 8, null);
+        assertThat(concurrency.getAgents(), is(2));
+        assertThat(concurrency.getWorkers(), is(4));
+    }
+
+    @Test
+    public void testCompute_neverBelowOne() {
+        NUnitConcurrency concurrency = NUnitConcurrency.compute(new NUnitConcurrency.Hardware(2, 100L * 1024 * 1024), 6, 3, null);
+        assertThat(concurrency.getAgents(), is(1));
+        assertThat(concurrency.getWorkers(), is(1));
+    }
+
+    @Test
+    public void testCompute_unknownMemory() {
+        NUnitConcurrency concurrency = NUnitConcurrency.compute(new NUnitConcurrency.Hardware(8, 0), 2, 2, null);
+        assertThat(concurrency.getAgents(), is(2));
+        assertThat(concurrency.getWorkers(), is(2));
+    }
+
+    @Test
+    public void testCompute_nodeOverrides() {
+        NUnitNodeProperty override = new NUnitNodeProperty(0, 1);
+        NUnitConcurrency concurrency = NUnitConcurrency.compute(new NUnitConcurrency.Hardware(16, 32 * GB), 1, 4, override);
+        assertThat(concurrency.getAgents(), is(1));
+        assertThat(concurrency.getWorkers(), is(16));
+
+        concurrency = NUnitConcurrency.compute(new NUnitConcurrency.Hardware(16, 32 * GB), 1, 4, new NUnitNodeProperty(2, 0));
+        assertThat(concurrency.getAgents(), is(4));
+        assertThat(concurrency.getWorkers(), is(2));
+    }
+
+    @Test
+    public void testHasOption() {
+        assertThat(NUnitBuilder.hasOption("--workers=2", "workers"), is(true));
+        assertThat(NUnitBuilder.hasOption("/noresult /workers:2", "workers"), is(true));
+        assertThat(NUnitBuilder.hasOption("-agents=1", "agents"), is(true));
+        assertThat(NUnitBuilder.hasOption("--where=\"cat == workers\"", "workers"), is(false));
+        assertThat(NUnitBuilder.hasOption("", "agents"), is(false));
+    }
+
+    @Test
+    public void testGetOptionValue() {
+        assertThat(NUnitBuilder.getOptionValue("--result=out/r.xml", "result"), is("out/r.xml"));
+        assertThat(NUnitBuilder.getOptionValue("/noresult /result:\"out dir/r.xml;format=nunit3\" --trace=Off", "result"), is("out dir/r.xml"));
+        assertThat(NUnitBuilder.getOptionValue("--labels=All --result r.xml", "result"), is("r.xml"));
+        assertThat(NUnitBuilder.getOptionValue("--noresult", "result"), is((String) null));
+    }
+}
@@ -0,0 +1,84 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class NUnitCoverageParserTest {
+
+    private static InputStream xml(String xml) throws Exception {
+        return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testParse_cobertura() throws Exception {
+        NUnitCoverageSummary summary = new NUnitCoverageSummary();
+        boolean parsed = NUnitCoverageParser.parse(xml("<?xml version=\"1.0\"?>"
+                + "<coverage line-rate=\"0.5\"><packages>"
+                + "<package name=\"Core\"><classes><class name=\"Core.A\">"
+                + "<methods><method name=\"M\"><lines><line number=\"1\" hits=\"1\"/></lines></method></methods>"
+                + "<lines><line number=\"1\" hits=\"1\"/><line number=\"2\" hits=\"0\"/>"
+                + "<line number=\"3\" hits=\"2\" branch=\"true\" condition-coverage=\"50% (1/2)\"/></lines>"
+                + "</class></classes></package>"
+                + "<package name=\"Web\"><classes><class name=\"Web.B\"><lines><line number=\"1\" hits=\"0\"/></lines></class></classes></package>"
+                + "</packages></coverage>"), summary);
+
+        assertThat(parsed, is(true));
+        assertThat(summary.getAssemblies(), hasSize(2));
+        NUnitCoverageSummary.AssemblyCoverage core = summary.getAssembly("Core");
+        assertThat(core.getLinesCovered(), is(2L));
+        assertThat(core.getLinesTotal(), is(3L));
+        assertThat(core.getBranchesCovered(), is(1L));
+        assertThat(core.getBranchesTotal(), is(2L));
+        assertThat(summary.getTotal().getLinesTotal(), is(4L));
+    }
+
+    @Test
+    public void testParse_openCover() throws Exception {
+        NUnitCoverageSummary summary = new NUnitCoverageSummary();
+        boolean parsed = NUnitCoverageParser.parse(xml("<CoverageSession><Summary numSequencePoints=\"100\" visitedSequencePoints=\"50\"/>"
+                + "<Modules>"
+                + "<Module hash=\"1\"><Summary numSequencePoints=\"10\" visitedSequencePoints=\"7\" numBranchPoints=\"4\" visitedBranchPoints=\"3\"/>"
+                + "<ModuleName>Core</ModuleName><Classes><Class><Summary numSequencePoints=\"5\" visitedSequencePoints=\"5\"/></Class></Classes></Module>"
+                + "<Module hash=\"2\" skippedDueTo=\"Filter\"><ModuleName>nunit.framework</ModuleName></Module>"
+                + "</Modules></CoverageSession>"), summary);
+
+        assertThat(parsed, is(true));
+        assertThat(summary.getAssemblies(), hasSize(1));
+        NUnitCoverageSummary.AssemblyCoverage core = summary.getAssembly("Core");
+        assertThat(core.getLinesCovered(), is(7L));
+        assertThat(core.getLinesTotal(), is(10L));
+        assertThat(core.getBranchesCovered(), is(3L));
+        assertThat(core.getBranchesTotal(), is(4L));
+    }
+
+    @Test
+    public void testParse_otherFormat() throws Exception {
+        NUnitCoverageSummary summary = new NUnitCoverageSummary();
+        assertThat(NUnitCoverageParser.parse(xml("<test-run/>"), summary), is(false));
+        assertThat(summary.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testAdd_keepsBestReportOfAssembly() {
+        NUnitCoverageSummary summary = new NUnitCoverageSummary();
+        summary.addAssembly(new NUnitCoverageSummary.AssemblyCoverage("Core", 5, 10, 0, 0));
+        NUnitCoverageSummary other = new NUnitCoverageSummary();
+        other.addAssembly(new NUnitCoverageSummary.AssemblyCoverage("Core", 8, 10, 0, 0));
+        summary.add(other);
+
+        assertThat(summary.getAssembly("Core").getLinesCovered(), is(8L));
+    }
+
+    @Test
+    public void testParseConditionCoverage() {
+        assertThat(NUnitCoverageParser.parseConditionCoverage("75% (3/4)"), is(new long[] {3, 4}));
+        assertThat(NUnitCoverageParser.parseConditionCoverage("75%"), is(nullValue()));
+    }
+}
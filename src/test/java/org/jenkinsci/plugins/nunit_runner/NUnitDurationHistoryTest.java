@@ -0,0 +1,144 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+public class NUnitDurationHistoryTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static Map<String, Long> durations(Object... testsAndDurations) {
+        Map<String, Long> durations = new HashMap<>();
+        for (int i = 0; i < testsAndDurations.length; i += 2) {
+            durations.put((String) testsAndDurations[i], ((Number) testsAndDurations[i + 1]).longValue());
+        }
+        return durations;
+    }
+
+    @Test
+    public void testAppend_readsBackBuilds() throws Exception {
+        File file = tmp.newFile();
+        NUnitDurationHistory.append(file, 1, durations("A.One", 10, "A.Two", 20));
+        NUnitDurationHistory.append(file, 2, durations("A.Two", 30, "A.Three", 5));
+
+        NUnitDurationHistory history = NUnitDurationHistory.load(file);
+        assertThat(history.getBuildCount(), is(2));
+        assertThat(history.getBuild(1), is(2));
+        assertThat(history.getDurations(1), is(durations("A.Two", 30, "A.Three", 5)));
+        assertThat(history.getTotalDuration(0), is(30L));
+        assertThat(history.getHistory(durations("A.Two", 0).keySet(), 2).get("A.Two"), is(new int[] {20, 30}));
+    }
+
+    @Test
+    public void testAppend_mergesAgentShardsOfOneBuild() throws Exception {
+        File file = tmp.newFile();
+        NUnitDurationHistory.append(file, 1, durations("A.One", 10, "A.Two", 20));
+        NUnitDurationHistory.append(file, 2, durations("A.One", 11));
+        // A shard of build 1 that finished after build 2.
+        NUnitDurationHistory.append(file, 1, durations("B.One", 5, "A.Two", 25));
+
+        NUnitDurationHistory history = NUnitDurationHistory.load(file);
+        assertThat(history.getBuildCount(), is(2));
+        assertThat(history.getBuild(0), is(1));
+        assertThat(history.getDurations(0), is(durations("A.One", 10, "A.Two", 25, "B.One", 5)));
+        assertThat(history.getDurations(1), is(durations("A.One", 11)));
+    }
+
+    @Test
+    public void testAppend_longNames() throws Exception {
+        StringBuilder name = new StringBuilder("A.Case(\"");
+        for (int i = 0; i < 30000; i++) {
+            name.append("\u00e9\u20ac");
+        }
+        String longName = name.append("\")").toString();
+        File file = tmp.newFile();
+        NUnitDurationHistory.append(file, 1, durations(longName, 10, "A.Short", 20));
+        NUnitDurationHistory.append(file, 2, durations(longName, 30));
+
+        NUnitDurationHistory history = NUnitDurationHistory.load(file);
+        assertThat(history.getBuildCount(), is(2));
+        assertThat(history.getDurations(0), is(durations(longName, 10, "A.Short", 20)));
+        assertThat(history.getDurations(1), is(durations(longName, 30)));
+    }
+
+    @Test
+    public void testAppend_dropsRecordCutShort() throws Exception {
+        File file = tmp.newFile();
+        NUnitDurationHistory.append(file, 1, durations("A.One", 10));
+        NUnitDurationHistory.append(file, 2, durations("A.One", 11));
+        long length = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length - 3);
+        }
+        assertThat(NUnitDurationHistory.load(file).getBuildCount(), is(1));
+
+        NUnitDurationHistory.append(file, 3, durations("A.One", 12));
+        NUnitDurationHistory history = NUnitDurationHistory.load(file);
+        assertThat(history.getBuildCount(), is(2));
+        assertThat(history.getBuild(1), is(3));
+        assertThat(file.length(), is(length));
+    }
+
+    @Test
+    public void testLoad_ignoresOtherFiles() throws Exception {
+        File file = tmp.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("not a history".getBytes("UTF-8"));
+        }
+        assertThat(NUnitDurationHistory.load(file).getBuildCount(), is(0));
+
+        NUnitDurationHistory.append(file, 1, durations("A.One", 10));
+        assertThat(NUnitDurationHistory.load(file).getBuildCount(), is(1));
+    }
+
+    @Test
+    public void testAppend_compactsOldBuilds() throws Exception {
+        File file = tmp.newFile();
+        for (int build = 1; build <= NUnitDurationHistory.MAX_BUILDS + 1; build++) {
+            NUnitDurationHistory.append(file, build, durations("A.Test" + build, build));
+        }
+        NUnitDurationHistory history = NUnitDurationHistory.load(file);
+        assertThat(history.getBuildCount(), is(NUnitDurationHistory.KEEP_BUILDS));
+        assertThat(history.getBuild(NUnitDurationHistory.KEEP_BUILDS - 1), is(NUnitDurationHistory.MAX_BUILDS + 1));
+        assertThat(history.getDurations(0), is(durations("A.Test" + (NUnitDurationHistory.MAX_BUILDS + 2 - NUnitDurationHistory.KEEP_BUILDS),
+                NUnitDurationHistory.MAX_BUILDS + 2 - NUnitDurationHistory.KEEP_BUILDS)));
+    }
+
+    @Test
+    public void testFindSlowTests() throws Exception {
+        File file = tmp.newFile();
+        for (int build = 1; build <= 10; build++) {
+            NUnitDurationHistory.append(file, build, durations("A.Steady", 200 + build, "A.Fast", 10, "A.New", 500));
+        }
+        NUnitDurationHistory history = NUnitDurationHistory.load(file);
+
+        List<NUnitDurationHistory.SlowTest> slow = history.findSlowTests(
+                durations("A.Steady", 400, "A.Fast", 90, "A.Unknown", 1000), 90, 5, 100);
+        assertThat(slow, hasSize(1));
+        assertThat(slow.get(0).getName(), is("A.Steady"));
+        assertThat(slow.get(0).getThreshold(), is(209));
+        assertThat(slow.get(0).getSamples(), is(10));
+
+        assertThat(history.findSlowTests(durations("A.Steady", 209), 90, 5, 100), hasSize(0));
+    }
+
+    @Test
+    public void testPercentile() {
+        assertThat(NUnitDurationHistory.percentile(new int[] {5, 1, 4, 2, 3}, 50), is(3));
+        assertThat(NUnitDurationHistory.percentile(new int[] {5, 1, 4, 2, 3}, 100), is(5));
+        assertThat(NUnitDurationHistory.percentile(new int[] {7}, 1), is(7));
+    }
+}
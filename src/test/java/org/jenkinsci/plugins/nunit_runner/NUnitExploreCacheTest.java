@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+public class NUnitExploreCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static List<String> tests(int count) {
+        List<String> tests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tests.add("Company.Product.Tests.Fixture" + i / 100 + ".Test" + i);
+        }
+        return tests;
+    }
+
+    @Test
+    public void testWrite_readsBackCompactly() throws Exception {
+        List<String> tests = new ArrayList<>(tests(9000));
+        tests.add("Company.Product.Tests.Fixture0.Case(\"caf\u00e9\",\uD83D\uDE00)");
+        tests.add("Company.Product.Tests.Fixture0.Case(\"caf\u00e9\",\uD83D\uDE01)");
+        tests.add("");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NUnitExploreCache.write(tests, out);
+        assertThat(NUnitExploreCache.read(new ByteArrayInputStream(out.toByteArray())), is(tests));
+
+        int plain = 0;
+        for (String test : tests) {
+            plain += test.length() + 1;
+        }
+        assertThat(out.size(), lessThan(plain / 10));
+    }
+
+    @Test
+    public void testStore_lookup() throws Exception {
+        File dir = new File(tmp.getRoot(), "cache");
+        String key = NUnitExploreCache.key("nunit3-console", "abc", Collections.singletonList("/where:\"cat == Fast\""));
+        assertThat(NUnitExploreCache.lookup(dir, key), nullValue());
+
+        NUnitExploreCache.store(dir, key, Arrays.asList("A.One", "A.Two"), NUnitExploreCache.MAX_SIZE);
+        assertThat(NUnitExploreCache.lookup(dir, key), is(Arrays.asList("A.One", "A.Two")));
+        assertThat(NUnitExploreCache.key("nunit3-console", "abc", Collections.<String>emptyList()), not(key));
+    }
+
+    @Test
+    public void testStore_evictsLeastRecentlyUsed() throws Exception {
+        File dir = tmp.newFolder();
+        NUnitExploreCache.store(dir, "a", tests(1000), NUnitExploreCache.MAX_SIZE);
+        long entrySize = new File(dir, "a.bin").length();
+        NUnitExploreCache.store(dir, "b", tests(1000), NUnitExploreCache.MAX_SIZE);
+        new File(dir, "a.bin").setLastModified(System.currentTimeMillis() - 20000);
+        new File(dir, "b.bin").setLastModified(System.currentTimeMillis() - 30000);
+        // Using an entry makes it the most recently used.
+        NUnitExploreCache.lookup(dir, "b");
+
+        NUnitExploreCache.store(dir, "c", tests(1000), entrySize * 2 + entrySize / 2);
+        assertThat(new File(dir, "a.bin").exists(), is(false));
+        assertThat(new File(dir, "b.bin").exists(), is(true));
+        assertThat(new File(dir, "c.bin").exists(), is(true));
+    }
+
+    @Test
+    public void testLookup_damagedEntry() throws Exception {
+        File dir = tmp.newFolder();
+        try (FileOutputStream out = new FileOutputStream(new File(dir, "a.bin"))) {
+            out.write(new byte[] {1, 2, 3});
+        }
+        assertThat(NUnitExploreCache.lookup(dir, "a"), nullValue());
+        assertThat(new File(dir, "a.bin").exists(), is(false));
+    }
+
+    @Test
+    public void testLookup_damagedLength() throws Exception {
+        File dir = tmp.newFolder();
+        for (int length : new int[] {-1, Integer.MAX_VALUE}) {
+            ByteArrayOutputStream valid = new ByteArrayOutputStream();
+            NUnitExploreCache.write(Arrays.asList("A.One"), valid);
+            int magic = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(valid.toByteArray()))).readInt();
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(new File(dir, "a.bin"))))) {
+                out.writeInt(magic);
+                out.writeInt(1);
+                out.writeInt(0);
+                out.writeInt(length);
+            }
+            assertThat(NUnitExploreCache.lookup(dir, "a"), nullValue());
+            assertThat(new File(dir, "a.bin").exists(), is(false));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class NUnitListenerDecoratorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testEol_passesBytesThrough() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TaskListener listener = new StreamTaskListener(out, UTF_8);
+        byte[] line = "T\u00e9st na\u00efve \u2713\r\n".getBytes(UTF_8);
+
+        try (NUnitListenerDecorator decorator = new NUnitListenerDecorator(listener, Charset.forName("ISO-8859-1"), "[shard-1] ", null)) {
+            decorator.write(line);
+        }
+
+        assertThat(new String(out.toByteArray(), UTF_8), is("[shard-1] T\u00e9st na\u00efve \u2713\r\n"));
+    }
+
+    @Test
+    public void testEol_coverageFile() throws Exception {
+        NUnitListenerDecorator decorator = new NUnitListenerDecorator(new StreamTaskListener(new ByteArrayOutputStream(), UTF_8));
+        decorator.write("results\\run.coverage\n".getBytes(UTF_8));
+        assertThat(decorator.getCoverageFile(), nullValue());
+
+        decorator.write("Attachments:  \r\n".getBytes(UTF_8));
+        decorator.write("  C:\\ws\\TestResults\\run.coverage\r\n".getBytes(UTF_8));
+        decorator.close();
+        assertThat(decorator.getCoverageFile(), is("C:\\ws\\TestResults\\run.coverage"));
+    }
+
+    @Test
+    public void testEol_serviceMessages() throws Exception {
+        final List<NUnitTestEvent> events = new ArrayList<>();
+        NUnitListenerDecorator decorator = new NUnitListenerDecorator(new StreamTaskListener(new ByteArrayOutputStream(), UTF_8), UTF_8, null, new NUnitTestEvent.Listener() {
+            public void onEvent(NUnitTestEvent event) {
+                events.add(event);
+            }
+        });
+        decorator.write("##teamcity[testStarted name='Ns.Fixture.Test' flowId='0-1001']\n".getBytes(UTF_8));
+        decorator.write("some output\n".getBytes(UTF_8));
+        decorator.write("##teamcity[testFailed name='Ns.Fixture.Test' message='Expected: 1|n  But was: 2' flowId='0-1001']\r\n".getBytes(UTF_8));
+        decorator.close();
+
+        assertThat(events.size(), is(2));
+        assertThat(events.get(0).getType(), is(NUnitTestEvent.Type.TEST_STARTED));
+        assertThat(events.get(1).getType(), is(NUnitTestEvent.Type.TEST_FAILED));
+        assertThat(events.get(1).getName(), is("Ns.Fixture.Test"));
+        assertThat(events.get(1).getMessage(), is("Expected: 1\n  But was: 2"));
+    }
+}
@@ -0,0 +1,190 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+public class NUnitOutcomeTest {
+
+    private static NUnitResultSummary summary(String assembly, String[] passed, String[] failed) {
+        NUnitResultSummary summary = new NUnitResultSummary();
+        for (String name : passed) {
+            summary.addTest(name, "Passed", 10, null);
+        }
+        for (String name : failed) {
+            summary.addTest(name, "Failed", 10, new NUnitResultSummary.Failure(name, "failed", null));
+        }
+        summary.addAssembly(new NUnitResultSummary.AssemblyResult(assembly, 100, passed.length, failed.length, 0, 0, 0));
+        return summary;
+    }
+
+    private static String[] names(String prefix, int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = prefix + i;
+        }
+        return names;
+    }
+
+    private static NUnitOutcome outcome(int exitCode, NUnitResultSummary summary) {
+        NUnitOutcome outcome = new NUnitOutcome();
+        outcome.addExit(null, exitCode, false);
+        outcome.addResults(null, null, summary);
+        return outcome;
+    }
+
+    @Test
+    public void testRetry_passesOnRetry() {
+        NUnitOutcome outcome = outcome(2, summary("a.dll", new String[] {"A.Ok"}, new String[] {"A.Flaky", "A.Broken"}));
+        assertThat(outcome.isRetryable(), is(true));
+
+        outcome.addRetry(outcome(1, summary("a.dll", new String[] {"A.Flaky"}, new String[] {"A.Broken"})));
+        NUnitResultSummary merged = outcome.getSummary();
+        assertThat(merged.getPassed(), is(2));
+        assertThat(merged.getFailed(), is(1));
+        assertThat(merged.getFailedTestNames(), contains("A.Broken"));
+        assertThat(merged.getFlakyTests(), contains("A.Flaky"));
+        assertThat(merged.getAssembly("a.dll").getFailed(), is(1));
+        assertThat(outcome.isFailed(), is(true));
+
+        outcome.addRetry(outcome(0, summary("a.dll", new String[] {"A.Broken"}, new String[0])));
+        assertThat(merged.getFailed(), is(0));
+        assertThat(merged.getFlakyTests(), contains("A.Flaky", "A.Broken"));
+        assertThat(outcome.isFailed(), is(false));
+    }
+
+    @Test
+    public void testRetry_skippedOnRetry() {
+        NUnitOutcome outcome = outcome(1, summary("a.dll", new String[] {"A.Ok"}, new String[] {"A.Ignored"}));
+        NUnitResultSummary retried = new NUnitResultSummary();
+        retried.addTest("A.Ignored", "Skipped", 0, null);
+        retried.addAssembly(new NUnitResultSummary.AssemblyResult("a.dll", 10, 0, 0, 1, 0, 0));
+        outcome.addRetry(outcome(0, retried));
+
+        NUnitResultSummary merged = outcome.getSummary();
+        assertThat(merged.getPassed(), is(1));
+        assertThat(merged.getFailed(), is(1));
+        assertThat(merged.getFlakyTests(), empty());
+        assertThat(merged.getAssembly("a.dll").getFailed(), is(1));
+        assertThat(outcome.isFailed(), is(true));
+    }
+
+    @Test
+    public void testRetry_notAfterError() {
+        NUnitOutcome outcome = outcome(-2, summary("a.dll", new String[0], new String[] {"A.Failed"}));
+        assertThat(outcome.isRetryable(), is(false));
+        assertThat(outcome.isFailed(), is(true));
+        assertThat(outcome.getFailureMessage(), is("NUnit exited with -2"));
+    }
+
+    @Test
+    public void testFailureMessage_severalRuns() {
+        NUnitOutcome outcome = new NUnitOutcome();
+        outcome.addExit("shard-1", 0, false);
+        outcome.addExit("shard-2", 3, false);
+        assertThat(outcome.getFailureMessage(), is("NUnit runs failed: shard-2 exited with 3"));
+    }
+
+    @Test
+    public void testSuccess() {
+        NUnitOutcome outcome = outcome(0, summary("a.dll", new String[] {"A.Ok"}, new String[0]));
+        assertThat(outcome.isFailed(), is(false));
+        assertThat(outcome.getSummary().getFlakyTests(), empty());
+    }
+
+    @Test
+    public void testRetry_onlyInCombinationThatFailed() {
+        NUnitOutcome outcome = new NUnitOutcome();
+        NUnitOutcome suite = new NUnitOutcome();
+        suite.addExit("x86", 1, false);
+        suite.addExit("x64", 0, false);
+        suite.addResults("x86", "x86", summary("a.dll", new String[0], new String[] {"A.Flaky"}));
+        suite.addResults("x64", "x64", summary("a.dll", new String[] {"A.Flaky"}, new String[0]));
+        outcome.add(suite);
+        assertThat(outcome.getSummary().getTotal(), is(2));
+        assertThat(outcome.getCombinations().get("x86").getFailed(), is(1));
+        assertThat(outcome.getCombinations().get("x64").getFailed(), is(0));
+
+        NUnitOutcome retry = new NUnitOutcome();
+        retry.addExit("x86-retry-1", 0, false);
+        retry.addResults("x86-retry-1", "x86", summary("a.dll", new String[] {"A.Flaky"}, new String[0]));
+        outcome.addRetry(retry);
+
+        assertThat(outcome.getCombinations().get("x86").getFlakyTests(), contains("A.Flaky"));
+        assertThat(outcome.getSummary().getTotal(), is(2));
+        assertThat(outcome.getSummary().getFailed(), is(0));
+        assertThat(outcome.isFailed(), is(false));
+    }
+
+    @Test
+    public void testFailed_errorWithoutResultsNextToPassingShards() {
+        NUnitOutcome outcome = new NUnitOutcome();
+        outcome.addExit("shard-1", 0, true);
+        outcome.addExit("shard-2", 254, true);
+        outcome.addResults("shard-1", null, summary("a.dll", new String[] {"A.Ok"}, new String[0]));
+        outcome.addResults("shard-2", null, null);
+        assertThat(outcome.getSummary().getFailed(), is(0));
+        assertThat(outcome.isRetryable(), is(false));
+        assertThat(outcome.isFailed(), is(true));
+        assertThat(outcome.getFailureMessage(), is("NUnit runs failed: shard-2 exited with 254"));
+    }
+
+    @Test
+    public void testFailed_testFailuresWithoutRetry() {
+        NUnitOutcome outcome = new NUnitOutcome();
+        outcome.addExit(null, 1, false);
+        // E.g. a failure the result file does not name.
+        outcome.addResults(null, null, summary("a.dll", new String[] {"A.Ok"}, new String[0]));
+        assertThat(outcome.isFailed(), is(true));
+        assertThat(outcome.getFailureMessage(), is("NUnit exited with 1"));
+    }
+
+    @Test
+    public void testFailed_failedCountWrappedToZero() {
+        NUnitOutcome outcome = new NUnitOutcome();
+        outcome.addExit(null, 0, true);
+        outcome.addResults(null, null, summary("a.dll", new String[0], names("A.Failed", 256)));
+        assertThat(outcome.isRetryable(), is(true));
+        assertThat(outcome.isFailed(), is(true));
+        assertThat(outcome.getFailureMessage(), is("NUnit had 256 failed tests (exit code 0)"));
+
+        NUnitOutcome retry = new NUnitOutcome();
+        retry.addExit(null, 0, true);
+        retry.addResults(null, null, summary("a.dll", names("A.Failed", 256), new String[0]));
+        outcome.addRetry(retry);
+        assertThat(outcome.isFailed(), is(false));
+    }
+
+    @Test
+    public void testFailed_failedCountLikeErrorCode() {
+        NUnitOutcome outcome = new NUnitOutcome();
+        outcome.addExit(null, 128, true);
+        outcome.addResults(null, null, summary("a.dll", new String[] {"A.Ok"}, names("A.Failed", 128)));
+        assertThat(outcome.isRetryable(), is(true));
+        assertThat(outcome.isFailed(), is(true));
+        assertThat(outcome.getFailureMessage(), is("NUnit had 128 failed tests (exit code 128)"));
+    }
+
+    @Test
+    public void testFailed_errorCodeWithPassingResults() {
+        NUnitOutcome outcome = new NUnitOutcome();
+        outcome.addExit(null, 255, true);
+        outcome.addResults(null, null, summary("a.dll", new String[] {"A.Ok"}, new String[0]));
+        assertThat(outcome.isRetryable(), is(false));
+        assertThat(outcome.isFailed(), is(true));
+        assertThat(outcome.getFailureMessage(), is("NUnit exited with 255"));
+    }
+
+    @Test
+    public void testFailed_testFailuresWithoutResultFile() {
+        NUnitOutcome outcome = new NUnitOutcome();
+        outcome.addExit("shard-1", 0, false);
+        outcome.addExit("shard-2", 2, false);
+        outcome.addResults("shard-1", null, summary("a.dll", new String[] {"A.Ok"}, new String[0]));
+        outcome.addResults("shard-2", null, null);
+        assertThat(outcome.isFailed(), is(true));
+    }
+}
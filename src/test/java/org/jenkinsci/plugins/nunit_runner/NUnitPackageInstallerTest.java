@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import hudson.AbortException;
+import hudson.model.TaskListener;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+
+public class NUnitPackageInstallerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File createPackage(String name, String... entries) throws IOException {
+        File file = new File(tmp.getRoot(), name);
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            for (String entry : entries) {
+                zip.putNextEntry(new ZipEntry(entry));
+                zip.write(entry.getBytes("UTF-8"));
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static String install(File dir, File source, String checksum, String executable) throws Exception {
+        return new NUnitPackageInstaller.Install(source.getPath(), checksum, executable, TaskListener.NULL).invoke(dir, null);
+    }
+
+    @Test
+    public void testInstall_findsConsoleAndWritesMarker() throws Exception {
+        File source = createPackage("NUnit.ConsoleRunner.3.7.0.nupkg", "NUnit.ConsoleRunner.nuspec", "tools/nunit3-console.exe", "tools/nunit.engine.dll");
+        File dir = new File(tmp.getRoot(), "tools/NUnit.ConsoleRunner.3.7.0");
+
+        assertThat(install(dir, source, null, null), is("tools/nunit3-console.exe"));
+        assertThat(new File(dir, "tools/nunit.engine.dll").isFile(), is(true));
+        assertThat(new File(dir, NUnitPackageInstaller.MARKER).isFile(), is(true));
+        assertThat(new File(dir.getParentFile(), dir.getName() + ".tmp").exists(), is(false));
+    }
+
+    @Test
+    public void testInstall_reusesExtractedPackage() throws Exception {
+        File source = createPackage("nunit.zip", "bin/nunit3-console.exe");
+        File dir = new File(tmp.getRoot(), "cache");
+        install(dir, source, null, null);
+
+        // The package is not read again once extracted.
+        assertThat(source.delete(), is(true));
+        assertThat(install(dir, source, null, null), is("bin/nunit3-console.exe"));
+    }
+
+    @Test
+    public void testInstall_replacesIncompleteInstall() throws Exception {
+        File source = createPackage("nunit.zip", "nunit3-console.exe");
+        File dir = new File(tmp.getRoot(), "cache");
+        assertThat(new File(dir, "leftover").mkdirs(), is(true));
+
+        assertThat(install(dir, source, null, null), is("nunit3-console.exe"));
+        assertThat(new File(dir, "leftover").exists(), is(false));
+    }
+
+    @Test
+    public void testInstall_configuredExecutable() throws Exception {
+        File source = createPackage("nunit.zip", "nunit3-console.exe", "net35/nunit3-console.exe");
+        assertThat(install(new File(tmp.getRoot(), "cache"), source, null, "net35/nunit3-console.exe"), is("net35/nunit3-console.exe"));
+    }
+
+    @Test(expected = AbortException.class)
+    public void testInstall_checksumMismatch() throws Exception {
+        File source = createPackage("nunit.zip", "nunit3-console.exe");
+        install(new File(tmp.getRoot(), "cache"), source, "0000", null);
+    }
+
+    @Test(expected = AbortException.class)
+    public void testInstall_noConsole() throws Exception {
+        File source = createPackage("nunit.zip", "readme.txt");
+        install(new File(tmp.getRoot(), "cache"), source, null, null);
+    }
+
+    @Test
+    public void testGetCacheName() {
+        String name = NUnitPackageInstaller.getCacheName("http://mirror/packages/NUnit.ConsoleRunner.3.7.0.nupkg", null);
+        assertThat(name, startsWith("NUnit.ConsoleRunner.3.7.0-"));
+        assertThat(NUnitPackageInstaller.getCacheName("http://mirror/packages/NUnit.ConsoleRunner.3.7.0.nupkg", "abc"), not(is(name)));
+    }
+}
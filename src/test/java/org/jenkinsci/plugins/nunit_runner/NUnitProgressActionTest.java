@@ -0,0 +1,52 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+public class NUnitProgressActionTest {
+
+    private static void run(NUnitProgressAction progress, String name, String result) {
+        progress.onEvent(NUnitTestEvent.parse("##teamcity[testStarted name='" + name + "' flowId='0-1001']"));
+        if (result != null) {
+            progress.onEvent(NUnitTestEvent.parse("##teamcity[" + result + " name='" + name + "' message='x' flowId='0-1001']"));
+        }
+        progress.onEvent(NUnitTestEvent.parse("##teamcity[testFinished name='" + name + "' duration='10' flowId='0-1001']"));
+    }
+
+    @Test
+    public void testOnEvent_counts() {
+        NUnitProgressAction progress = new NUnitProgressAction();
+        run(progress, "A.Ok", null);
+        run(progress, "A.Broken", "testFailed");
+        run(progress, "A.Ignored", "testIgnored");
+        assertThat(progress.getPassed(), is(1));
+        assertThat(progress.getFailed(), is(1));
+        assertThat(progress.getIgnored(), is(1));
+        assertThat(progress.getRunning(), is(0));
+        assertThat(progress.getFailedTests(), contains("A.Broken"));
+    }
+
+    @Test
+    public void testOnEvent_laterPhaseReplacesResult() {
+        NUnitProgressAction progress = new NUnitProgressAction();
+        run(progress, "A.Ok", null);
+        run(progress, "A.Flaky", "testFailed");
+        run(progress, "A.Broken", "testFailed");
+
+        // Retry of the failed tests.
+        run(progress, "A.Flaky", null);
+        run(progress, "A.Broken", "testFailed");
+        assertThat(progress.getPassed(), is(2));
+        assertThat(progress.getFailed(), is(1));
+        assertThat(progress.getFailedTests(), contains("A.Broken"));
+
+        run(progress, "A.Broken", "testIgnored");
+        assertThat(progress.getFailed(), is(0));
+        assertThat(progress.getIgnored(), is(1));
+        assertThat(progress.getFailedTests(), is(empty()));
+    }
+}
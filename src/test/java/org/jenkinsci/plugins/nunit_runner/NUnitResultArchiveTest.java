@@ -0,0 +1,108 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+public class NUnitResultArchiveTest {
+
+    private static final String NESTED = "<?xml version=\"1.0\"?><test-run>"
+            + "<test-suite type=\"Assembly\" name=\"A.dll\">"
+            + "<test-suite type=\"ParameterizedFixture\" name=\"P\" fullname=\"A.P\">"
+            + "<test-suite type=\"TestFixture\" name=\"P(1)\" fullname=\"A.P(1)\">"
+            + "<test-case name=\"T\" fullname=\"A.P(1).T\" result=\"Passed\" label=\"a &amp; &quot;b&quot;\"/>"
+            + "</test-suite></test-suite>"
+            + "<test-suite type=\"TestFixture\" name=\"Q\" fullname=\"A.Q\">"
+            + "<test-case name=\"T\" fullname=\"A.Q.T\" result=\"Failed\"><failure><message><![CDATA[1 < 2]]></message></failure></test-case>"
+            + "</test-suite></test-suite></test-run>";
+
+    private static byte[] compress(InputStream in, List<NUnitResultArchive.Fixture> fixtures) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fixtures.addAll(NUnitResultArchive.compress(in, out));
+        return out.toByteArray();
+    }
+
+    private static String inflate(byte[] data, long offset, long length) throws Exception {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data, (int) offset, (int) length))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        }
+    }
+
+    @Test
+    public void testCompress_wholeFileStillParses() throws Exception {
+        List<NUnitResultArchive.Fixture> fixtures = new ArrayList<>();
+        byte[] data;
+        try (InputStream in = getClass().getResourceAsStream("TestResult.xml")) {
+            data = compress(in, fixtures);
+        }
+
+        NUnitResultSummary summary = new NUnitResultSummary();
+        NUnitResultParser.parse(new File("/workspace"), new GZIPInputStream(new ByteArrayInputStream(data)), summary);
+        assertThat(summary.getTotal(), is(4));
+        assertThat(summary.getFailures().get(0).getMessage(), is("Expected: 2\n  But was:  0"));
+        assertThat(summary.getAssemblyDurations().get("bin/Sample.Tests.dll"), is(1500L));
+    }
+
+    @Test
+    public void testCompress_fixtureReadAlone() throws Exception {
+        List<NUnitResultArchive.Fixture> fixtures = new ArrayList<>();
+        byte[] data;
+        try (InputStream in = getClass().getResourceAsStream("TestResult.xml")) {
+            data = compress(in, fixtures);
+        }
+
+        assertThat(fixtures, hasSize(1));
+        NUnitResultArchive.Fixture fixture = fixtures.get(0);
+        assertThat(fixture.getName(), is("Sample.Tests.CalculatorTests"));
+        String xml = inflate(data, fixture.getOffset(), fixture.getLength());
+        assertThat(xml, startsWith("<test-suite type=\"TestFixture\""));
+        assertThat(xml, endsWith("</test-suite>"));
+
+        NUnitResultSummary summary = new NUnitResultSummary();
+        NUnitResultParser.parse(new File("/workspace"), new ByteArrayInputStream(xml.getBytes("UTF-8")), summary);
+        assertThat(summary.getTotal(), is(4));
+    }
+
+    @Test
+    public void testCompress_nestedFixturesAndEscaping() throws Exception {
+        List<NUnitResultArchive.Fixture> fixtures = new ArrayList<>();
+        byte[] data = compress(new ByteArrayInputStream(NESTED.getBytes("UTF-8")), fixtures);
+
+        assertThat(fixtures, hasSize(2));
+        assertThat(fixtures.get(0).getName(), is("A.P"));
+        assertThat(fixtures.get(1).getName(), is("A.Q"));
+        assertThat(fixtures.get(1).getOffset(), is(fixtures.get(0).getOffset() + fixtures.get(0).getLength()));
+        assertThat(inflate(data, fixtures.get(0).getOffset(), fixtures.get(0).getLength()),
+                containsString("label=\"a &amp; &quot;b&quot;\""));
+        assertThat(inflate(data, fixtures.get(1).getOffset(), fixtures.get(1).getLength()),
+                containsString("<message>1 &lt; 2</message>"));
+        assertThat(inflate(data, 0, data.length), endsWith("</test-suite></test-suite></test-run>"));
+    }
+
+    @Test
+    public void testCompress_noFixtures() throws Exception {
+        List<NUnitResultArchive.Fixture> fixtures = new ArrayList<>();
+        byte[] data = compress(new ByteArrayInputStream("<test-run/>".getBytes("UTF-8")), fixtures);
+
+        assertThat(fixtures, hasSize(0));
+        assertThat(inflate(data, 0, data.length), is("<?xml version=\"1.0\" encoding=\"utf-8\"?><test-run></test-run>"));
+    }
+}
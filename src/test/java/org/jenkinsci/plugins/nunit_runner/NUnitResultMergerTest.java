@@ -0,0 +1,127 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+public class NUnitResultMergerTest {
+
+    private static final String SUITE = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+            + "<test-run id=\"0\" testcasecount=\"2\" result=\"Failed\" label=\"Error\" total=\"2\" passed=\"1\" failed=\"1\" asserts=\"1\""
+            + " start-time=\"2017-03-01 10:00:00Z\" end-time=\"2017-03-01 10:01:00Z\" duration=\"1.5\">\n"
+            + "  <command-line><![CDATA[nunit3-console A.dll]]></command-line>\n"
+            + "  <test-suite type=\"Assembly\" id=\"0-1\" name=\"A.dll\" result=\"Failed\" total=\"2\" passed=\"1\" failed=\"1\">"
+            + "<test-suite type=\"TestFixture\" id=\"0-2\" name=\"F\" fullname=\"A.F\" result=\"Failed\" label=\"Error\" total=\"2\" passed=\"1\" failed=\"1\">"
+            + "<test-case id=\"0-3\" name=\"T1\" fullname=\"A.F.T1\" result=\"Passed\"/>"
+            + "<test-case id=\"0-4\" name=\"T2\" fullname=\"A.F.T2\" result=\"Failed\" asserts=\"1\"><failure><message><![CDATA[1 < 2]]></message></failure></test-case>"
+            + "</test-suite></test-suite>\n"
+            + "</test-run>\n";
+
+    private static final String RETRY = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+            + "<test-run id=\"0\" testcasecount=\"1\" result=\"Passed\" total=\"1\" passed=\"1\" failed=\"0\""
+            + " start-time=\"2017-03-01 10:01:30Z\" end-time=\"2017-03-01 10:02:00Z\" duration=\"1\">\n"
+            + "  <command-line><![CDATA[nunit3-console A.dll --where \"test == A.F.T2\"]]></command-line>\n"
+            + "  <filter><test>A.F.T2</test></filter>\n"
+            + "  <test-suite type=\"Assembly\" id=\"0-1\" name=\"A.dll\" result=\"Passed\" total=\"1\" passed=\"1\" failed=\"0\">"
+            + "<test-suite type=\"TestFixture\" id=\"0-2\" name=\"F\" fullname=\"A.F\" result=\"Passed\" total=\"1\" passed=\"1\" failed=\"0\">"
+            + "<test-case id=\"0-4\" name=\"T2\" fullname=\"A.F.T2\" result=\"Passed\"/>"
+            + "</test-suite></test-suite>\n"
+            + "</test-run>\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private String merge(NUnitResultMerger.Duplicates duplicates, String... groups) throws Exception {
+        Files.write(new File(tmp.getRoot(), "TestResult.xml").toPath(), SUITE.getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(tmp.getRoot(), "TestResult-retry1.xml").toPath(), RETRY.getBytes(StandardCharsets.UTF_8));
+        NUnitResultMerger merger = new NUnitResultMerger(Arrays.asList("TestResult.xml", "TestResult-retry1.xml", "TestResult-missing.xml"),
+                groups.length > 0 ? Arrays.asList(groups) : Arrays.asList((String) null, null, null), "merged/TestResult.xml", duplicates);
+        Integer tests = merger.invoke(tmp.getRoot(), null);
+        String merged = new String(Files.readAllBytes(new File(tmp.getRoot(), "merged/TestResult.xml").toPath()), StandardCharsets.UTF_8);
+        assertThat(merged, containsString("total=\"" + tests + "\""));
+        return merged;
+    }
+
+    @Test
+    public void testMerge_lastResultWins() throws Exception {
+        String merged = merge(NUnitResultMerger.Duplicates.LAST);
+        assertThat(merged, containsString("<test-run id=\"0\" testcasecount=\"2\" result=\"Passed\" total=\"2\" passed=\"2\" failed=\"0\" asserts=\"0\""
+                + " start-time=\"2017-03-01 10:00:00Z\" end-time=\"2017-03-01 10:02:00Z\" duration=\"2.500000\" warnings=\"0\" inconclusive=\"0\" skipped=\"0\">"));
+        // The first fixture lost its failure, the retried one is copied as it was.
+        assertThat(merged, containsString("<test-suite type=\"TestFixture\" id=\"0-0-2\" name=\"F\" fullname=\"A.F\" result=\"Passed\" total=\"1\" passed=\"1\" failed=\"0\""));
+        assertThat(merged, containsString("<test-suite type=\"TestFixture\" id=\"1-0-2\" name=\"F\" fullname=\"A.F\" result=\"Passed\" total=\"1\" passed=\"1\" failed=\"0\">"));
+        assertThat(merged, not(containsString("label=")));
+        assertThat(merged, not(containsString("1 &lt; 2")));
+        // Only the first file's command line, no filters.
+        assertThat(merged, containsString("<command-line>nunit3-console A.dll</command-line>"));
+        assertThat(merged, not(containsString("--where")));
+        assertThat(merged, not(containsString("<filter>")));
+    }
+
+    @Test
+    public void testMerge_firstResultWins() throws Exception {
+        String merged = merge(NUnitResultMerger.Duplicates.FIRST);
+        assertThat(merged, containsString("testcasecount=\"2\" result=\"Failed\" label=\"Error\" total=\"2\" passed=\"1\" failed=\"1\" asserts=\"1\""));
+        assertThat(merged, containsString("<message>1 &lt; 2</message>"));
+        // The retried suite holds nothing but a duplicate.
+        assertThat(merged, not(containsString("id=\"1-")));
+    }
+
+    @Test
+    public void testMerge_allResults() throws Exception {
+        String merged = merge(NUnitResultMerger.Duplicates.ALL);
+        assertThat(merged, containsString("testcasecount=\"3\" result=\"Failed\" label=\"Error\" total=\"3\" passed=\"2\" failed=\"1\""));
+        assertThat(merged, containsString("id=\"0-0-4\""));
+        assertThat(merged, containsString("id=\"1-0-4\""));
+    }
+
+    @Test
+    public void testMerge_combinationsAreNotDuplicates() throws Exception {
+        String merged = merge(NUnitResultMerger.Duplicates.LAST, "x86", "x64", "x64");
+        assertThat(merged, containsString("total=\"3\" passed=\"2\" failed=\"1\""));
+    }
+
+    @Test
+    public void testMerge_sameNameInOneFile() throws Exception {
+        // Cases of a test case source without ToString() share their full name.
+        String source = SUITE.replace("fullname=\"A.F.T1\"", "fullname=\"A.F.T2\"");
+        Files.write(new File(tmp.getRoot(), "TestResult-shard1.xml").toPath(), source.getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(tmp.getRoot(), "TestResult-shard2.xml").toPath(), RETRY.replace("A.F.T2", "A.F.T3").getBytes(StandardCharsets.UTF_8));
+        NUnitResultMerger merger = new NUnitResultMerger(Arrays.asList("TestResult-shard1.xml", "TestResult-shard2.xml"),
+                Arrays.asList((String) null, null), "merged.xml", NUnitResultMerger.Duplicates.LAST);
+        assertThat(merger.invoke(tmp.getRoot(), null), is(3));
+        String merged = new String(Files.readAllBytes(new File(tmp.getRoot(), "merged.xml").toPath()), StandardCharsets.UTF_8);
+        assertThat(merged, containsString("testcasecount=\"3\" result=\"Failed\" label=\"Error\" total=\"3\" passed=\"2\" failed=\"1\""));
+        assertThat(merged, containsString("<message>1 &lt; 2</message>"));
+    }
+
+    @Test
+    public void testMerge_noResultFiles() throws Exception {
+        NUnitResultMerger merger = new NUnitResultMerger(Arrays.asList("TestResult.xml"), Arrays.asList((String) null), "merged.xml", NUnitResultMerger.Duplicates.LAST);
+        assertThat(merger.invoke(tmp.getRoot(), null), nullValue());
+        assertThat(new File(tmp.getRoot(), "merged.xml").exists(), is(false));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMerge_intoResultFile() throws Exception {
+        Files.write(new File(tmp.getRoot(), "TestResult.xml").toPath(), SUITE.getBytes(StandardCharsets.UTF_8));
+        new NUnitResultMerger(Arrays.asList("TestResult.xml"), Arrays.asList((String) null), "TestResult.xml", NUnitResultMerger.Duplicates.LAST).invoke(tmp.getRoot(), null);
+    }
+
+    @Test
+    public void testDuplicates_fromString() {
+        assertThat(NUnitResultMerger.Duplicates.fromString(" Last "), is(NUnitResultMerger.Duplicates.LAST));
+    }
+}
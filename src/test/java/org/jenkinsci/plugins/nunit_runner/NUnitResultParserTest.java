@@ -0,0 +1,64 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+public class NUnitResultParserTest {
+
+    private NUnitResultSummary parse() throws Exception {
+        return parse(new NUnitResultSummary());
+    }
+
+    private NUnitResultSummary parse(NUnitResultSummary summary) throws Exception {
+        try (InputStream in = getClass().getResourceAsStream("TestResult.xml")) {
+            NUnitResultParser.parse(new File("/workspace"), in, summary);
+        }
+        return summary;
+    }
+
+    @Test
+    public void testParse_counts() throws Exception {
+        NUnitResultSummary summary = parse();
+        assertThat(summary.getTotal(), is(4));
+        assertThat(summary.getPassed(), is(2));
+        assertThat(summary.getFailed(), is(1));
+        assertThat(summary.getSkipped(), is(1));
+        assertThat(summary.getInconclusive(), is(0));
+    }
+
+    @Test
+    public void testParse_failures() throws Exception {
+        NUnitResultSummary summary = parse();
+        assertThat(summary.getFailures(), hasSize(1));
+        NUnitResultSummary.Failure failure = summary.getFailures().get(0);
+        assertThat(failure.getName(), is("Sample.Tests.CalculatorTests.Divide"));
+        assertThat(failure.getMessage(), is("Expected: 2\n  But was:  0"));
+        assertThat(failure.getStackTrace(), is("at Sample.Tests.CalculatorTests.Divide() in CalculatorTests.cs:line 30"));
+    }
+
+    @Test
+    public void testParse_durations() throws Exception {
+        NUnitResultSummary summary = parse();
+        Map<String, Long> durations = summary.getTestDurations();
+        assertThat(durations.size(), is(4));
+        assertThat(durations, hasEntry("Sample.Tests.CalculatorTests.Divide", 1100L));
+        assertThat(summary.getAssemblyDurations(), hasEntry("bin/Sample.Tests.dll", 1500L));
+    }
+
+    @Test
+    public void testParse_assemblyInSeveralFiles() throws Exception {
+        // Groups of a split test file each write a result file of the same assembly.
+        NUnitResultSummary summary = parse(parse());
+        assertThat(summary.getTotal(), is(8));
+        assertThat(summary.getAssemblies(), hasSize(1));
+        assertThat(summary.getAssemblyDurations(), hasEntry("bin/Sample.Tests.dll", 3000L));
+    }
+}
@@ -0,0 +1,156 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import hudson.model.TaskListener;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+public class NUnitRunPlanTest {
+
+    private static final List<String> TARGETS = Arrays.asList("a.dll", "b.dll");
+
+    private static final List<NUnitRunPlan.TestGroup> NO_GROUPS = Collections.emptyList();
+
+    private static final List<NUnitRunPlan.Combination> DEFAULT = Collections.singletonList(new NUnitRunPlan.Combination(null, Collections.<String>emptyList()));
+
+    private static NUnitOutcome phaseOutcome(String name, int exitCode, String test, String result) {
+        NUnitResultSummary summary = new NUnitResultSummary();
+        boolean failed = "Failed".equals(result);
+        summary.addTest(test, result, 1, failed ? new NUnitResultSummary.Failure(test, null, null) : null);
+        summary.addAssembly(new NUnitResultSummary.AssemblyResult("a.dll", 1, failed ? 0 : 1, failed ? 1 : 0, 0, 0, 0));
+        NUnitOutcome outcome = new NUnitOutcome();
+        outcome.addExit(name, exitCode, false);
+        outcome.addResults(name, null, summary);
+        return outcome;
+    }
+
+    @Test
+    public void testPhases_singleRun() {
+        NUnitRunPlan plan = new NUnitRunPlan("nunit3-console", TARGETS, Collections.singletonList(TARGETS), NO_GROUPS, DEFAULT, 0,
+                Collections.<String>emptyList(), Collections.singletonList("/teamcity"), null, null, false, 0, 0, null, false, null, NUnitResultMerger.Duplicates.LAST, true, 0, null);
+        NUnitOutcome outcome = new NUnitOutcome();
+
+        List<NUnitInvocation> phase = plan.nextPhase(outcome, TaskListener.NULL);
+        assertThat(phase, hasSize(1));
+        assertThat(phase.get(0).getArgs(), contains("nunit3-console", "\"a.dll\"", "\"b.dll\"", "/teamcity"));
+        assertThat(phase.get(0).getResultFile(), nullValue());
+
+        plan.addPhase(outcome, phaseOutcome(null, 0, "A.Ok", "Passed"));
+        assertThat(plan.nextPhase(outcome, TaskListener.NULL), nullValue());
+        assertThat(outcome.isFailed(), is(false));
+    }
+
+    @Test
+    public void testPhases_failedFirstShardsAndRetry() {
+        List<List<String>> shards = Arrays.asList(Collections.singletonList("a.dll"), Collections.singletonList("b.dll"));
+        NUnitRunPlan plan = new NUnitRunPlan("nunit3-console", TARGETS, shards, NO_GROUPS, DEFAULT, 0,
+                Collections.<String>emptyList(), Collections.<String>emptyList(), null, "test == 'A.Old'", false, 1, 0, null, false, null, NUnitResultMerger.Duplicates.LAST, true, 0, null);
+        NUnitOutcome outcome = new NUnitOutcome();
+
+        List<NUnitInvocation> failedFirst = plan.nextPhase(outcome, TaskListener.NULL);
+        assertThat(failedFirst, hasSize(1));
+        assertThat(failedFirst.get(0).getArgs(), hasItem("/where:\"test == 'A.Old'\""));
+        plan.addPhase(outcome, phaseOutcome("failed", 0, "A.Old", "Passed"));
+
+        List<NUnitInvocation> suite = plan.nextPhase(outcome, TaskListener.NULL);
+        assertThat(suite, hasSize(2));
+        assertThat(suite.get(1).getArgs(), hasItem("/where:\"!(test == 'A.Old')\""));
+        assertThat(suite.get(1).getResultFile(), is("TestResult-shard2.xml"));
+        plan.addPhase(outcome, phaseOutcome("shard-1", 1, "A.Flaky", "Failed"));
+        assertThat(outcome.isFailed(), is(true));
+
+        List<NUnitInvocation> retry = plan.nextPhase(outcome, TaskListener.NULL);
+        assertThat(retry, hasSize(1));
+        assertThat(retry.get(0).getArgs(), hasItem("/where:\"test == 'A.Flaky'\""));
+        plan.addPhase(outcome, phaseOutcome("retry-1", 0, "A.Flaky", "Passed"));
+
+        assertThat(plan.nextPhase(outcome, TaskListener.NULL), nullValue());
+        assertThat(outcome.isFailed(), is(false));
+        assertThat(outcome.getSummary().getFlakyTests(), contains("A.Flaky"));
+    }
+
+    @Test
+    public void testPhases_combinations() {
+        List<NUnitRunPlan.Combination> combinations = Arrays.asList(
+                new NUnitRunPlan.Combination("x86", Collections.singletonList("/Platform:x86")),
+                new NUnitRunPlan.Combination("x64", Collections.singletonList("/Platform:x64")));
+        NUnitRunPlan plan = new NUnitRunPlan("nunit3-console", TARGETS, Collections.singletonList(TARGETS), NO_GROUPS, combinations, 1,
+                Collections.<String>emptyList(), Collections.<String>emptyList(), null, null, false, 1, 0, null, false, null, NUnitResultMerger.Duplicates.LAST, true, 0, null);
+        assertThat(plan.getMaxProcesses(), is(1));
+        NUnitOutcome outcome = new NUnitOutcome();
+
+        List<NUnitInvocation> suite = plan.nextPhase(outcome, TaskListener.NULL);
+        assertThat(suite, hasSize(2));
+        assertThat(suite.get(0).getName(), is("x86"));
+        assertThat(suite.get(0).getCombination(), is("x86"));
+        assertThat(suite.get(0).getResultFile(), is("TestResult-x86.xml"));
+        assertThat(suite.get(1).getArgs(), hasItem("/Platform:x64"));
+        assertThat(suite.get(1).getArgs(), hasItem("/result:\"TestResult-x64.xml\""));
+
+        NUnitOutcome phase = new NUnitOutcome();
+        phase.addExit("x86", 1, false);
+        phase.addExit("x64", 0, false);
+        phase.addResults("x86", "x86", phaseOutcome(null, 1, "A.Flaky", "Failed").getSummary());
+        phase.addResults("x64", "x64", phaseOutcome(null, 0, "A.Flaky", "Passed").getSummary());
+        plan.addPhase(outcome, phase);
+
+        // Only the combination the test failed in retries it.
+        List<NUnitInvocation> retry = plan.nextPhase(outcome, TaskListener.NULL);
+        assertThat(retry, hasSize(1));
+        assertThat(retry.get(0).getName(), is("x86-retry-1"));
+        assertThat(retry.get(0).getResultFile(), is("TestResult-x86-retry1.xml"));
+        assertThat(retry.get(0).getArgs(), hasItem("/Platform:x86"));
+    }
+
+    @Test
+    public void testPhases_failFast() {
+        NUnitRunPlan plan = new NUnitRunPlan("nunit3-console", TARGETS, Collections.singletonList(TARGETS), NO_GROUPS, DEFAULT, 0,
+                Collections.<String>emptyList(), Collections.<String>emptyList(), null, null, false, 2, 0, null, false, null, NUnitResultMerger.Duplicates.LAST, false, 1, null);
+        NUnitOutcome outcome = new NUnitOutcome();
+        assertThat(plan.nextPhase(outcome, TaskListener.NULL), hasSize(1));
+        assertThat(plan.isStopped(), is(false));
+
+        plan.getFailFast().onEvent(NUnitTestEvent.parse("##teamcity[testStarted name='A.Broken']"));
+        plan.getFailFast().onEvent(NUnitTestEvent.parse("##teamcity[testFailed name='A.Broken' message='boom']"));
+        assertThat(plan.isStopped(), is(true));
+        assertThat(plan.getFailFast().getFailedTests(), contains("A.Broken"));
+        assertThat(plan.getFailFast().getMessage(), is("NUnit stopped after 1 failed tests: A.Broken"));
+
+        // No retries once stopped, although they are enabled.
+        plan.addPhase(outcome, phaseOutcome(null, 1, "A.Broken", "Failed"));
+        assertThat(plan.nextPhase(outcome, TaskListener.NULL), nullValue());
+    }
+
+    @Test
+    public void testPhases_testGroups() {
+        List<NUnitRunPlan.TestGroup> groups = Arrays.asList(
+                new NUnitRunPlan.TestGroup("b.dll", "TestList-1-1.txt", 4500),
+                new NUnitRunPlan.TestGroup("b.dll", "TestList-1-2.txt", 4500));
+        NUnitRunPlan plan = new NUnitRunPlan("nunit3-console", TARGETS, Collections.singletonList(Collections.singletonList("a.dll")), groups, DEFAULT, 0,
+                Collections.<String>emptyList(), Collections.<String>emptyList(), null, null, false, 1, 0, null, false, null, NUnitResultMerger.Duplicates.LAST, true, 0, null);
+        NUnitOutcome outcome = new NUnitOutcome();
+
+        List<NUnitInvocation> suite = plan.nextPhase(outcome, TaskListener.NULL);
+        assertThat(suite, hasSize(3));
+        assertThat(suite.get(0).getArgs(), contains("nunit3-console", "\"a.dll\"", "/result:\"TestResult-shard1.xml\""));
+        assertThat(suite.get(2).getName(), is("shard-3"));
+        assertThat(suite.get(2).getArgs(), contains("nunit3-console", "\"b.dll\"", "/testlist:\"TestList-1-2.txt\"", "/result:\"TestResult-shard3.xml\""));
+
+        // Retries select the failed tests by name from the whole test file.
+        plan.addPhase(outcome, phaseOutcome("shard-3", 1, "B.Slow", "Failed"));
+        List<NUnitInvocation> retry = plan.nextPhase(outcome, TaskListener.NULL);
+        assertThat(retry, hasSize(1));
+        assertThat(retry.get(0).getArgs(), hasItem("\"b.dll\""));
+        assertThat(retry.get(0).getArgs(), not(hasItem("/testlist:\"TestList-1-2.txt\"")));
+    }
+}
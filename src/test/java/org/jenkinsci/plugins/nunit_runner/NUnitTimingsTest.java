@@ -0,0 +1,37 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+public class NUnitTimingsTest {
+
+    @Test
+    public void testAdd_sumsPerPhase() {
+        NUnitTimings timings = new NUnitTimings();
+        timings.add(NUnitTimings.Phase.EXECUTION, 100);
+        timings.add(NUnitTimings.Phase.TOOL, 3);
+        timings.add(NUnitTimings.Phase.EXECUTION, 50);
+
+        NUnitTimings other = new NUnitTimings();
+        other.add(NUnitTimings.Phase.EXECUTION, 10);
+        timings.add(other);
+
+        assertThat(timings.getMillis().keySet(), contains(NUnitTimings.Phase.TOOL, NUnitTimings.Phase.EXECUTION));
+        assertThat(timings.getMillis().get(NUnitTimings.Phase.EXECUTION), is(160L));
+        assertThat(timings.toString(), is("tool resolution 3 ms, test execution 160 ms"));
+    }
+
+    @Test
+    public void testRecord_returnsStartOfNextPhase() {
+        NUnitTimings timings = new NUnitTimings();
+        long start = System.nanoTime();
+        long next = timings.record(NUnitTimings.Phase.PLANNING, start);
+
+        assertThat(next, greaterThanOrEqualTo(start));
+        assertThat(timings.getMillis().get(NUnitTimings.Phase.PLANNING), greaterThanOrEqualTo(0L));
+    }
+}
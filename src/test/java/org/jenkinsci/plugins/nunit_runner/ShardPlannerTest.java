@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+
+public class ShardPlannerTest {
+
+    @Test
+    public void testPartition_roundRobin() {
+        List<List<String>> shards = ShardPlanner.partition(Arrays.asList("a.dll", "b.dll", "c.dll", "d.dll", "e.dll"), 2);
+        assertThat(shards, hasSize(2));
+        assertThat(shards.get(0), contains("a.dll", "c.dll", "e.dll"));
+        assertThat(shards.get(1), contains("b.dll", "d.dll"));
+    }
+
+    @Test
+    public void testPartition_moreShardsThanTargets() {
+        List<List<String>> shards = ShardPlanner.partition(Arrays.asList("a.dll", "b.dll"), 8);
+        assertThat(shards, hasSize(2));
+        assertThat(shards.get(0), contains("a.dll"));
+        assertThat(shards.get(1), contains("b.dll"));
+    }
+
+    @Test
+    public void testBalance_longestFirst() {
+        Map<String, Long> durations = new HashMap<>();
+        durations.put("a.dll", 1000L);
+        durations.put("b.dll", 100L);
+        durations.put("c.dll", 100L);
+        durations.put("d.dll", 850L);
+        List<List<String>> shards = ShardPlanner.balance(Arrays.asList("a.dll", "b.dll", "c.dll", "d.dll"), durations, 2);
+        assertThat(shards, hasSize(2));
+        assertThat(shards.get(0), contains("a.dll"));
+        assertThat(shards.get(1), contains("b.dll", "c.dll", "d.dll"));
+    }
+
+    @Test
+    public void testBalance_unknownUsesAverage() {
+        Map<String, Long> durations = new HashMap<>();
+        durations.put("a.dll", 600L);
+        durations.put("b.dll", 200L);
+        List<List<String>> shards = ShardPlanner.balance(Arrays.asList("a.dll", "b.dll", "new.dll"), durations, 2);
+        assertThat(shards.get(0), contains("a.dll"));
+        assertThat(shards.get(1), contains("b.dll", "new.dll"));
+    }
+
+    @Test
+    public void testBalance_noHistory() {
+        List<List<String>> shards = ShardPlanner.balance(Arrays.asList("a.dll", "b.dll", "c.dll"), Collections.<String, Long>emptyMap(), 2);
+        assertThat(shards.get(0), contains("a.dll", "c.dll"));
+        assertThat(shards.get(1), contains("b.dll"));
+    }
+}
@@ -0,0 +1,175 @@
+package org.jenkinsci.plugins.nunit_runner;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assume.assumeTrue;
+
+public class WorkspaceIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File workspace;
+
+    @Before
+    public void setUp() throws Exception {
+        workspace = tmp.newFolder("workspace");
+    }
+
+    private File createFile(String path) throws Exception {
+        File file = new File(workspace, path);
+        file.getParentFile().mkdirs();
+        assertThat(file.createNewFile(), is(true));
+        return file;
+    }
+
+    private List<String> resolve(String... patterns) throws Exception {
+        return new TestFilesResolver(Arrays.asList(patterns), WorkspaceIndex.INDEX_FILE).invoke(workspace, null);
+    }
+
+    /**
+     * Moves the modification time of the workspace and every directory below it out of the racy interval.
+     */
+    private void age() {
+        age(workspace, System.currentTimeMillis() - 10 * WorkspaceIndex.RACY_INTERVAL);
+    }
+
+    private static void age(File dir, long time) {
+        File[] children = dir.listFiles();
+        for (File child : children) {
+            if (child.isDirectory() && !Files.isSymbolicLink(child.toPath())) {
+                age(child, time);
+            }
+        }
+        assertThat(dir.setLastModified(time), is(true));
+    }
+
+    @Test
+    public void testResolve_reusesUnchangedDirectory() throws Exception {
+        createFile("a/x.Tests.dll");
+        age();
+        assertThat(resolve("**/*.Tests.dll"), contains("a/x.Tests.dll"));
+
+        // A change the directory time does not show is not seen, so the listing was reused.
+        File a = new File(workspace, "a");
+        long modified = a.lastModified();
+        createFile("a/y.Tests.dll");
+        assertThat(a.setLastModified(modified), is(true));
+        assertThat(resolve("**/*.Tests.dll"), contains("a/x.Tests.dll"));
+    }
+
+    @Test
+    public void testResolve_afterDelete() throws Exception {
+        createFile("a/x.Tests.dll");
+        File deleted = createFile("a/y.Tests.dll");
+        createFile("b/z.Tests.dll");
+        age();
+        assertThat(resolve("**/*.Tests.dll"), contains("a/x.Tests.dll", "a/y.Tests.dll", "b/z.Tests.dll"));
+
+        assertThat(deleted.delete(), is(true));
+        assertThat(resolve("**/*.Tests.dll"), contains("a/x.Tests.dll", "b/z.Tests.dll"));
+    }
+
+    @Test
+    public void testResolve_afterDeletedDirectory() throws Exception {
+        createFile("a/b/x.Tests.dll");
+        createFile("c/y.Tests.dll");
+        age();
+        assertThat(resolve("**/*.Tests.dll"), contains("a/b/x.Tests.dll", "c/y.Tests.dll"));
+
+        assertThat(new File(workspace, "a/b/x.Tests.dll").delete(), is(true));
+        assertThat(new File(workspace, "a/b").delete(), is(true));
+        assertThat(resolve("**/*.Tests.dll"), contains("c/y.Tests.dll"));
+    }
+
+    @Test
+    public void testResolve_afterRename() throws Exception {
+        createFile("a/x.Tests.dll");
+        createFile("b/c/y.Tests.dll");
+        age();
+        assertThat(resolve("**/*.Tests.dll"), contains("a/x.Tests.dll", "b/c/y.Tests.dll"));
+
+        assertThat(new File(workspace, "a/x.Tests.dll").renameTo(new File(workspace, "a/x.dll")), is(true));
+        assertThat(new File(workspace, "b/c").renameTo(new File(workspace, "b/d")), is(true));
+        assertThat(resolve("**/*.Tests.dll"), contains("b/d/y.Tests.dll"));
+    }
+
+    @Test
+    public void testResolve_afterAddedDirectory() throws Exception {
+        createFile("a/x.Tests.dll");
+        age();
+        assertThat(resolve("**/*.Tests.dll"), contains("a/x.Tests.dll"));
+
+        createFile("a/b/c/y.Tests.dll");
+        createFile("d/z.Tests.dll");
+        assertThat(resolve("**/*.Tests.dll"), contains("a/b/c/y.Tests.dll", "a/x.Tests.dll", "d/z.Tests.dll"));
+    }
+
+    @Test
+    public void testResolve_changeInRacyInterval() throws Exception {
+        createFile("a/x.Tests.dll");
+        age();
+        // Listed right after a change, on a file system whose clock does not move before the next one.
+        File a = new File(workspace, "a");
+        long modified = System.currentTimeMillis() - WorkspaceIndex.RACY_INTERVAL / 4;
+        assertThat(a.setLastModified(modified), is(true));
+        assertThat(resolve("**/*.Tests.dll"), contains("a/x.Tests.dll"));
+
+        createFile("a/y.Tests.dll");
+        assertThat(a.setLastModified(modified), is(true));
+        assertThat(resolve("**/*.Tests.dll"), contains("a/x.Tests.dll", "a/y.Tests.dll"));
+    }
+
+    @Test
+    public void testResolve_otherPatterns() throws Exception {
+        createFile("a/x.Tests.dll");
+        createFile("a/y.dll");
+        age();
+        assertThat(resolve("**/*.Tests.dll"), contains("a/x.Tests.dll"));
+
+        // Nothing changed on disk, but the index was built for other patterns.
+        assertThat(resolve("**/*.dll"), contains("a/x.Tests.dll", "a/y.dll"));
+        assertThat(resolve("a/y.dll"), contains("a/y.dll"));
+    }
+
+    @Test
+    public void testResolve_retargetedLink() throws Exception {
+        assumeTrue(File.separatorChar == '/');
+        createFile("first/x.Tests.dll");
+        createFile("second/y.Tests.dll");
+        File link = new File(workspace, "link");
+        Files.createSymbolicLink(link.toPath(), new File(workspace, "first").toPath());
+        age();
+        assertThat(resolve("link/*.Tests.dll"), contains("link/x.Tests.dll"));
+
+        // Point the link elsewhere without a trace in the time of the directory holding it.
+        long modified = workspace.lastModified();
+        assertThat(link.delete(), is(true));
+        Files.createSymbolicLink(link.toPath(), new File(workspace, "second").toPath());
+        assertThat(workspace.setLastModified(modified), is(true));
+        assertThat(resolve("link/*.Tests.dll"), contains("link/y.Tests.dll"));
+    }
+
+    @Test
+    public void testLoad_otherKey() throws Exception {
+        File file = new File(workspace, WorkspaceIndex.INDEX_FILE);
+        WorkspaceIndex index = new WorkspaceIndex("**/*.dll");
+        index.put("", new WorkspaceIndex.Entry(1000, Arrays.asList("a.dll"), Arrays.<String>asList()));
+        index.save(file);
+
+        assertThat(WorkspaceIndex.load(file, "**/*.dll").get("", 1000).getFiles(), contains("a.dll"));
+        assertThat(WorkspaceIndex.load(file, "**/*.dll").get("", 2000) == null, is(true));
+        assertThat(WorkspaceIndex.load(file, "**/*.Tests.dll") == null, is(true));
+    }
+}